@@ -11,6 +11,7 @@ import de.maxhenkel.voicechat.api.packets.LocationalSoundPacket;
 import de.maxhenkel.voicechat.api.packets.StaticSoundPacket;
 
 import javax.annotation.Nullable;
+import java.io.InputStream;
 import java.util.Collection;
 import java.util.UUID;
 import java.util.function.Predicate;
@@ -100,6 +101,59 @@ public interface VoicechatServerApi extends VoicechatApi {
      */
     AudioPlayer createAudioPlayer(AudioChannel audioChannel, OpusEncoder encoder, short[] audio);
 
+    /**
+     * Creates a new audio player that plays pre-encoded audio.
+     * <br/>
+     * <br/>
+     * <b>NOTE</b>: Never use more than one audio player for every audio channel.
+     *
+     * @param audioChannel the channel where the audio player should send the audio to
+     * @param audio        the encoded audio
+     * @return the audio player
+     * @since 2.6.0
+     */
+    AudioPlayer createAudioPlayer(AudioChannel audioChannel, EncodedAudio audio);
+
+    /**
+     * Encodes audio once, so it can be played by multiple audio players without encoding it again.
+     * The encoder won't be closed.
+     *
+     * @param encoder the opus encoder used to encode the audio data
+     * @param audio   the audio data
+     * @return the encoded audio
+     * @since 2.6.0
+     */
+    EncodedAudio encodeAudio(OpusEncoder encoder, short[] audio);
+
+    /**
+     * Gets encoded audio from the cache or encodes and caches it, if it isn't cached.
+     * The least recently used audio is removed from the cache, if the cache exceeds its size limit.
+     * <br/>
+     * <br/>
+     * <b>NOTE</b>: If the audio isn't cached, it is encoded synchronously on the calling thread.
+     * Avoid calling this on the server thread with audio that isn't cached yet.
+     *
+     * @param key           a unique key for the audio
+     * @param audioSupplier only called if the audio isn't cached. It gets called repeatedly for every audio frame, until it returns <code>null</code>. The size of the array always needs to be 960
+     * @return the encoded audio
+     * @throws IllegalArgumentException if a frame doesn't have a size of 960
+     * @since 2.6.0
+     */
+    EncodedAudio getEncodedAudio(String key, Supplier<short[]> audioSupplier);
+
+    /**
+     * Creates an audio supplier that decodes an audio stream while it is played, instead of decoding the whole audio at once.
+     * Supports MP3 and all formats that are supported by {@link javax.sound.sampled.AudioSystem}, like WAV.
+     * <br/>
+     * <b>NOTE</b>: MP3 is not available for Bukkit!
+     *
+     * @param inputStream the audio stream - Gets closed when the supplier is closed
+     * @return the audio supplier or <code>null</code> if the format is not supported
+     * @since 2.6.0
+     */
+    @Nullable
+    StreamingAudioSupplier createStreamingAudioSupplier(InputStream inputStream);
+
     /**
      * Creates a new audio sender.
      * <br/>
@@ -319,4 +373,13 @@ public interface VoicechatServerApi extends VoicechatApi {
      */
     ConfigAccessor getServerConfig();
 
+    /**
+     * Voice chat caches the speak and listen permissions of players for a few seconds.
+     * Call this after changing the permissions of a player, so the change takes effect immediately.
+     *
+     * @param playerUuid the UUID of the player
+     * @since 2.6.0
+     */
+    void invalidatePermissions(UUID playerUuid);
+
 }
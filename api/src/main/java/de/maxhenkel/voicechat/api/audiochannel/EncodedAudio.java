@@ -0,0 +1,22 @@
+package de.maxhenkel.voicechat.api.audiochannel;
+
+/**
+ * Opus encoded audio that can be played any number of times without encoding it again.
+ * Instances are immutable and can be shared between audio players and threads.
+ * Instances can be obtained by calling {@link de.maxhenkel.voicechat.api.VoicechatServerApi#encodeAudio} or {@link de.maxhenkel.voicechat.api.VoicechatServerApi#getEncodedAudio}.
+ *
+ * @since 2.6.0
+ */
+public interface EncodedAudio {
+
+    /**
+     * @return the amount of 20ms frames
+     */
+    int getFrameCount();
+
+    /**
+     * @return the size of the encoded audio in bytes
+     */
+    long getSize();
+
+}
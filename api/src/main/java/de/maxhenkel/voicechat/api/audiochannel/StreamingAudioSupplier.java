@@ -0,0 +1,32 @@
+package de.maxhenkel.voicechat.api.audiochannel;
+
+import java.util.function.Supplier;
+
+/**
+ * An audio supplier that decodes audio while it is played, so only a small part of the audio is held in memory at a time.
+ * The audio is decoded ahead of time on a background thread and converted to 48 kHz mono.
+ * <br/>
+ * It can be used with {@link de.maxhenkel.voicechat.api.VoicechatServerApi#createAudioPlayer(AudioChannel, de.maxhenkel.voicechat.api.opus.OpusEncoder, Supplier)}.
+ * An instance can be obtained by calling {@link de.maxhenkel.voicechat.api.VoicechatServerApi#createStreamingAudioSupplier}.
+ *
+ * @since 2.6.0
+ */
+public interface StreamingAudioSupplier extends Supplier<short[]>, AutoCloseable {
+
+    /**
+     * Gets the next frame of audio.
+     * This blocks if the audio wasn't decoded in time.
+     *
+     * @return the next 960 samples or <code>null</code> if the end of the audio was reached
+     */
+    @Override
+    short[] get();
+
+    /**
+     * Stops decoding and closes the underlying input stream.
+     * This is called automatically when the end of the audio was reached or the audio player using it stopped.
+     */
+    @Override
+    void close();
+
+}
@@ -16,6 +16,9 @@ import de.maxhenkel.voicechat.logging.VoicechatLogger;
 import de.maxhenkel.voicechat.net.NetManager;
 import de.maxhenkel.voicechat.plugins.PluginManager;
 import de.maxhenkel.voicechat.plugins.impl.BukkitVoicechatServiceImpl;
+import de.maxhenkel.voicechat.plugins.impl.VoicechatServerApiImpl;
+import de.maxhenkel.voicechat.plugins.impl.audiochannel.AudioPlayerScheduler;
+import de.maxhenkel.voicechat.plugins.impl.audiochannel.StreamingAudioSupplierImpl;
 import de.maxhenkel.voicechat.voice.server.ServerVoiceEvents;
 import de.maxhenkel.voicechat.voice.server.ServerPlayerManager;
 import me.lucko.commodore.Commodore;
@@ -142,6 +145,9 @@ public final class Voicechat extends JavaPlugin {
         if (SERVER != null) {
             SERVER.getServer().close();
         }
+        AudioPlayerScheduler.shutdown();
+        StreamingAudioSupplierImpl.shutdown();
+        VoicechatServerApiImpl.instance().getEncodedAudioCache().clear();
     }
 
     public static boolean debugMode() {
@@ -3,8 +3,10 @@ package de.maxhenkel.voicechat.command;
 import de.maxhenkel.voicechat.Voicechat;
 import de.maxhenkel.voicechat.net.NetManager;
 import de.maxhenkel.voicechat.permission.PermissionManager;
+import de.maxhenkel.voicechat.plugins.impl.audiochannel.AudioPlayerScheduler;
 import de.maxhenkel.voicechat.voice.common.PlayerState;
 import de.maxhenkel.voicechat.voice.server.ClientConnection;
+import de.maxhenkel.voicechat.voice.server.DeadlineScheduler;
 import de.maxhenkel.voicechat.voice.server.Group;
 import de.maxhenkel.voicechat.voice.server.PingManager;
 import de.maxhenkel.voicechat.voice.server.Server;
@@ -49,6 +51,18 @@ public class VoiceChatCommands implements CommandExecutor, TabCompleter {
                 } else {
                     return true;
                 }
+            } else if (args[0].equalsIgnoreCase("reloadpermissions")) {
+                if (commandSender.hasPermission(PermissionManager.ADMIN_PERMISSION)) {
+                    return reloadPermissionsCommand(sender, command, label, args);
+                } else {
+                    return true;
+                }
+            } else if (args[0].equalsIgnoreCase("debug")) {
+                if (commandSender.hasPermission(PermissionManager.ADMIN_PERMISSION)) {
+                    return debugCommand(sender, command, label, args);
+                } else {
+                    return true;
+                }
             } else if (args[0].equalsIgnoreCase("invite")) {
                 return inviteCommand(sender, command, label, args);
             } else if (args[0].equalsIgnoreCase("join")) {
@@ -64,7 +78,7 @@ public class VoiceChatCommands implements CommandExecutor, TabCompleter {
     @Override
     public List<String> onTabComplete(@NotNull CommandSender commandSender, @NotNull Command command, @NotNull String label, @NotNull String[] args) {
         if (args.length == 1) {
-            return tabCompleteList(args[0], Arrays.asList("help", "test", "invite", "join", "leave"));
+            return tabCompleteList(args[0], Arrays.asList("help", "test", "reloadpermissions", "debug", "invite", "join", "leave"));
         }
 
         if (args.length == 2) {
@@ -93,6 +107,8 @@ public class VoiceChatCommands implements CommandExecutor, TabCompleter {
     private boolean helpCommand(Player commandSender, Command command, String label, String[] args) {
         commandSender.sendMessage("/voicechat [help]");
         commandSender.sendMessage("/voicechat [test] <target>");
+        commandSender.sendMessage("/voicechat [reloadpermissions]");
+        commandSender.sendMessage("/voicechat [debug]");
         commandSender.sendMessage("/voicechat [invite] <target>");
         commandSender.sendMessage("/voicechat [join] <group> [<password>]");
         commandSender.sendMessage("/voicechat [leave]");
@@ -154,6 +170,39 @@ public class VoiceChatCommands implements CommandExecutor, TabCompleter {
         return true;
     }
 
+    private boolean reloadPermissionsCommand(Player commandSender, Command command, String label, String[] args) {
+        Voicechat.SERVER.getServer().getPermissionCache().invalidateAll();
+        NetManager.sendMessage(commandSender, Component.translatable("message.voicechat.permissions_reloaded"));
+        return true;
+    }
+
+    private boolean debugCommand(Player commandSender, Command command, String label, String[] args) {
+        DeadlineScheduler deadlineScheduler = Voicechat.SERVER.getServer().getDeadlineScheduler();
+        commandSender.sendMessage(String.format("Pending deadlines: %s (Keep alive: %s, Ping: %s)",
+                deadlineScheduler.getPendingDeadlines(),
+                deadlineScheduler.getPendingDeadlines(DeadlineScheduler.Type.KEEP_ALIVE),
+                deadlineScheduler.getPendingDeadlines(DeadlineScheduler.Type.PING)
+        ));
+        AudioPlayerScheduler scheduler = AudioPlayerScheduler.getRunningInstance();
+        if (scheduler == null) {
+            commandSender.sendMessage("No audio players running");
+            return true;
+        }
+        commandSender.sendMessage(String.format("Audio players: %s Ticks: %s (%s skipped) Deferred frames: %s Skipped frames: %s",
+                scheduler.getActivePlayers(),
+                scheduler.getTicks(),
+                scheduler.getSkippedTicks(),
+                scheduler.getDeferredFrames(),
+                scheduler.getSkippedFrames()
+        ));
+        commandSender.sendMessage(String.format("Audio player clock jitter: %.2f ms (Average: %.2f ms, Max: %.2f ms)",
+                scheduler.getLastJitter() / 1_000_000D,
+                scheduler.getAverageJitter() / 1_000_000D,
+                scheduler.getMaxJitter() / 1_000_000D
+        ));
+        return true;
+    }
+
     private boolean inviteCommand(Player commandSender, Command command, String label, String[] args) {
         if (args.length < 2) {
             return false;
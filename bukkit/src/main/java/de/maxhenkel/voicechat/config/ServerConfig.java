@@ -22,6 +22,7 @@ public class ServerConfig {
     public ConfigEntry<Boolean> forceVoiceChat;
     public ConfigEntry<Integer> loginTimeout;
     public ConfigEntry<Double> broadcastRange;
+    public ConfigEntry<Boolean> recordSessions;
 
     public ServerConfig(ConfigBuilder builder) {
         builder.header(String.format("Simple Voice Chat server config v%s", Voicechat.INSTANCE.getDescription().getVersion()));
@@ -99,6 +100,12 @@ public class ServerConfig {
                         "The range where the voice chat should broadcast audio to",
                         "A value <0 means 'max_voice_distance'"
                 );
+        recordSessions = builder
+                .booleanEntry("record_sessions", false,
+                        "If the voice chat server should record all audio it receives and sends",
+                        "The audio is saved without decoding it to a new file in the 'voicechat_sessions' folder every time the server starts",
+                        "Players get notified that they are being recorded when connecting to the voice chat"
+                );
     }
 
     public enum Codec {
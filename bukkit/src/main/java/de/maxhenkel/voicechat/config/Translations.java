@@ -9,6 +9,7 @@ public class Translations {
     public final ConfigEntry<String> voicechatNotCompatibleMessage;
     public final ConfigEntry<String> voicechatNeededForCommandMessage;
     public final ConfigEntry<String> playerCommandMessage;
+    public final ConfigEntry<String> sessionRecordingMessage;
     public final ConfigEntry<String> placeholderVoicechatInstalled;
     public final ConfigEntry<String> placeholderVoicechatNotInstalled;
     public final ConfigEntry<String> placeholderVoicechatDisabled;
@@ -42,6 +43,11 @@ public class Translations {
                 "This command can only be executed as a player",
                 "The message a player gets when trying to execute a command that can only be executed as a player"
         );
+        sessionRecordingMessage = builder.stringEntry(
+                "session_recording_message",
+                "The voice chat on this server is being recorded",
+                "The message a player gets when connecting to the voice chat while 'record_sessions' is enabled"
+        );
         placeholderVoicechatInstalled = builder.stringEntry(
                 "placeholder_api_voicechat_installed",
                 "",
@@ -1,24 +1,49 @@
 package de.maxhenkel.voicechat.debug;
 
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.LongConsumer;
 
 public class CooldownTimer {
 
-    private static ConcurrentHashMap<String, Long> cooldowns;
+    public static final long DEFAULT_COOLDOWN = 10_000L;
+
+    private static final RateLimiter<String> cooldowns;
 
     static {
-        cooldowns = new ConcurrentHashMap<>();
+        cooldowns = new RateLimiter<>(DEFAULT_COOLDOWN, 256);
     }
 
     public static void run(String id, long time, Runnable runnable) {
-        if (System.currentTimeMillis() - cooldowns.getOrDefault(id, 0L) > time) {
-            cooldowns.put(id, System.currentTimeMillis());
+        if (check(id, time) != RateLimiter.SUPPRESSED) {
             runnable.run();
         }
     }
 
     public static void run(String id, Runnable runnable) {
-        run(id, 10_000L, runnable);
+        run(id, DEFAULT_COOLDOWN, runnable);
+    }
+
+    /**
+     * @param id     a constant ID
+     * @param time   the cooldown in milliseconds
+     * @param action the action that gets the amount of suppressed runs
+     */
+    public static void run(String id, long time, LongConsumer action) {
+        cooldowns.run(id, time, action);
+    }
+
+    /**
+     * Doesn't allocate, so it can be used for every packet.
+     *
+     * @param id   a constant ID
+     * @param time the cooldown in milliseconds
+     * @return the amount of suppressed runs or {@link RateLimiter#SUPPRESSED} if the ID is on cooldown
+     */
+    public static long check(String id, long time) {
+        return cooldowns.check(id, time);
+    }
+
+    public static long check(String id) {
+        return check(id, DEFAULT_COOLDOWN);
     }
 
 }
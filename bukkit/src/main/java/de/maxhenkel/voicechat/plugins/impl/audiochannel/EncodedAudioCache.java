@@ -0,0 +1,101 @@
+package de.maxhenkel.voicechat.plugins.impl.audiochannel;
+
+import de.maxhenkel.voicechat.api.opus.OpusEncoder;
+import de.maxhenkel.voicechat.plugins.impl.opus.OpusManager;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.Supplier;
+
+/**
+ * A least recently used cache for {@link EncodedAudioImpl encoded audio} with a memory limit.
+ */
+public class EncodedAudioCache {
+
+    /**
+     * The maximum size of all cached audio in bytes
+     */
+    public static final long MAX_SIZE = 32L * 1024L * 1024L;
+    /**
+     * The estimated memory overhead of a single frame in bytes
+     */
+    private static final long FRAME_OVERHEAD = 16L;
+
+    private final LinkedHashMap<String, EncodedAudioImpl> cache;
+    private long size;
+
+    public EncodedAudioCache() {
+        this.cache = new LinkedHashMap<>(16, 0.75F, true);
+    }
+
+    /**
+     * Gets the audio from the cache or encodes it.
+     * Encoding happens outside the lock, so the same audio might be encoded multiple times if it is requested concurrently.
+     *
+     * @param key           the key of the audio
+     * @param audioSupplier the audio frames
+     * @return the encoded audio
+     */
+    public EncodedAudioImpl get(String key, Supplier<short[]> audioSupplier) {
+        synchronized (cache) {
+            EncodedAudioImpl audio = cache.get(key);
+            if (audio != null) {
+                return audio;
+            }
+        }
+        EncodedAudioImpl audio;
+        OpusEncoder encoder = OpusManager.createEncoder(null);
+        try {
+            audio = EncodedAudioImpl.encode(encoder, audioSupplier);
+        } finally {
+            encoder.close();
+        }
+        put(key, audio);
+        return audio;
+    }
+
+    private void put(String key, EncodedAudioImpl audio) {
+        long audioSize = getMemorySize(audio);
+        if (audioSize > MAX_SIZE) {
+            return;
+        }
+        synchronized (cache) {
+            EncodedAudioImpl previous = cache.put(key, audio);
+            if (previous != null) {
+                size -= getMemorySize(previous);
+            }
+            size += audioSize;
+            Iterator<Map.Entry<String, EncodedAudioImpl>> iterator = cache.entrySet().iterator();
+            while (size > MAX_SIZE && iterator.hasNext()) {
+                Map.Entry<String, EncodedAudioImpl> eldest = iterator.next();
+                if (eldest.getValue() == audio) {
+                    continue;
+                }
+                size -= getMemorySize(eldest.getValue());
+                iterator.remove();
+            }
+        }
+    }
+
+    public void clear() {
+        synchronized (cache) {
+            cache.clear();
+            size = 0L;
+        }
+    }
+
+    /**
+     * @return the estimated memory usage of all cached audio in bytes
+     */
+    public long getSize() {
+        synchronized (cache) {
+            return size;
+        }
+    }
+
+    private static long getMemorySize(EncodedAudioImpl audio) {
+        return audio.getSize() + audio.getFrameCount() * FRAME_OVERHEAD;
+    }
+
+}
@@ -0,0 +1,64 @@
+package de.maxhenkel.voicechat.plugins.impl.audiochannel;
+
+import de.maxhenkel.voicechat.api.audiochannel.EncodedAudio;
+import de.maxhenkel.voicechat.api.opus.OpusEncoder;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Supplier;
+
+public class EncodedAudioImpl implements EncodedAudio {
+
+    private final byte[][] frames;
+    private final long size;
+
+    private EncodedAudioImpl(byte[][] frames) {
+        this.frames = frames;
+        long s = 0L;
+        for (byte[] frame : frames) {
+            s += frame.length;
+        }
+        this.size = s;
+    }
+
+    /**
+     * Encodes all frames of the supplier.
+     *
+     * @param encoder       the encoder - Won't be closed
+     * @param audioSupplier the audio frames
+     * @return the encoded audio
+     * @throws IllegalArgumentException if a frame has an invalid size
+     */
+    public static EncodedAudioImpl encode(OpusEncoder encoder, Supplier<short[]> audioSupplier) {
+        encoder.resetState();
+        List<byte[]> frames = new ArrayList<>();
+        short[] frame;
+        while ((frame = audioSupplier.get()) != null) {
+            if (frame.length != AudioPlayerImpl.FRAME_SIZE) {
+                throw new IllegalArgumentException(String.format("Invalid audio frame size %s!=%s", frame.length, AudioPlayerImpl.FRAME_SIZE));
+            }
+            frames.add(encoder.encode(frame));
+        }
+        encoder.resetState();
+        return new EncodedAudioImpl(frames.toArray(new byte[0][]));
+    }
+
+    /**
+     * @param index the frame index
+     * @return the Opus packet - Must not be modified
+     */
+    byte[] getFrame(int index) {
+        return frames[index];
+    }
+
+    @Override
+    public int getFrameCount() {
+        return frames.length;
+    }
+
+    @Override
+    public long getSize() {
+        return size;
+    }
+
+}
@@ -71,6 +71,7 @@ public class EntityAudioChannelImpl extends AudioChannelImpl implements EntityAu
     }
 
     private void broadcast(PlayerSoundPacket packet) {
+        record(packet);
         if (entity.getEntity() instanceof org.bukkit.entity.Entity) {
             org.bukkit.entity.Entity entity = (org.bukkit.entity.Entity) this.entity.getEntity();
             server.broadcast(ServerPlayerManager.getPlayersInRange(entity.getWorld(), entity.getLocation(), server.getBroadcastRange(distance), filter == null ? null : player -> filter.test(new ServerPlayerImpl(player))), packet, null, null, null, SoundPacketEvent.SOURCE_PLUGIN);
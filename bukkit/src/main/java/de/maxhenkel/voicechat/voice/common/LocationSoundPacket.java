@@ -44,6 +44,7 @@ public class LocationSoundPacket extends SoundPacket<LocationSoundPacket> {
             soundPacket.category = buf.readUtf(16);
         }
 
+        soundPacket.readDiscontinuity(data, buf);
         return soundPacket;
     }
 
@@ -62,9 +63,11 @@ public class LocationSoundPacket extends SoundPacket<LocationSoundPacket> {
         if (category != null) {
             data = setFlag(data, HAS_CATEGORY_MASK);
         }
+        data = setDiscontinuityFlags(data);
         buf.writeByte(data);
         if (category != null) {
             buf.writeUtf(category, 16);
         }
+        writeSuppressedFrames(buf);
     }
 }
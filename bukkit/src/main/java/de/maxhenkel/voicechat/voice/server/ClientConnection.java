@@ -3,18 +3,31 @@ package de.maxhenkel.voicechat.voice.server;
 import de.maxhenkel.voicechat.voice.common.NetworkMessage;
 
 import java.net.SocketAddress;
+import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
 
 public class ClientConnection {
 
-    private UUID playerUUID;
-    private SocketAddress address;
-    private long lastKeepAliveResponse;
+    private final UUID playerUUID;
+    private final SocketAddress address;
+    private volatile long lastKeepAliveResponse;
+    private volatile long lastKeepAliveSent;
+    private volatile int roundTripTime;
+    private volatile int listeners;
+    private volatile boolean discontinuousTransmission;
+
+    /**
+     * The packet loss the receivers of this clients audio reported - Keyed by the receiver
+     */
+    private final Map<UUID, LossReport> lossReports;
 
     public ClientConnection(UUID playerUUID, SocketAddress address) {
         this.playerUUID = playerUUID;
         this.address = address;
         this.lastKeepAliveResponse = System.currentTimeMillis();
+        this.roundTripTime = -1;
+        this.lossReports = new ConcurrentHashMap<>();
     }
 
     public UUID getPlayerUUID() {
@@ -33,8 +46,105 @@ public class ClientConnection {
         this.lastKeepAliveResponse = lastKeepAliveResponse;
     }
 
+    public void setLastKeepAliveSent(long lastKeepAliveSent) {
+        this.lastKeepAliveSent = lastKeepAliveSent;
+    }
+
+    /**
+     * @return if the client announced that it supports discontinuous transmission
+     */
+    public boolean supportsDiscontinuousTransmission() {
+        return discontinuousTransmission;
+    }
+
+    public void setDiscontinuousTransmission(boolean discontinuousTransmission) {
+        this.discontinuousTransmission = discontinuousTransmission;
+    }
+
+    /**
+     * Refreshes the keep alive and measures the round trip time, if the client responded to a keep alive of the server.
+     *
+     * @param time the time the response was received
+     */
+    public void onKeepAliveResponse(long time) {
+        lastKeepAliveResponse = time;
+        if (lastKeepAliveSent <= 0L) {
+            return;
+        }
+        updateRoundTripTime(time - lastKeepAliveSent);
+        lastKeepAliveSent = 0L;
+    }
+
+    /**
+     * Smooths the measured round trip time the same way TCP does.
+     *
+     * @param ms the measured round trip time in milliseconds
+     */
+    public void updateRoundTripTime(long ms) {
+        int rtt = (int) Math.max(Math.min(ms, Integer.MAX_VALUE), 0L);
+        if (roundTripTime < 0) {
+            roundTripTime = rtt;
+        } else {
+            roundTripTime += (rtt - roundTripTime) / 8;
+        }
+    }
+
+    /**
+     * @return the smoothed round trip time in milliseconds or -1 if it wasn't measured yet
+     */
+    public int getRoundTripTime() {
+        return roundTripTime;
+    }
+
+    /**
+     * @return the amount of players that received the last audio packet of this client
+     */
+    public int getListeners() {
+        return listeners;
+    }
+
+    public void setListeners(int listeners) {
+        this.listeners = listeners;
+    }
+
+    /**
+     * Stores the packet loss a receiver measured on the audio of this client.
+     *
+     * @param receiver   the player that received the audio
+     * @param percentage the packet loss in percent (0-100)
+     * @param time       the time the report was received
+     */
+    public void reportPacketLoss(UUID receiver, int percentage, long time) {
+        lossReports.put(receiver, new LossReport(percentage, time));
+    }
+
+    /**
+     * Discards all reports that were received before the provided time.
+     *
+     * @param minTime the time of the oldest report that is still used
+     * @return the highest packet loss in percent any receiver reported or -1 if there are no reports
+     */
+    public int getReportedPacketLoss(long minTime) {
+        lossReports.values().removeIf(report -> report.time < minTime);
+        int packetLoss = -1;
+        for (LossReport report : lossReports.values()) {
+            packetLoss = Math.max(packetLoss, report.percentage);
+        }
+        return packetLoss;
+    }
+
     public void send(Server server, NetworkMessage message) throws Exception {
         server.getSocket().send(message.writeServer(server, this), address);
     }
 
+    private static class LossReport {
+        private final int percentage;
+        private final long time;
+
+        private LossReport(int percentage, long time) {
+            this.percentage = percentage;
+            this.time = time;
+        }
+    }
+
 }
@@ -3,11 +3,10 @@ package de.maxhenkel.voicechat.voice.server;
 import de.maxhenkel.voicechat.Voicechat;
 import de.maxhenkel.voicechat.voice.common.PingPacket;
 
-import java.util.HashMap;
-import java.util.List;
+import javax.annotation.Nullable;
 import java.util.Map;
 import java.util.UUID;
-import java.util.stream.Collectors;
+import java.util.concurrent.ConcurrentHashMap;
 
 public class PingManager {
 
@@ -16,7 +15,7 @@ public class PingManager {
 
     public PingManager(Server server) {
         this.server = server;
-        listeners = new HashMap<>();
+        listeners = new ConcurrentHashMap<>();
     }
 
     public void onPongPacket(PingPacket packet) {
@@ -25,45 +24,63 @@ public class PingManager {
         if (ping == null) {
             return;
         }
-        ping.listener.onPong(ping.attempt, System.currentTimeMillis() - packet.getTimestamp());
+        ping.cancelTimeout();
+        long pingMilliseconds = System.currentTimeMillis() - packet.getTimestamp();
+        ping.connection.updateRoundTripTime(pingMilliseconds);
+        ping.listener.onPong(ping.attempt, pingMilliseconds);
     }
 
-    public void checkTimeouts() {
-        if (listeners.isEmpty()) {
+    private void onTimeout(Ping ping) {
+        if (listeners.get(ping.id) != ping) {
             return;
         }
-        List<Map.Entry<UUID, Ping>> timedOut = listeners.entrySet().stream().filter(uuidPingEntry -> uuidPingEntry.getValue().isTimedOut()).collect(Collectors.toList());
-        for (Map.Entry<UUID, Ping> pingEntry : timedOut) {
-            Ping ping = pingEntry.getValue();
-            if (ping.attempt >= ping.maxAttempts) {
-                listeners.remove(pingEntry.getKey());
+        if (ping.attempt >= ping.maxAttempts) {
+            if (listeners.remove(ping.id, ping)) {
                 ping.listener.onTimeout(ping.attempt);
-            } else {
-                ping.listener.onFailedAttempt(ping.attempt);
-                try {
-                    ping.send();
-                } catch (Exception e) {
-                    ping.listener.onTimeout(ping.attempt);
-                    Voicechat.LOGGER.warn("Failed to send ping {} after attempt {}", ping.id, ping.attempt);
-                }
             }
+            return;
+        }
+        ping.listener.onFailedAttempt(ping.attempt);
+        try {
+            ping.send();
+        } catch (Exception e) {
+            if (listeners.remove(ping.id, ping)) {
+                ping.listener.onTimeout(ping.attempt);
+            }
+            Voicechat.LOGGER.warn("Failed to send ping {} after attempt {}", ping.id, ping.attempt);
         }
     }
 
     public void sendPing(ClientConnection connection, long timeout, int attempts, PingListener listener) throws Exception {
         Ping ping = new Ping(connection, listener, timeout, attempts);
         listeners.put(ping.id, ping);
-        ping.send();
+        try {
+            ping.send();
+        } catch (Exception e) {
+            listeners.remove(ping.id);
+            throw e;
+        }
+    }
+
+    /**
+     * Cancels all pending pings without notifying their listeners.
+     */
+    public void close() {
+        for (Ping ping : listeners.values()) {
+            ping.cancelTimeout();
+        }
+        listeners.clear();
     }
 
     private class Ping {
         private final UUID id;
         private final ClientConnection connection;
         private final PingListener listener;
-        private long timestamp;
         private final long timeout;
         private final int maxAttempts;
-        private int attempt;
+        private volatile int attempt;
+        @Nullable
+        private volatile DeadlineScheduler.Deadline timeoutDeadline;
 
         public Ping(ClientConnection connection, PingListener listener, long timeout, int maxAttempts) {
             this.id = UUID.randomUUID();
@@ -74,16 +91,20 @@ public class PingManager {
             this.attempt = 0;
         }
 
-        public boolean isTimedOut() {
-            return (System.currentTimeMillis() - timestamp) >= timeout;
-        }
-
         public void send() throws Exception {
-            timestamp = System.currentTimeMillis();
             attempt++;
-            server.sendPacketRaw(new PingPacket(id, timestamp), connection);
+            server.sendPacketRaw(new PingPacket(id, System.currentTimeMillis()), connection);
+            // Late deadlines of answered pings are ignored, so it doesn't matter if the pong arrives before this is set
+            timeoutDeadline = server.getDeadlineScheduler().schedule(DeadlineScheduler.Type.PING, timeout, () -> onTimeout(this));
             Voicechat.LOGGER.info("Sent ping {} attempt {}", id, attempt);
         }
+
+        public void cancelTimeout() {
+            DeadlineScheduler.Deadline deadline = timeoutDeadline;
+            if (deadline != null) {
+                deadline.cancel();
+            }
+        }
     }
 
     public interface PingListener {
@@ -94,4 +115,4 @@ public class PingManager {
         void onTimeout(int attempts);
     }
 
-}
\ No newline at end of file
+}
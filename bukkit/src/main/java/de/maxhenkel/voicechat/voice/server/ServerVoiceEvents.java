@@ -14,6 +14,7 @@ import org.bukkit.event.Listener;
 import org.bukkit.event.player.PlayerJoinEvent;
 import org.bukkit.event.player.PlayerLoginEvent;
 import org.bukkit.event.player.PlayerQuitEvent;
+import org.bukkit.scheduler.BukkitTask;
 
 import java.util.Map;
 import java.util.UUID;
@@ -22,10 +23,12 @@ import java.util.concurrent.ConcurrentHashMap;
 public class ServerVoiceEvents implements Listener {
 
     private final Map<UUID, Integer> clientCompatibilities;
+    private final Map<UUID, BukkitTask> loginTasks;
     private Server server;
 
     public ServerVoiceEvents() {
         clientCompatibilities = new ConcurrentHashMap<>();
+        loginTasks = new ConcurrentHashMap<>();
     }
 
     public void init() {
@@ -108,7 +111,8 @@ public class ServerVoiceEvents implements Listener {
         }
         Player player = event.getPlayer();
 
-        Bukkit.getScheduler().runTaskLater(Voicechat.INSTANCE, () -> {
+        BukkitTask task = Bukkit.getScheduler().runTaskLater(Voicechat.INSTANCE, () -> {
+            loginTasks.remove(player.getUniqueId());
             if (!player.isOnline()) {
                 return;
             }
@@ -120,17 +124,27 @@ public class ServerVoiceEvents implements Listener {
                 ));
             }
         }, Voicechat.SERVER_CONFIG.loginTimeout.get() / 50L);
+        BukkitTask previous = loginTasks.put(player.getUniqueId(), task);
+        if (previous != null) {
+            previous.cancel();
+        }
     }
 
     @EventHandler
     public void onPlayerJoin(PlayerJoinEvent event) {
+        server.getPermissionCache().invalidate(event.getPlayer().getUniqueId());
         server.getPlayerStateManager().onPlayerJoin(event);
     }
 
     @EventHandler
     public void onPlayerQuit(PlayerQuitEvent event) {
+        BukkitTask loginTask = loginTasks.remove(event.getPlayer().getUniqueId());
+        if (loginTask != null) {
+            loginTask.cancel();
+        }
         server.getPlayerStateManager().onPlayerQuit(event);
         server.getGroupManager().onPlayerQuit(event);
+        server.getPermissionCache().invalidate(event.getPlayer().getUniqueId());
 
         clientCompatibilities.remove(event.getPlayer().getUniqueId());
         if (server == null) {
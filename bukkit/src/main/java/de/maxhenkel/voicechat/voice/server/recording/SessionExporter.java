@@ -0,0 +1,322 @@
+package de.maxhenkel.voicechat.voice.server.recording;
+
+import de.maxhenkel.voicechat.Voicechat;
+import de.maxhenkel.voicechat.api.opus.OpusDecoder;
+import de.maxhenkel.voicechat.voice.common.OggOpusWriter;
+
+import javax.annotation.Nullable;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+
+/**
+ * Rebuilds audio from session files written by {@link SessionRecorder}.
+ * Frames of a talk spurt are placed by their sequence number, so the gaps of frames that were not sent don't shift the audio.
+ * Every talk spurt starts at the time the server received its first frame.
+ * <p>
+ * If the session has a {@link SessionIndex}, exporting a time range only reads the part of the session that is needed.
+ */
+public class SessionExporter {
+
+    private static final int SAMPLES_PER_MS = OggOpusWriter.SAMPLE_RATE / 1000;
+    /**
+     * The amount of samples that can be mixed before they get written (ten seconds)
+     */
+    private static final int MIX_WINDOW = OggOpusWriter.SAMPLE_RATE * 10;
+
+    /**
+     * Exports the speakers as separate Opus tracks of a single Ogg file without decoding them.
+     *
+     * @param session the session file
+     * @param output  the Ogg file
+     * @param filter  the speakers that should be exported or <code>null</code> to export all speakers
+     * @throws IOException if an I/O error occurs
+     */
+    public static void exportTracks(Path session, Path output, @Nullable Predicate<UUID> filter) throws IOException {
+        exportTracks(session, output, filter, Long.MIN_VALUE, Long.MAX_VALUE);
+    }
+
+    /**
+     * Exports a time range of the speakers as separate Opus tracks of a single Ogg file without decoding them.
+     * The tracks start at the beginning of the range.
+     *
+     * @param session the session file
+     * @param output  the Ogg file
+     * @param filter  the speakers that should be exported or <code>null</code> to export all speakers
+     * @param from    the start of the range in milliseconds since epoch
+     * @param to      the end of the range in milliseconds since epoch
+     * @throws IOException if an I/O error occurs
+     */
+    public static void exportTracks(Path session, Path output, @Nullable Predicate<UUID> filter, long from, long to) throws IOException {
+        SessionIndex index = loadIndex(session);
+        // Ogg needs the headers of all tracks at the beginning of the file, so the speakers need to be known in advance
+        Map<Integer, SessionReader.Speaker> speakers = new TreeMap<>();
+        Map<Integer, Integer> channels = new HashMap<>();
+        try (SessionReader reader = open(session, index, filter, from)) {
+            SessionReader.Frame frame;
+            while ((frame = reader.next()) != null && frame.getTimestamp() < to) {
+                if (frame.getData().length <= 0 || frame.getTimestamp() < from || (filter != null && !filter.test(frame.getSpeaker().getUuid()))) {
+                    continue;
+                }
+                int speaker = frame.getSpeaker().getIndex();
+                if (!channels.containsKey(speaker)) {
+                    speakers.put(speaker, frame.getSpeaker());
+                    // The stereo flag of the TOC byte
+                    channels.put(speaker, (frame.getData()[0] & 0x04) != 0 ? 2 : 1);
+                }
+            }
+        }
+
+        try (SessionReader reader = open(session, index, filter, from);
+             OggOpusWriter writer = new OggOpusWriter(new BufferedOutputStream(Files.newOutputStream(output, StandardOpenOption.CREATE_NEW)))) {
+            Map<Integer, OggOpusWriter.Stream> streams = new HashMap<>();
+            for (SessionReader.Speaker speaker : speakers.values()) {
+                streams.put(speaker.getIndex(), writer.addStream(speaker.getIndex() + 1, getTitle(speaker), channels.get(speaker.getIndex())));
+            }
+            writer.writeHeaders();
+
+            long startTime = Math.max(from, reader.getStartTime());
+            Map<Integer, Timeline> timelines = new HashMap<>();
+            SessionReader.Frame frame;
+            while ((frame = reader.next()) != null && frame.getTimestamp() < to) {
+                OggOpusWriter.Stream stream = streams.get(frame.getSpeaker().getIndex());
+                if (stream == null) {
+                    continue;
+                }
+                Timeline timeline = timelines.computeIfAbsent(frame.getSpeaker().getIndex(), i -> new Timeline(startTime));
+                long position = timeline.getPosition(frame, OggOpusWriter.getSamples(frame.getData()));
+                if (position < 0L) {
+                    continue;
+                }
+                writer.writePacket(stream, position, frame.getData());
+            }
+        }
+    }
+
+    /**
+     * Decodes and mixes the speakers into a single 48 kHz mono WAV file.
+     *
+     * @param session        the session file
+     * @param output         the WAV file
+     * @param decoderFactory creates a decoder per speaker
+     * @param filter         the speakers that should be exported or <code>null</code> to export all speakers
+     * @throws IOException if an I/O error occurs
+     */
+    public static void exportMixed(Path session, Path output, Supplier<OpusDecoder> decoderFactory, @Nullable Predicate<UUID> filter) throws IOException {
+        exportMixed(session, output, decoderFactory, filter, Long.MIN_VALUE, Long.MAX_VALUE);
+    }
+
+    /**
+     * Decodes and mixes a time range of the speakers into a single 48 kHz mono WAV file.
+     * The file starts at the beginning of the range.
+     *
+     * @param session        the session file
+     * @param output         the WAV file
+     * @param decoderFactory creates a decoder per speaker
+     * @param filter         the speakers that should be exported or <code>null</code> to export all speakers
+     * @param from           the start of the range in milliseconds since epoch
+     * @param to             the end of the range in milliseconds since epoch
+     * @throws IOException if an I/O error occurs
+     */
+    public static void exportMixed(Path session, Path output, Supplier<OpusDecoder> decoderFactory, @Nullable Predicate<UUID> filter, long from, long to) throws IOException {
+        SessionIndex index = loadIndex(session);
+        Map<Integer, OpusDecoder> decoders = new HashMap<>();
+        Map<Integer, Timeline> timelines = new HashMap<>();
+        try (SessionReader reader = open(session, index, filter, from);
+             FileChannel channel = FileChannel.open(output, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+            long startTime = Math.max(from, reader.getStartTime());
+            Mixer mixer = new Mixer(channel);
+            SessionReader.Frame frame;
+            while ((frame = reader.next()) != null && frame.getTimestamp() < to) {
+                if (filter != null && !filter.test(frame.getSpeaker().getUuid())) {
+                    continue;
+                }
+                int speaker = frame.getSpeaker().getIndex();
+                Timeline timeline = timelines.computeIfAbsent(speaker, i -> new Timeline(startTime));
+                long position = timeline.getPosition(frame, OggOpusWriter.getSamples(frame.getData()));
+                if (position == Timeline.END_OF_SPURT) {
+                    OpusDecoder decoder = decoders.get(speaker);
+                    if (decoder != null) {
+                        decoder.resetState();
+                    }
+                    continue;
+                }
+                if (position < 0L) {
+                    // Before the range
+                    continue;
+                }
+                OpusDecoder decoder = decoders.computeIfAbsent(speaker, i -> decoderFactory.get());
+                mixer.add(position, decoder.decode(frame.getData()));
+            }
+            mixer.finish();
+        } finally {
+            for (OpusDecoder decoder : decoders.values()) {
+                decoder.close();
+            }
+        }
+    }
+
+    @Nullable
+    private static SessionIndex loadIndex(Path session) {
+        if (!SessionIndex.exists(session)) {
+            return null;
+        }
+        try {
+            return SessionIndex.load(session);
+        } catch (IOException e) {
+            Voicechat.LOGGER.warn("Failed to load the index of session {} - reading the whole session", session, e);
+            return null;
+        }
+    }
+
+    private static SessionReader open(Path session, @Nullable SessionIndex index, @Nullable Predicate<UUID> filter, long from) throws IOException {
+        SessionReader reader = new SessionReader(session);
+        if (index != null && from > index.getStartTime()) {
+            try {
+                reader.seek(index, index.getOffset(from, filter));
+            } catch (IOException e) {
+                reader.close();
+                throw e;
+            }
+        }
+        return reader;
+    }
+
+    private static String getTitle(SessionReader.Speaker speaker) {
+        if (speaker.getName().isEmpty()) {
+            return speaker.getUuid().toString();
+        }
+        return speaker.getName();
+    }
+
+    /**
+     * Calculates the position of the frames of a single speaker.
+     */
+    private static class Timeline {
+        private static final long END_OF_SPURT = Long.MIN_VALUE;
+
+        private final long startTime;
+        private boolean inSpurt;
+        private long spurtStart;
+        private long spurtSequenceNumber;
+        private long lastSequenceNumber;
+
+        public Timeline(long startTime) {
+            this.startTime = startTime;
+        }
+
+        /**
+         * @param frame   the frame
+         * @param samples the duration of the frame in samples
+         * @return the position of the frame in samples, which is negative if the frame is before the start time, or {@link #END_OF_SPURT} if the frame ends the talk spurt
+         */
+        public long getPosition(SessionReader.Frame frame, int samples) {
+            if (frame.getData().length <= 0 || samples <= 0) {
+                inSpurt = false;
+                return END_OF_SPURT;
+            }
+            long sequenceNumber = frame.getSequenceNumber();
+            // Has to match the talk spurt detection of the SessionIndexWriter
+            if (!inSpurt || sequenceNumber <= lastSequenceNumber || sequenceNumber - lastSequenceNumber > SessionIndex.MAX_SEQUENCE_GAP) {
+                inSpurt = true;
+                spurtStart = (frame.getTimestamp() - startTime) * SAMPLES_PER_MS;
+                spurtSequenceNumber = sequenceNumber;
+            }
+            lastSequenceNumber = sequenceNumber;
+            return spurtStart + (sequenceNumber - spurtSequenceNumber) * samples;
+        }
+    }
+
+    /**
+     * Mixes audio in a sliding window and writes it as a WAV file.
+     */
+    private static class Mixer {
+        private static final int HEADER_SIZE = 44;
+
+        private final FileChannel channel;
+        private final int[] window;
+        private final ByteBuffer buffer;
+        private long written;
+        private long end;
+
+        public Mixer(FileChannel channel) throws IOException {
+            this.channel = channel;
+            this.window = new int[MIX_WINDOW];
+            this.buffer = ByteBuffer.allocate(64 * 1024).order(ByteOrder.LITTLE_ENDIAN);
+            // The header is written when the size is known
+            channel.position(HEADER_SIZE);
+        }
+
+        public void add(long position, short[] audio) throws IOException {
+            long audioEnd = position + audio.length;
+            if (audioEnd - written > window.length) {
+                writeUntil(audioEnd - window.length);
+            }
+            // Audio that arrives after its position was already written is cut off
+            for (long pos = Math.max(position, written); pos < audioEnd; pos++) {
+                window[(int) (pos % window.length)] += audio[(int) (pos - position)];
+            }
+            end = Math.max(end, audioEnd);
+        }
+
+        private void writeUntil(long position) throws IOException {
+            while (written < position) {
+                int index = (int) (written % window.length);
+                buffer.putShort((short) Math.max(Math.min(window[index], Short.MAX_VALUE), Short.MIN_VALUE));
+                window[index] = 0;
+                written++;
+                if (!buffer.hasRemaining()) {
+                    flush();
+                }
+            }
+        }
+
+        private void flush() throws IOException {
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            buffer.clear();
+        }
+
+        public void finish() throws IOException {
+            writeUntil(end);
+            flush();
+            long dataSize = written * 2L;
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            header.put("RIFF".getBytes(StandardCharsets.US_ASCII));
+            header.putInt((int) (dataSize + HEADER_SIZE - 8));
+            header.put("WAVE".getBytes(StandardCharsets.US_ASCII));
+            header.put("fmt ".getBytes(StandardCharsets.US_ASCII));
+            header.putInt(16);
+            // PCM
+            header.putShort((short) 1);
+            // Mono
+            header.putShort((short) 1);
+            header.putInt(OggOpusWriter.SAMPLE_RATE);
+            header.putInt(OggOpusWriter.SAMPLE_RATE * 2);
+            header.putShort((short) 2);
+            header.putShort((short) 16);
+            header.put("data".getBytes(StandardCharsets.US_ASCII));
+            header.putInt((int) dataSize);
+            header.flip();
+            channel.position(0L);
+            while (header.hasRemaining()) {
+                channel.write(header);
+            }
+        }
+    }
+
+}
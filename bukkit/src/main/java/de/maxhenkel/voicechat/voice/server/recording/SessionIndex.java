@@ -0,0 +1,290 @@
+package de.maxhenkel.voicechat.voice.server.recording;
+
+import javax.annotation.Nullable;
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.function.Predicate;
+
+/**
+ * The index of a session file, which is written next to it by {@link SessionRecorder}.
+ * It contains the speakers, the talk spurts of every speaker and seek points that map timestamps to offsets in the session file.
+ * This allows reading only the parts of a session that are relevant, instead of scanning the whole file.
+ * <p>
+ * The index is written incrementally, so the index of a session that was not closed properly is still usable.
+ * Talk spurts that were not ended in this case are treated as open until the end of the session.
+ */
+public class SessionIndex {
+
+    public static final byte[] MAGIC = new byte[]{'S', 'V', 'C', 'I'};
+    public static final int VERSION = 1;
+    public static final String FILE_EXTENSION = ".svci";
+
+    /**
+     * The amount of missing frames after which the next frame starts a new talk spurt (one second)
+     */
+    public static final long MAX_SEQUENCE_GAP = 50L;
+    /**
+     * The time in milliseconds between two seek points
+     */
+    public static final long SEEK_POINT_INTERVAL = 1000L;
+
+    /**
+     * Speaker record: type (byte), speaker index (short), UUID (2 longs), name length (short), name (UTF-8)
+     */
+    static final byte RECORD_SPEAKER = 1;
+    /**
+     * Seek point record: type (byte), timestamp (long), offset (long)
+     */
+    static final byte RECORD_SEEK_POINT = 2;
+    /**
+     * Talk spurt start record: type (byte), speaker index (short), timestamp (long), sequence number (long), offset (long)
+     */
+    static final byte RECORD_SPURT_START = 3;
+    /**
+     * Talk spurt end record: type (byte), speaker index (short), timestamp (long), frame count (int)
+     */
+    static final byte RECORD_SPURT_END = 4;
+
+    private final long startTime;
+    private final List<SessionReader.Speaker> speakers;
+    private final long[] seekTimestamps;
+    private final long[] seekOffsets;
+    private final List<Spurt> spurts;
+
+    private SessionIndex(long startTime, List<SessionReader.Speaker> speakers, long[] seekTimestamps, long[] seekOffsets, List<Spurt> spurts) {
+        this.startTime = startTime;
+        this.speakers = speakers;
+        this.seekTimestamps = seekTimestamps;
+        this.seekOffsets = seekOffsets;
+        this.spurts = spurts;
+    }
+
+    /**
+     * @param session the session file
+     * @return the index file of the session
+     */
+    public static Path getIndexFile(Path session) {
+        String name = session.getFileName().toString();
+        if (name.endsWith(SessionRecorder.FILE_EXTENSION)) {
+            name = name.substring(0, name.length() - SessionRecorder.FILE_EXTENSION.length());
+        }
+        return session.resolveSibling(name + FILE_EXTENSION);
+    }
+
+    /**
+     * @param session the session file
+     * @return if the session has an index
+     */
+    public static boolean exists(Path session) {
+        return Files.isRegularFile(getIndexFile(session));
+    }
+
+    /**
+     * Loads the index of a session.
+     *
+     * @param session the session file
+     * @return the index
+     * @throws IOException if an I/O error occurs or the index is corrupted
+     */
+    public static SessionIndex load(Path session) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(getIndexFile(session))))) {
+            byte[] magic = new byte[MAGIC.length];
+            in.readFully(magic);
+            if (!Arrays.equals(magic, MAGIC)) {
+                throw new IOException("Not a voice chat session index");
+            }
+            int version = in.readUnsignedByte();
+            if (version != VERSION) {
+                throw new IOException(String.format("Unsupported session index version %s", version));
+            }
+            long startTime = in.readLong();
+
+            List<SessionReader.Speaker> speakers = new ArrayList<>();
+            List<Long> seekPoints = new ArrayList<>();
+            List<Spurt> spurts = new ArrayList<>();
+            Map<Integer, Spurt> openSpurts = new HashMap<>();
+            try {
+                int type;
+                while ((type = in.read()) >= 0) {
+                    if (type == RECORD_SPEAKER) {
+                        int index = in.readUnsignedShort();
+                        UUID uuid = new UUID(in.readLong(), in.readLong());
+                        byte[] name = new byte[in.readUnsignedShort()];
+                        in.readFully(name);
+                        if (index != speakers.size()) {
+                            throw new IOException(String.format("Invalid speaker index %s", index));
+                        }
+                        speakers.add(new SessionReader.Speaker(index, uuid, new String(name, StandardCharsets.UTF_8)));
+                    } else if (type == RECORD_SEEK_POINT) {
+                        long timestamp = in.readLong();
+                        long offset = in.readLong();
+                        seekPoints.add(timestamp);
+                        seekPoints.add(offset);
+                    } else if (type == RECORD_SPURT_START) {
+                        SessionReader.Speaker speaker = getSpeaker(speakers, in.readUnsignedShort());
+                        Spurt spurt = new Spurt(speaker, in.readLong(), in.readLong(), in.readLong());
+                        spurts.add(spurt);
+                        openSpurts.put(speaker.getIndex(), spurt);
+                    } else if (type == RECORD_SPURT_END) {
+                        SessionReader.Speaker speaker = getSpeaker(speakers, in.readUnsignedShort());
+                        long timestamp = in.readLong();
+                        int frames = in.readInt();
+                        Spurt spurt = openSpurts.remove(speaker.getIndex());
+                        if (spurt != null) {
+                            spurt.endTime = timestamp;
+                            spurt.frames = frames;
+                        }
+                    } else {
+                        throw new IOException(String.format("Invalid index record type %s", type));
+                    }
+                }
+            } catch (EOFException e) {
+                // The last record is incomplete, since the session was not closed properly
+            }
+
+            long[] seekTimestamps = new long[seekPoints.size() / 2];
+            long[] seekOffsets = new long[seekTimestamps.length];
+            for (int i = 0; i < seekTimestamps.length; i++) {
+                seekTimestamps[i] = seekPoints.get(i * 2);
+                seekOffsets[i] = seekPoints.get(i * 2 + 1);
+            }
+            return new SessionIndex(startTime, speakers, seekTimestamps, seekOffsets, spurts);
+        }
+    }
+
+    private static SessionReader.Speaker getSpeaker(List<SessionReader.Speaker> speakers, int index) throws IOException {
+        if (index >= speakers.size()) {
+            throw new IOException(String.format("Unknown speaker index %s", index));
+        }
+        return speakers.get(index);
+    }
+
+    public long getStartTime() {
+        return startTime;
+    }
+
+    public List<SessionReader.Speaker> getSpeakers() {
+        return Collections.unmodifiableList(speakers);
+    }
+
+    /**
+     * @return all talk spurts ordered by their start time
+     */
+    public List<Spurt> getSpurts() {
+        return Collections.unmodifiableList(spurts);
+    }
+
+    /**
+     * Gets the activity of the speakers in a time range.
+     *
+     * @param filter the speakers or <code>null</code> for all speakers
+     * @param from   the start of the range in milliseconds since epoch
+     * @param to     the end of the range in milliseconds since epoch
+     * @return all talk spurts that overlap with the range
+     */
+    public List<Spurt> getSpurts(@Nullable Predicate<UUID> filter, long from, long to) {
+        List<Spurt> result = new ArrayList<>();
+        for (Spurt spurt : spurts) {
+            if (spurt.startTime >= to) {
+                break;
+            }
+            if (spurt.endTime > from && (filter == null || filter.test(spurt.speaker.getUuid()))) {
+                result.add(spurt);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Calculates where to start reading the session file, so that all audio of the provided time is read.
+     * This is the start of the talk spurts that are active at that time, since frames are placed relative to the start of their talk spurt.
+     *
+     * @param timestamp the time in milliseconds since epoch
+     * @param filter    the speakers or <code>null</code> for all speakers
+     * @return the offset in the session file
+     */
+    public long getOffset(long timestamp, @Nullable Predicate<UUID> filter) {
+        long offset = SessionRecorder.HEADER_SIZE;
+        int index = Arrays.binarySearch(seekTimestamps, timestamp);
+        if (index < 0) {
+            index = -index - 2;
+        }
+        if (index >= 0) {
+            offset = seekOffsets[index];
+        }
+        for (Spurt spurt : spurts) {
+            if (spurt.startTime > timestamp) {
+                break;
+            }
+            if (spurt.endTime > timestamp && spurt.offset < offset && (filter == null || filter.test(spurt.speaker.getUuid()))) {
+                offset = spurt.offset;
+            }
+        }
+        return offset;
+    }
+
+    public static class Spurt {
+        private final SessionReader.Speaker speaker;
+        private final long startTime;
+        private final long sequenceNumber;
+        private final long offset;
+        private long endTime;
+        private int frames;
+
+        public Spurt(SessionReader.Speaker speaker, long startTime, long sequenceNumber, long offset) {
+            this.speaker = speaker;
+            this.startTime = startTime;
+            this.sequenceNumber = sequenceNumber;
+            this.offset = offset;
+            this.endTime = Long.MAX_VALUE;
+            this.frames = -1;
+        }
+
+        public SessionReader.Speaker getSpeaker() {
+            return speaker;
+        }
+
+        /**
+         * @return the time the first frame was received
+         */
+        public long getStartTime() {
+            return startTime;
+        }
+
+        /**
+         * @return the time the last frame ended or {@link Long#MAX_VALUE} if the talk spurt was not ended
+         */
+        public long getEndTime() {
+            return endTime;
+        }
+
+        /**
+         * @return the sequence number of the first frame
+         */
+        public long getSequenceNumber() {
+            return sequenceNumber;
+        }
+
+        /**
+         * @return the offset of the first frame in the session file
+         */
+        public long getOffset() {
+            return offset;
+        }
+
+        /**
+         * @return the amount of frames or -1 if the talk spurt was not ended
+         */
+        public int getFrames() {
+            return frames;
+        }
+
+        public boolean isComplete() {
+            return frames >= 0;
+        }
+    }
+
+}
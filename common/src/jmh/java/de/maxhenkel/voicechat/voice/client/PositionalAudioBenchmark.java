@@ -0,0 +1,97 @@
+package de.maxhenkel.voicechat.voice.client;
+
+import net.minecraft.world.phys.Vec2;
+import net.minecraft.world.phys.Vec3;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the stereo volume calculation of a whole audio frame.
+ * Every source is panned once per frame, either with the previous angle based calculation or with the listener snapshot.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PositionalAudioBenchmark {
+
+    @Param({"1", "16", "64"})
+    public int sources;
+
+    private Vec3 cameraPos;
+    private float yRot;
+    private Vec3[] soundPositions;
+
+    @Setup
+    public void setup() {
+        Random random = new Random(0L);
+        cameraPos = new Vec3(random.nextDouble() * 1000D, 64D, random.nextDouble() * 1000D);
+        yRot = random.nextFloat() * 360F;
+        soundPositions = new Vec3[sources];
+        for (int i = 0; i < sources; i++) {
+            soundPositions[i] = cameraPos.add((random.nextDouble() * 2D - 1D) * 48D, (random.nextDouble() * 2D - 1D) * 8D, (random.nextDouble() * 2D - 1D) * 48D);
+        }
+    }
+
+    @Benchmark
+    public void anglePan(Blackhole blackhole) {
+        for (Vec3 soundPos : soundPositions) {
+            float pan = getAnglePan(cameraPos, yRot, soundPos);
+            blackhole.consume(PositionalAudioUtils.getLeftVolume(pan));
+            blackhole.consume(PositionalAudioUtils.getRightVolume(pan));
+        }
+    }
+
+    @Benchmark
+    public void snapshotPan(Blackhole blackhole) {
+        // The snapshot calculates the sine and cosine once per frame
+        double yRotRadians = Math.toRadians(yRot);
+        float sinYRot = (float) Math.sin(yRotRadians);
+        float cosYRot = (float) Math.cos(yRotRadians);
+        for (Vec3 soundPos : soundPositions) {
+            float pan = PositionalAudioUtils.getPan(cameraPos, sinYRot, cosYRot, soundPos);
+            blackhole.consume(PositionalAudioUtils.getLeftVolume(pan));
+            blackhole.consume(PositionalAudioUtils.getRightVolume(pan));
+        }
+    }
+
+    /**
+     * The previous calculation, which used <code>Utils.angle</code> between the sound direction and the negative X axis.
+     */
+    private static float getAnglePan(Vec3 cameraPos, float yRot, Vec3 soundPos) {
+        Vec3 d = soundPos.subtract(cameraPos).normalize();
+        Vec2 diff = new Vec2((float) d.x, (float) d.z);
+        float diffAngle = angle(diff, new Vec2(-1F, 0F));
+        float angle = normalizeAngle(diffAngle - (yRot % 360F));
+        float dif = (float) (Math.abs(cameraPos.y - soundPos.y) / 32);
+
+        float rot = angle / 180F;
+        float perc = rot;
+        if (rot < -0.5F) {
+            perc = -(0.5F + (rot + 0.5F));
+        } else if (rot > 0.5F) {
+            perc = 0.5F - (rot - 0.5F);
+        }
+        return perc * (1 - dif);
+    }
+
+    private static float angle(Vec2 vec1, Vec2 vec2) {
+        return (float) Math.toDegrees(Math.atan2(vec1.x * vec2.x + vec1.y * vec2.y, vec1.x * vec2.y - vec1.y * vec2.x));
+    }
+
+    private static float normalizeAngle(float angle) {
+        angle = angle % 360F;
+        if (angle <= -180F) {
+            angle += 360F;
+        } else if (angle > 180F) {
+            angle -= 360F;
+        }
+        return angle;
+    }
+
+}
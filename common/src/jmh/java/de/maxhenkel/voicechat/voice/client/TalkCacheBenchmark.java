@@ -0,0 +1,96 @@
+package de.maxhenkel.voicechat.voice.client;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * 100 audio channels mark their players as talking, while the render thread reads the talking state of all players.
+ * The <code>rendering</code> group reads at 240 Hz like a render thread, the <code>reading</code> group reads as fast as possible.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TalkCacheBenchmark {
+
+    private static final int CHANNELS = 100;
+    private static final long FRAME_TIME = TimeUnit.SECONDS.toNanos(1L) / 240L;
+
+    @State(Scope.Group)
+    public static class Cache {
+        private final TalkCache cache = new TalkCache(System::currentTimeMillis, UUID.randomUUID());
+        private final UUID[] players = new UUID[CHANNELS];
+        private final AtomicInteger nextPlayer = new AtomicInteger();
+
+        @Setup
+        public void setup() {
+            for (int i = 0; i < players.length; i++) {
+                players[i] = UUID.randomUUID();
+            }
+        }
+
+        private int readAll() {
+            int talking = 0;
+            for (UUID player : players) {
+                if (cache.isTalking(player)) {
+                    talking++;
+                }
+            }
+            return talking;
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Channel {
+        private UUID player;
+        private TalkCache.Slot slot;
+
+        @Setup
+        public void setup(Cache cache) {
+            player = cache.players[cache.nextPlayer.getAndIncrement() % CHANNELS];
+            slot = cache.cache.getSlot(player);
+        }
+    }
+
+    @Benchmark
+    @Group("rendering")
+    @GroupThreads(CHANNELS)
+    public void renderingUpdate(Cache cache, Channel channel) {
+        update(cache, channel);
+    }
+
+    @Benchmark
+    @Group("rendering")
+    @GroupThreads(1)
+    public int renderingRead(Cache cache) {
+        LockSupport.parkNanos(FRAME_TIME);
+        return cache.readAll();
+    }
+
+    @Benchmark
+    @Group("reading")
+    @GroupThreads(CHANNELS)
+    public void readingUpdate(Cache cache, Channel channel) {
+        update(cache, channel);
+    }
+
+    @Benchmark
+    @Group("reading")
+    @GroupThreads(1)
+    public int readingRead(Cache cache) {
+        return cache.readAll();
+    }
+
+    private static void update(Cache cache, Channel channel) {
+        if (channel.slot.isReleased()) {
+            channel.slot = cache.cache.getSlot(channel.player);
+        }
+        channel.slot.update(false);
+    }
+
+}
@@ -50,6 +50,8 @@ public abstract class VoicechatClient {
         CLIENT_CONFIG = ConfigBuilder.builder(ClientConfig::new).path(Voicechat.getModConfigFolder().resolve("voicechat-client.properties")).build();
         VOLUME_CONFIG = new VolumeConfig(Voicechat.getModConfigFolder().resolve("voicechat-volumes.properties"));
         USERNAME_CACHE = new UsernameCache(Voicechat.getModConfigFolder().resolve("username-cache.json").toFile());
+        // The cache is written by a daemon thread, so pending changes would be lost when the game closes
+        Runtime.getRuntime().addShutdownHook(new Thread(USERNAME_CACHE::close, "VoiceChatUsernameCacheShutdownThread"));
     }
 
     public void initializeClient() {
@@ -10,8 +10,10 @@ import de.maxhenkel.voicechat.Voicechat;
 import de.maxhenkel.voicechat.intercompatibility.CommonCompatibilityManager;
 import de.maxhenkel.voicechat.permission.Permission;
 import de.maxhenkel.voicechat.permission.PermissionManager;
+import de.maxhenkel.voicechat.plugins.impl.audiochannel.AudioPlayerScheduler;
 import de.maxhenkel.voicechat.voice.common.PlayerState;
 import de.maxhenkel.voicechat.voice.server.ClientConnection;
+import de.maxhenkel.voicechat.voice.server.DeadlineScheduler;
 import de.maxhenkel.voicechat.voice.server.Group;
 import de.maxhenkel.voicechat.voice.server.PingManager;
 import de.maxhenkel.voicechat.voice.server.Server;
@@ -96,6 +98,22 @@ public class VoicechatCommands {
             return 1;
         })));
 
+        literalBuilder.then(Commands.literal("reloadpermissions").requires((commandSource) -> checkPermission(commandSource, PermissionManager.INSTANCE.ADMIN_PERMISSION)).executes((commandSource) -> {
+            if (checkNoVoicechat(commandSource)) {
+                return 0;
+            }
+            Server server = Voicechat.SERVER.getServer();
+            if (server == null) {
+                commandSource.getSource().sendSuccess(() -> Component.translatable("message.voicechat.voice_chat_unavailable"), false);
+                return 1;
+            }
+            server.getPermissionCache().invalidateAll();
+            commandSource.getSource().sendSuccess(() -> Component.translatable("message.voicechat.permissions_reloaded"), false);
+            return 1;
+        }));
+
+        literalBuilder.then(Commands.literal("debug").requires((commandSource) -> checkPermission(commandSource, PermissionManager.INSTANCE.ADMIN_PERMISSION)).executes(VoicechatCommands::debug));
+
         literalBuilder.then(Commands.literal("invite").then(Commands.argument("target", EntityArgument.player()).executes((commandSource) -> {
             if (checkNoVoicechat(commandSource)) {
                 return 0;
@@ -274,6 +292,37 @@ public class VoicechatCommands {
         return map.size();
     }
 
+    private static int debug(CommandContext<CommandSourceStack> commandSource) {
+        Server server = Voicechat.SERVER.getServer();
+        if (server == null) {
+            commandSource.getSource().sendSuccess(() -> Component.translatable("message.voicechat.voice_chat_unavailable"), false);
+            return 1;
+        }
+        DeadlineScheduler deadlineScheduler = server.getDeadlineScheduler();
+        commandSource.getSource().sendSuccess(() -> Component.literal("Pending deadlines: %s (Login: %s, Keep alive: %s, Ping: %s)".formatted(
+                deadlineScheduler.getPendingDeadlines(),
+                deadlineScheduler.getPendingDeadlines(DeadlineScheduler.Type.LOGIN),
+                deadlineScheduler.getPendingDeadlines(DeadlineScheduler.Type.KEEP_ALIVE),
+                deadlineScheduler.getPendingDeadlines(DeadlineScheduler.Type.PING)
+        )), false);
+        AudioPlayerScheduler scheduler = AudioPlayerScheduler.getRunningInstance();
+        if (scheduler != null) {
+            commandSource.getSource().sendSuccess(() -> Component.literal("Audio players: %s Ticks: %s (%s skipped) Deferred frames: %s Skipped frames: %s".formatted(
+                    scheduler.getActivePlayers(),
+                    scheduler.getTicks(),
+                    scheduler.getSkippedTicks(),
+                    scheduler.getDeferredFrames(),
+                    scheduler.getSkippedFrames()
+            )), false);
+            commandSource.getSource().sendSuccess(() -> Component.literal("Audio player clock jitter: %.2f ms (Average: %.2f ms, Max: %.2f ms)".formatted(
+                    scheduler.getLastJitter() / 1_000_000D,
+                    scheduler.getAverageJitter() / 1_000_000D,
+                    scheduler.getMaxJitter() / 1_000_000D
+            )), false);
+        }
+        return 1;
+    }
+
     private static boolean checkNoVoicechat(CommandContext<CommandSourceStack> commandSource) {
         try {
             ServerPlayer player = commandSource.getSource().getPlayerOrException();
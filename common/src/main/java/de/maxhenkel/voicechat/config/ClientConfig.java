@@ -7,6 +7,7 @@ import de.maxhenkel.voicechat.integration.freecam.FreecamMode;
 import de.maxhenkel.voicechat.intercompatibility.CommonCompatibilityManager;
 import de.maxhenkel.voicechat.voice.client.GroupPlayerIconOrientation;
 import de.maxhenkel.voicechat.voice.client.MicrophoneActivationType;
+import de.maxhenkel.voicechat.voice.client.RecordingFormat;
 import de.maxhenkel.voicechat.voice.client.speaker.AudioType;
 
 public class ClientConfig {
@@ -34,6 +35,7 @@ public class ClientConfig {
     public ConfigEntry<Double> hudIconScale;
     public ConfigEntry<String> recordingDestination;
     public ConfigEntry<Integer> recordingQuality;
+    public ConfigEntry<RecordingFormat> recordingFormat;
     public ConfigEntry<Boolean> denoiser;
     public ConfigEntry<Boolean> runLocalServer;
     public ConfigEntry<Boolean> javaMicrophoneImplementation;
@@ -44,6 +46,9 @@ public class ClientConfig {
     public ConfigEntry<Boolean> useNatives;
     public ConfigEntry<FreecamMode> freecamMode;
     public ConfigEntry<Boolean> muteOnJoin;
+    public ConfigEntry<Boolean> adaptiveBitrate;
+    public ConfigEntry<Boolean> discontinuousTransmission;
+    public ConfigEntry<Boolean> checkAlErrors;
 
     public ClientConfig(ConfigBuilder builder) {
 
@@ -156,6 +161,13 @@ public class ClientConfig {
                         "The quality of the recorded audio",
                         "0 = highest quality, 9 = lowest quality"
                 );
+        recordingFormat = builder
+                .enumEntry("recording_format", RecordingFormat.MP3,
+                        "The format of recordings",
+                        "Possible values are 'MP3' and 'OGG_OPUS'",
+                        "MP3: One mp3 file per player, containing the audio as you heard it",
+                        "OGG_OPUS: One Ogg file with a track per player, containing the received audio without any processing - This needs much less CPU and storage"
+                );
         denoiser = builder
                 .booleanEntry("denoiser", false,
                         "If noise cancellation should be enabled"
@@ -188,7 +200,8 @@ public class ClientConfig {
         useNatives = builder
                 .booleanEntry("use_natives", true,
                         "If the mod should load native libraries",
-                        "If set to false, the Java Opus implementation will be used, the denoiser won't be available and you won't be able to record audio."
+                        "If set to false, the Java Opus implementation will be used, the denoiser won't be available and you won't be able to record audio.",
+                        "The native Opus encoder doesn't add forward error correction data, so other players can only conceal your lost packets instead of recovering them."
                 );
         freecamMode = builder
                 .enumEntry("freecam_mode", FreecamMode.CAMERA,
@@ -201,6 +214,22 @@ public class ClientConfig {
                 .booleanEntry("mute_on_join", false,
                         "If enabled, you will be automatically muted when joining a world"
                 );
+        adaptiveBitrate = builder
+                .booleanEntry("adaptive_bitrate", true,
+                        "If the bitrate of your microphone audio should be lowered when there is packet loss, high latency or the voice chat server is under load"
+                );
+        discontinuousTransmission = builder
+                .booleanEntry("discontinuous_transmission", true,
+                        "If silent microphone audio should not be sent while you are talking",
+                        "Other players will hear comfort noise instead",
+                        "This is only used if the server and all connected players support it"
+                );
+        checkAlErrors = builder
+                .booleanEntry("check_al_errors", false,
+                        "If OpenAL errors should be checked after every call",
+                        "This slows down audio playback and should only be enabled for debugging",
+                        "Errors are always checked in debug mode"
+                );
     }
 
 }
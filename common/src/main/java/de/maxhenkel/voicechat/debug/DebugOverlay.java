@@ -4,9 +4,11 @@ import de.maxhenkel.voicechat.gui.GroupType;
 import de.maxhenkel.voicechat.intercompatibility.ClientCompatibilityManager;
 import de.maxhenkel.voicechat.intercompatibility.CommonCompatibilityManager;
 import de.maxhenkel.voicechat.voice.client.*;
+import de.maxhenkel.voicechat.voice.client.microphone.CaptureScheduler;
 import de.maxhenkel.voicechat.voice.client.speaker.ALSpeaker;
 import de.maxhenkel.voicechat.voice.client.speaker.Speaker;
 import de.maxhenkel.voicechat.voice.common.ClientGroup;
+import de.maxhenkel.voicechat.voice.common.StageTimer;
 import net.minecraft.client.Minecraft;
 import net.minecraft.client.gui.GuiGraphics;
 
@@ -60,6 +62,10 @@ public class DebugOverlay {
         }
 
         rightText.add(String.format("UUID: %s", ClientManager.getPlayerStateManager().getOwnID()));
+        addEncoderStrings(client, rightText);
+        addDiscontinuousTransmissionStrings(client, rightText);
+        addEntityCacheStrings(client, rightText);
+        addMicrophoneStrings(client, rightText);
         rightText.add(null);
         addStateStrings(rightText);
         rightText.add(null);
@@ -68,6 +74,94 @@ public class DebugOverlay {
         drawRight(gui, rightText);
     }
 
+    private void addEncoderStrings(ClientVoicechat client, List<String> strings) {
+        ClientVoicechatConnection connection = client.getConnection();
+        if (connection == null) {
+            return;
+        }
+        BitrateController bitrateController = connection.getData().getBitrateController();
+        strings.add(String.format(
+                "Bitrate: %s/%s Complexity: %s Reported loss: %.1f%%",
+                bitrateController.getTargetBitrate(),
+                bitrateController.getMaxBitrate(),
+                bitrateController.getTargetComplexity(),
+                bitrateController.getPacketLoss() * 100F
+        ));
+        MicThread micThread = client.getMicThread();
+        if (micThread != null) {
+            if (micThread.isFecSupported()) {
+                strings.add(String.format("FEC: Enabled (Expected loss: %.1f%%)", bitrateController.getPacketLoss() * 100F));
+            } else {
+                strings.add("FEC: Disabled (Not supported by the native Opus encoder)");
+            }
+        }
+        strings.add(String.format(
+                "RTT: %s Server load: %s Listeners: %s",
+                unknownIfNegative(bitrateController.getRoundTripTime(), "%sms"),
+                unknownIfNegative(bitrateController.getServerLoad(), "%s%%"),
+                unknownIfNegative(bitrateController.getListeners(), "%s")
+        ));
+    }
+
+    private void addDiscontinuousTransmissionStrings(ClientVoicechat client, List<String> strings) {
+        MicThread micThread = client.getMicThread();
+        if (micThread == null) {
+            return;
+        }
+        DiscontinuousTransmission dtx = micThread.getDiscontinuousTransmission();
+        long totalFrames = dtx.getSentFrames() + dtx.getSuppressedFrames();
+        strings.add(String.format(
+                "DTX: %s Sent: %s (%s KiB) Suppressed: %s (%.1f%%)",
+                micThread.isDiscontinuousTransmissionActive() ? "Active" : "Inactive",
+                dtx.getSentFrames(),
+                dtx.getSentBytes() / 1024L,
+                dtx.getSuppressedFrames(),
+                totalFrames <= 0L ? 0F : (float) dtx.getSuppressedFrames() / (float) totalFrames * 100F
+        ));
+    }
+
+    private void addMicrophoneStrings(ClientVoicechat client, List<String> strings) {
+        MicThread micThread = client.getMicThread();
+        if (micThread == null) {
+            return;
+        }
+        CaptureScheduler scheduler = micThread.getCaptureScheduler();
+        strings.add(String.format(
+                "Mic latency: %.1fms (Avg: %.1fms Max: %.1fms) Wakeups/frame: %.2f",
+                scheduler.getLastLatency() / 1_000_000F,
+                scheduler.getAverageLatency() / 1_000_000F,
+                scheduler.getMaxLatency() / 1_000_000F,
+                scheduler.getWakeupsPerFrame()
+        ));
+        StageTimer capture = micThread.getCaptureTimer();
+        StageTimer processing = micThread.getProcessingTimer();
+        strings.add(String.format(
+                "Mic capture: %.2fms (Max: %.2fms) Processing: %.2fms (Max: %.2fms)",
+                capture.getAverage() / 1_000_000F,
+                capture.getMax() / 1_000_000F,
+                processing.getAverage() / 1_000_000F,
+                processing.getMax() / 1_000_000F
+        ));
+        strings.add(String.format("Mic queue: %s Dropped frames: %s", micThread.getQueuedFrames(), micThread.getDroppedFrames()));
+    }
+
+    private void addEntityCacheStrings(ClientVoicechat client, List<String> strings) {
+        EntityCache entityCache = client.getEntityCache();
+        strings.add(String.format(
+                "Entity cache: %s Hits: %s Misses: %s",
+                entityCache.getSize(),
+                entityCache.getHits(),
+                entityCache.getMisses()
+        ));
+    }
+
+    private static String unknownIfNegative(int value, String format) {
+        if (value < 0) {
+            return "N/A";
+        }
+        return String.format(format, value);
+    }
+
     public static final int MAX_AUDIO_CHANNELS = 4;
 
     private void addAudioChannelStrings(List<String> strings) {
@@ -78,19 +172,27 @@ public class DebugOverlay {
             AudioChannelInfo audioChannel = entry.getValue();
             if (audioChannel.audioBufferCount < 0) {
                 strings.add(String.format(
-                        "ID: %s Packets: %s Reordering: %S Lost: %s Queue: STOPPED",
+                        "ID: %s Packets: %s Reordering: %S Lost: %s (FEC: %s PLC: %s %.1f%%) CN: %s Queue: STOPPED",
                         entry.getKey().toString().substring(24),
                         audioChannel.bufferedPackets,
                         audioChannel.packetReorderingBuffer,
-                        audioChannel.lostPackets
+                        audioChannel.lostPackets,
+                        audioChannel.fecPackets,
+                        audioChannel.concealedPackets,
+                        audioChannel.packetLoss * 100F,
+                        audioChannel.comfortNoisePackets
                 ));
             } else {
                 strings.add(String.format(
-                        "ID: %s Packets: %s Reordering: %S Lost: %s Queue: %s/%s",
+                        "ID: %s Packets: %s Reordering: %S Lost: %s (FEC: %s PLC: %s %.1f%%) CN: %s Queue: %s/%s",
                         entry.getKey().toString().substring(24),
                         audioChannel.bufferedPackets,
                         audioChannel.packetReorderingBuffer,
                         audioChannel.lostPackets,
+                        audioChannel.fecPackets,
+                        audioChannel.concealedPackets,
+                        audioChannel.packetLoss * 100F,
+                        audioChannel.comfortNoisePackets,
                         audioChannel.audioBufferCount,
                         audioChannel.audioBufferSize
                 ));
@@ -175,6 +277,10 @@ public class DebugOverlay {
         private int bufferedPackets;
         private int packetReorderingBuffer;
         private long lostPackets;
+        private long fecPackets;
+        private long concealedPackets;
+        private float packetLoss;
+        private long comfortNoisePackets;
 
         public AudioChannelInfo(UUID id) {
             this.id = id;
@@ -186,6 +292,10 @@ public class DebugOverlay {
             bufferedPackets = audioChannel.getQueue().size();
             packetReorderingBuffer = audioChannel.getPacketBuffer().getSize();
             lostPackets = audioChannel.getLostPackets();
+            fecPackets = audioChannel.getFecPackets();
+            concealedPackets = audioChannel.getConcealedPackets();
+            packetLoss = audioChannel.getPacketLoss();
+            comfortNoisePackets = audioChannel.getComfortNoisePackets();
 
             Speaker speaker = audioChannel.getSpeaker();
             if (speaker instanceof ALSpeaker) {
@@ -0,0 +1,114 @@
+package de.maxhenkel.voicechat.debug;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.LongConsumer;
+
+/**
+ * Limits how often an event is handled per key.
+ * Events that happen during the cooldown are counted, so the next handled event can report how many were suppressed.
+ * Checking a key that already has an entry doesn't allocate.
+ *
+ * @param <K> the key type
+ */
+public class RateLimiter<K> {
+
+    /**
+     * The value returned by {@link #check(Object)} if the event is on cooldown
+     */
+    public static final long SUPPRESSED = -1L;
+
+    private final long cooldown;
+    private final int maxEntries;
+    private final Map<K, Entry> entries;
+
+    /**
+     * @param cooldown   the default cooldown in milliseconds
+     * @param maxEntries the maximum amount of keys that are tracked at the same time
+     */
+    public RateLimiter(long cooldown, int maxEntries) {
+        this.cooldown = cooldown;
+        this.maxEntries = maxEntries;
+        this.entries = new ConcurrentHashMap<>();
+    }
+
+    /**
+     * @param key      the key
+     * @param cooldown the cooldown in milliseconds
+     * @return the amount of events that were suppressed since the event was last handled or {@link #SUPPRESSED} if the event is on cooldown
+     */
+    public long check(K key, long cooldown) {
+        long time = System.currentTimeMillis();
+        Entry entry = entries.get(key);
+        if (entry == null) {
+            if (entries.size() >= maxEntries) {
+                prune(time);
+            }
+            entry = entries.computeIfAbsent(key, k -> new Entry());
+        }
+        return entry.check(time, cooldown);
+    }
+
+    /**
+     * @param key the key
+     * @return the amount of events that were suppressed since the event was last handled or {@link #SUPPRESSED} if the event is on cooldown
+     */
+    public long check(K key) {
+        return check(key, cooldown);
+    }
+
+    /**
+     * Runs the action if the event isn't on cooldown.
+     *
+     * @param key      the key
+     * @param cooldown the cooldown in milliseconds
+     * @param action   the action that gets the amount of suppressed events
+     */
+    public void run(K key, long cooldown, LongConsumer action) {
+        long suppressed = check(key, cooldown);
+        if (suppressed != SUPPRESSED) {
+            action.accept(suppressed);
+        }
+    }
+
+    public void run(K key, LongConsumer action) {
+        run(key, cooldown, action);
+    }
+
+    public void remove(K key) {
+        entries.remove(key);
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    private void prune(long time) {
+        entries.values().removeIf(entry -> entry.isExpired(time));
+        if (entries.size() >= maxEntries) {
+            // Too many keys are on cooldown at the same time - forgetting them is better than growing without limit
+            entries.clear();
+        }
+    }
+
+    private static class Entry {
+        private long expires;
+        private long suppressed;
+
+        private synchronized long check(long time, long cooldown) {
+            if (time < expires) {
+                suppressed++;
+                return SUPPRESSED;
+            }
+            long s = suppressed;
+            suppressed = 0L;
+            expires = time + cooldown;
+            return s;
+        }
+
+        private synchronized boolean isExpired(long time) {
+            return time >= expires;
+        }
+    }
+
+}
@@ -22,8 +22,12 @@ import net.minecraft.client.renderer.GameRenderer;
 import net.minecraft.network.chat.Component;
 import net.minecraft.network.chat.MutableComponent;
 import net.minecraft.resources.ResourceLocation;
+import net.minecraft.util.FormattedCharSequence;
+import org.apache.commons.io.FileUtils;
 
 import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.List;
 
 public class VoiceChatScreen extends VoiceChatScreenBase {
 
@@ -151,7 +155,13 @@ public class VoiceChatScreen extends VoiceChatScreenBase {
             guiGraphics.drawString(font, time.withStyle(ChatFormatting.DARK_RED), guiLeft + recordingHoverArea.getPosX() + recordingHoverArea.getWidth() / 2 - font.width(time) / 2, guiTop + recordingHoverArea.getPosY() + recordingHoverArea.getHeight() / 2 - font.lineHeight / 2, 0, false);
 
             if (recordingHoverArea.isHovered(guiLeft, guiTop, mouseX, mouseY)) {
-                guiGraphics.renderTooltip(font, Component.translatable("message.voicechat.storage_size", recorder.getStorage()), mouseX, mouseY);
+                List<FormattedCharSequence> tooltip = new ArrayList<>();
+                tooltip.add(Component.translatable("message.voicechat.storage_size", recorder.getStorage()).getVisualOrderText());
+                tooltip.add(Component.translatable("message.voicechat.recording_buffer", FileUtils.byteCountToDisplaySize(recorder.getBufferedBytes()), FileUtils.byteCountToDisplaySize(recorder.getPeakBufferedBytes())).withStyle(ChatFormatting.GRAY).getVisualOrderText());
+                tooltip.add(Component.translatable("message.voicechat.recording_lag", recorder.getEncodeLag()).withStyle(ChatFormatting.GRAY).getVisualOrderText());
+                long droppedFrames = recorder.getDroppedFrames();
+                tooltip.add(Component.translatable("message.voicechat.recording_dropped_frames", droppedFrames).withStyle(droppedFrames > 0L ? ChatFormatting.RED : ChatFormatting.GRAY).getVisualOrderText());
+                guiGraphics.renderTooltip(font, tooltip, mouseX, mouseY);
             }
         }
     }
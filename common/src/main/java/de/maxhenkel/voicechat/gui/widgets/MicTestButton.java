@@ -136,7 +136,7 @@ public class MicTestButton extends AbstractButton {
                 throw new SpeakerException("No sound manager");
             }
 
-            speaker = SpeakerManager.createSpeaker(soundManager, null);
+            speaker = SpeakerManager.createSpeaker(soundManager, null, micThread.getFramePool());
 
             updateLastRender();
             setMicLocked(true);
@@ -155,7 +155,7 @@ public class MicTestButton extends AbstractButton {
 
                 micListener.onMicValue(Utils.dbToPerc(Utils.getHighestAudioLevel(buff)));
 
-                speaker.play(buff, VoicechatClient.CLIENT_CONFIG.voiceChatVolume.get().floatValue(), null);
+                speaker.play(buff, VoicechatClient.CLIENT_CONFIG.voiceChatVolume.get().floatValue(), null, true);
             }
             speaker.close();
             setMicLocked(false);
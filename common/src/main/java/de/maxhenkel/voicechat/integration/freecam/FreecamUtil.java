@@ -1,6 +1,7 @@
 package de.maxhenkel.voicechat.integration.freecam;
 
 import de.maxhenkel.voicechat.VoicechatClient;
+import de.maxhenkel.voicechat.voice.client.ListenerSnapshot;
 import de.maxhenkel.voicechat.voice.client.PositionalAudioUtils;
 import net.minecraft.client.Minecraft;
 import net.minecraft.world.phys.Vec3;
@@ -28,7 +29,7 @@ public class FreecamUtil {
         if (mc.player == null) {
             return Vec3.ZERO;
         }
-        return isFreecamEnabled() ? mc.player.getEyePosition() : mc.gameRenderer.getMainCamera().getPosition();
+        return isFreecamEnabled() ? mc.player.getEyePosition() : ListenerSnapshot.get().getPosition();
     }
 
     /**
@@ -0,0 +1,97 @@
+package de.maxhenkel.voicechat.permission;
+
+import net.minecraft.server.level.ServerPlayer;
+
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Caches the permission checks that are done for every audio packet.
+ * Every player has a bitset of checked and granted permissions that expires after {@link #TTL} milliseconds.
+ */
+public class PermissionCache {
+
+    /**
+     * The time in milliseconds after which the permissions of a player get checked again
+     */
+    public static final long TTL = 10_000L;
+
+    private static final int SPEAK = 1;
+    private static final int LISTEN = 1 << 1;
+
+    /**
+     * The offset of the granted bits in {@link Entry#bits}
+     */
+    private static final int GRANTED_OFFSET = 16;
+
+    private final Map<UUID, Entry> entries;
+
+    public PermissionCache() {
+        entries = new ConcurrentHashMap<>();
+    }
+
+    public boolean canSpeak(ServerPlayer player) {
+        return hasPermission(player, SPEAK, PermissionManager.INSTANCE.SPEAK_PERMISSION);
+    }
+
+    public boolean canListen(ServerPlayer player) {
+        return hasPermission(player, LISTEN, PermissionManager.INSTANCE.LISTEN_PERMISSION);
+    }
+
+    private boolean hasPermission(ServerPlayer player, int mask, Permission permission) {
+        Entry entry = entries.get(player.getUUID());
+        if (entry == null) {
+            entry = entries.computeIfAbsent(player.getUUID(), uuid -> new Entry());
+        }
+        long time = System.currentTimeMillis();
+        int bits = entry.bits;
+        if (time < entry.expires && (bits & mask) != 0) {
+            return (bits & (mask << GRANTED_OFFSET)) != 0;
+        }
+        boolean granted = permission.hasPermission(player);
+        entry.set(time, mask, granted);
+        return granted;
+    }
+
+    /**
+     * Removes the cached permissions of the player, so they get checked again the next time they are needed.
+     *
+     * @param playerUUID the UUID of the player
+     */
+    public void invalidate(UUID playerUUID) {
+        entries.remove(playerUUID);
+    }
+
+    /**
+     * Removes the cached permissions of all players.
+     */
+    public void invalidateAll() {
+        entries.clear();
+    }
+
+    private static class Entry {
+        private volatile long expires;
+        private volatile int bits;
+
+        private synchronized void set(long time, int mask, boolean granted) {
+            int b = bits;
+            boolean expired = time >= expires;
+            if (expired) {
+                b = 0;
+            }
+            b |= mask;
+            if (granted) {
+                b |= mask << GRANTED_OFFSET;
+            } else {
+                b &= ~(mask << GRANTED_OFFSET);
+            }
+            // Writing the bits first, so readers never see a new expiry time with outdated bits
+            bits = b;
+            if (expired) {
+                expires = time + TTL;
+            }
+        }
+    }
+
+}
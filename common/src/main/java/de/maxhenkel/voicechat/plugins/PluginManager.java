@@ -125,6 +125,18 @@ public class PluginManager {
         }
     }
 
+    /**
+     * @return if any plugin listens to OpenAL sound events
+     */
+    public boolean hasALSoundListeners() {
+        return hasListeners(OpenALSoundEvent.Pre.class) || hasListeners(OpenALSoundEvent.class) || hasListeners(OpenALSoundEvent.Post.class);
+    }
+
+    public boolean hasListeners(Class<? extends Event> eventClass) {
+        List<Consumer<? extends Event>> events = this.events.get(eventClass);
+        return events != null && !events.isEmpty();
+    }
+
     public <T extends Event> boolean dispatchEvent(Class<? extends T> eventClass, T event) {
         List<Consumer<? extends Event>> events = this.events.get(eventClass);
         if (events == null) {
@@ -327,6 +339,9 @@ public class PluginManager {
     }
 
     public void onALSound(int source, @Nullable UUID channelId, @Nullable Vec3 pos, @Nullable String category, Class<? extends OpenALSoundEvent> eventClass) {
+        if (!hasListeners(eventClass)) {
+            return;
+        }
         dispatchEvent(eventClass, new OpenALSoundEventImpl(
                 channelId,
                 pos == null ? null : new PositionImpl(pos),
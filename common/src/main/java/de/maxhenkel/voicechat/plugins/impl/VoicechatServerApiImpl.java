@@ -27,6 +27,7 @@ import de.maxhenkel.voicechat.voice.server.Server;
 import de.maxhenkel.voicechat.voice.server.ServerWorldUtils;
 
 import javax.annotation.Nullable;
+import java.io.InputStream;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.UUID;
@@ -38,8 +39,10 @@ public class VoicechatServerApiImpl extends VoicechatApiImpl implements Voicecha
 
     private static final VoicechatServerApiImpl INSTANCE = new VoicechatServerApiImpl();
 
-    private VoicechatServerApiImpl() {
+    private final EncodedAudioCache encodedAudioCache;
 
+    private VoicechatServerApiImpl() {
+        encodedAudioCache = new EncodedAudioCache();
     }
 
     public static VoicechatServerApiImpl instance() {
@@ -114,6 +117,34 @@ public class VoicechatServerApiImpl extends VoicechatApiImpl implements Voicecha
         return new AudioPlayerImpl(audioChannel, encoder, new AudioSupplier(audio));
     }
 
+    @Override
+    public AudioPlayer createAudioPlayer(AudioChannel audioChannel, EncodedAudio audio) {
+        if (!(audio instanceof EncodedAudioImpl encodedAudio)) {
+            throw new IllegalArgumentException("EncodedAudio is not an instance of EncodedAudioImpl");
+        }
+        return new AudioPlayerImpl(audioChannel, encodedAudio);
+    }
+
+    @Override
+    public EncodedAudio encodeAudio(OpusEncoder encoder, short[] audio) {
+        return EncodedAudioImpl.encode(encoder, new AudioSupplier(audio));
+    }
+
+    @Override
+    public EncodedAudio getEncodedAudio(String key, Supplier<short[]> audioSupplier) {
+        return encodedAudioCache.get(key, audioSupplier);
+    }
+
+    @Nullable
+    @Override
+    public StreamingAudioSupplier createStreamingAudioSupplier(InputStream inputStream) {
+        return StreamingAudioSupplierImpl.create(inputStream);
+    }
+
+    public EncodedAudioCache getEncodedAudioCache() {
+        return encodedAudioCache;
+    }
+
     @Override
     public AudioSender createAudioSender(VoicechatConnection connection) {
         return new AudioSenderImpl(connection.getPlayer().getUuid());
@@ -292,4 +323,13 @@ public class VoicechatServerApiImpl extends VoicechatApiImpl implements Voicecha
         return new ConfigAccessorImpl(Voicechat.SERVER_CONFIG.voiceChatDistance.getConfig());
     }
 
+    @Override
+    public void invalidatePermissions(UUID playerUuid) {
+        Server server = Voicechat.SERVER.getServer();
+        if (server == null) {
+            return;
+        }
+        server.getPermissionCache().invalidate(playerUuid);
+    }
+
 }
@@ -2,7 +2,9 @@ package de.maxhenkel.voicechat.plugins.impl.audiochannel;
 
 import de.maxhenkel.voicechat.api.ServerPlayer;
 import de.maxhenkel.voicechat.api.audiochannel.AudioChannel;
+import de.maxhenkel.voicechat.voice.common.SoundPacket;
 import de.maxhenkel.voicechat.voice.server.Server;
+import de.maxhenkel.voicechat.voice.server.recording.SessionRecorder;
 
 import javax.annotation.Nullable;
 import java.util.UUID;
@@ -50,4 +52,11 @@ public abstract class AudioChannelImpl implements AudioChannel {
     public void setCategory(@Nullable String category) {
         this.category = category;
     }
+
+    protected void record(SoundPacket<?> packet) {
+        SessionRecorder recorder = server.getSessionRecorder();
+        if (recorder != null) {
+            recorder.record(channelId, category, packet.getSequenceNumber(), packet.getData());
+        }
+    }
 }
@@ -4,21 +4,37 @@ import de.maxhenkel.voicechat.Voicechat;
 import de.maxhenkel.voicechat.api.audiochannel.AudioChannel;
 import de.maxhenkel.voicechat.api.audiochannel.AudioPlayer;
 import de.maxhenkel.voicechat.api.opus.OpusEncoder;
-import de.maxhenkel.voicechat.debug.VoicechatUncaughtExceptionHandler;
 import de.maxhenkel.voicechat.voice.client.SoundManager;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.function.Supplier;
 
-public class AudioPlayerImpl extends Thread implements AudioPlayer {
-
-    private static final long FRAME_SIZE_NS = 20_000_000;
+/**
+ * An audio player that is played by the {@link AudioPlayerScheduler}.
+ * It either encodes the frames of an audio supplier or plays {@link EncodedAudioImpl pre-encoded audio}.
+ */
+public class AudioPlayerImpl implements AudioPlayer {
 
     private final AudioChannel audioChannel;
+    @Nullable
     private final OpusEncoder encoder;
+    @Nullable
     private final Supplier<short[]> audioSupplier;
-    private boolean started;
+    @Nullable
+    private final EncodedAudioImpl encodedAudio;
+    private final AudioPlayerScheduler scheduler;
+    private final Queue<byte[]> encodedFrames;
+    private final AtomicBoolean busy;
+    private volatile boolean started;
+    private volatile boolean stopRequested;
+    private volatile boolean endOfStream;
+    private volatile boolean stopped;
+    private int dueFrames;
+    private int encodedAudioPosition;
     @Nullable
     private Runnable onStopped;
 
@@ -26,9 +42,20 @@ public class AudioPlayerImpl extends Thread implements AudioPlayer {
         this.audioChannel = audioChannel;
         this.encoder = encoder;
         this.audioSupplier = audioSupplier;
-        setDaemon(true);
-        setName("AudioPlayer-%s".formatted(audioChannel.getId()));
-        setUncaughtExceptionHandler(new VoicechatUncaughtExceptionHandler());
+        this.encodedAudio = null;
+        this.scheduler = AudioPlayerScheduler.instance();
+        this.encodedFrames = new ConcurrentLinkedQueue<>();
+        this.busy = new AtomicBoolean();
+    }
+
+    public AudioPlayerImpl(AudioChannel audioChannel, EncodedAudioImpl encodedAudio) {
+        this.audioChannel = audioChannel;
+        this.encoder = null;
+        this.audioSupplier = null;
+        this.encodedAudio = encodedAudio;
+        this.scheduler = AudioPlayerScheduler.instance();
+        this.encodedFrames = new ConcurrentLinkedQueue<>();
+        this.busy = new AtomicBoolean();
     }
 
     @Override
@@ -36,13 +63,13 @@ public class AudioPlayerImpl extends Thread implements AudioPlayer {
         if (started) {
             return;
         }
-        start();
         started = true;
+        scheduler.add(this);
     }
 
     @Override
     public void stopPlaying() {
-        interrupt();
+        stopRequested = true;
     }
 
     @Override
@@ -52,12 +79,12 @@ public class AudioPlayerImpl extends Thread implements AudioPlayer {
 
     @Override
     public boolean isPlaying() {
-        return isAlive();
+        return started && !stopped;
     }
 
     @Override
     public boolean isStopped() {
-        return started && !isAlive();
+        return stopped;
     }
 
     @Override
@@ -65,40 +92,106 @@ public class AudioPlayerImpl extends Thread implements AudioPlayer {
         this.onStopped = onStopped;
     }
 
-    @Override
-    public void run() {
-        int framePosition = 0;
-
-        long startTime = System.nanoTime();
-
-        short[] frame;
+    /**
+     * Called by the clock thread on every tick.
+     */
+    void tick() {
+        if (stopRequested || endOfStream) {
+            return;
+        }
+        if (encodedAudio != null) {
+            // Pre-encoded audio doesn't need the worker pool
+            if (encodedAudioPosition >= encodedAudio.getFrameCount()) {
+                endOfStream = true;
+                return;
+            }
+            encodedFrames.add(encodedAudio.getFrame(encodedAudioPosition++));
+            return;
+        }
+        dueFrames++;
+        if (!busy.compareAndSet(false, true)) {
+            scheduler.onDeferred();
+            return;
+        }
+        int frames = dueFrames;
+        dueFrames = 0;
+        if (frames > AudioPlayerScheduler.MAX_CATCH_UP_FRAMES) {
+            scheduler.onSkipped(frames - AudioPlayerScheduler.MAX_CATCH_UP_FRAMES);
+            frames = AudioPlayerScheduler.MAX_CATCH_UP_FRAMES;
+        }
+        int frameCount = frames;
+        scheduler.execute(() -> {
+            try {
+                encodeFrames(frameCount);
+            } catch (Exception e) {
+                Voicechat.LOGGER.error("Failed to play audio", e);
+                endOfStream = true;
+            } finally {
+                busy.set(false);
+            }
+        });
+    }
 
-        while ((frame = audioSupplier.get()) != null) {
+    private void encodeFrames(int frames) {
+        for (int i = 0; i < frames && !stopRequested; i++) {
+            short[] frame = audioSupplier.get();
+            if (frame == null) {
+                endOfStream = true;
+                return;
+            }
             if (frame.length != SoundManager.FRAME_SIZE) {
                 Voicechat.LOGGER.error("Got invalid audio frame size {}!={}", frame.length, SoundManager.FRAME_SIZE);
-                break;
+                endOfStream = true;
+                return;
             }
-            audioChannel.send(encoder.encode(frame));
-            framePosition++;
-            long waitTimestamp = startTime + framePosition * FRAME_SIZE_NS;
-
-            long waitNanos = waitTimestamp - System.nanoTime();
+            encodedFrames.add(encoder.encode(frame));
+        }
+    }
 
-            try {
-                if (waitNanos > 0L) {
-                    Thread.sleep(waitNanos / 1_000_000L, (int) (waitNanos % 1_000_000));
-                }
-            } catch (InterruptedException e) {
-                break;
-            }
+    /**
+     * Called by the clock thread to send the frames that were encoded since the last tick.
+     */
+    void sendEncoded() {
+        if (stopRequested) {
+            encodedFrames.clear();
+            return;
+        }
+        byte[] frame;
+        while ((frame = encodedFrames.poll()) != null) {
+            audioChannel.send(frame);
         }
+    }
 
-        encoder.close();
-        audioChannel.flush();
+    /**
+     * @return if the player has nothing left to play
+     */
+    boolean isFinished() {
+        return (stopRequested || endOfStream) && !busy.get() && encodedFrames.isEmpty();
+    }
 
-        if (onStopped != null) {
-            onStopped.run();
-        }
+    /**
+     * Called by the clock thread after the player was removed.
+     */
+    void finish() {
+        audioChannel.flush();
+        // Not running the callback on the clock thread, since it could block all other players
+        scheduler.execute(() -> {
+            // Streaming suppliers would otherwise keep their stream open if the player was stopped early
+            if (audioSupplier instanceof AutoCloseable closeable) {
+                try {
+                    closeable.close();
+                } catch (Exception e) {
+                    Voicechat.LOGGER.error("Failed to close audio supplier", e);
+                }
+            }
+            if (encoder != null) {
+                encoder.close();
+            }
+            stopped = true;
+            if (onStopped != null) {
+                onStopped.run();
+            }
+        });
     }
 
 }
@@ -0,0 +1,265 @@
+package de.maxhenkel.voicechat.plugins.impl.audiochannel;
+
+import de.maxhenkel.voicechat.debug.VoicechatUncaughtExceptionHandler;
+import de.maxhenkel.voicechat.voice.common.NamedThreadPoolFactory;
+
+import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Plays all server side {@link AudioPlayerImpl audio players} on a single clock thread.
+ * Every 20ms the clock sends the frames that were encoded since the last tick in one batch and requests the next frame of every player.
+ * Pulling frames from the suppliers and encoding them happens on a worker pool, so a slow player can't delay the others.
+ * <p>
+ * If the clock wakes up late, the missed ticks are caught up immediately, unless it is more than {@link #MAX_CATCH_UP_FRAMES} frames behind.
+ * In that case the missed ticks are skipped.
+ * If a player is still busy with its previous frames on a tick, the frame is deferred and sent with its next frames, up to {@link #MAX_CATCH_UP_FRAMES} at once.
+ * Deferred frames exceeding that are skipped, which delays the audio of the player.
+ * <p>
+ * The scheduler is created on first use and needs to be shut down with {@link #shutdown()} when the server stops.
+ */
+public class AudioPlayerScheduler {
+
+    public static final long FRAME_SIZE_NS = 20_000_000L;
+    public static final int MAX_CATCH_UP_FRAMES = 5;
+    /**
+     * The time in milliseconds players get to finish their current frames when shutting down
+     */
+    private static final long SHUTDOWN_TIMEOUT = 1000L;
+
+    private static AudioPlayerScheduler instance;
+
+    private final ExecutorService executor;
+    private final Queue<AudioPlayerImpl> addedPlayers;
+    private final List<AudioPlayerImpl> players;
+    private final ClockThread clockThread;
+
+    private volatile int activePlayers;
+    private volatile long ticks;
+    private volatile long skippedTicks;
+    private volatile long deferredFrames;
+    private volatile long skippedFrames;
+    private volatile long lastJitter;
+    private volatile long maxJitter;
+    private volatile long totalJitter;
+
+    private AudioPlayerScheduler() {
+        int workers = Math.max(1, Math.min(Runtime.getRuntime().availableProcessors() / 2, 4));
+        executor = Executors.newFixedThreadPool(workers, NamedThreadPoolFactory.create("VoiceChatAudioPlayerThread"));
+        addedPlayers = new ConcurrentLinkedQueue<>();
+        players = new ArrayList<>();
+        clockThread = new ClockThread();
+        clockThread.start();
+    }
+
+    public static synchronized AudioPlayerScheduler instance() {
+        if (instance == null) {
+            instance = new AudioPlayerScheduler();
+        }
+        return instance;
+    }
+
+    /**
+     * @return the scheduler or <code>null</code> if it isn't running
+     */
+    @Nullable
+    public static synchronized AudioPlayerScheduler getRunningInstance() {
+        return instance;
+    }
+
+    /**
+     * Stops all players and shuts down the clock and the worker pool.
+     */
+    public static synchronized void shutdown() {
+        if (instance == null) {
+            return;
+        }
+        instance.close();
+        instance = null;
+    }
+
+    private void close() {
+        clockThread.interrupt();
+        try {
+            clockThread.join(SHUTDOWN_TIMEOUT * 2L);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        // Not using shutdownNow, so the stop callbacks of the players still run
+        executor.shutdown();
+    }
+
+    void add(AudioPlayerImpl player) {
+        addedPlayers.add(player);
+        synchronized (this) {
+            notifyAll();
+        }
+    }
+
+    void execute(Runnable runnable) {
+        executor.execute(runnable);
+    }
+
+    void onDeferred() {
+        deferredFrames++;
+    }
+
+    void onSkipped(int frames) {
+        skippedFrames += frames;
+    }
+
+    private void tick() {
+        AudioPlayerImpl added;
+        while ((added = addedPlayers.poll()) != null) {
+            players.add(added);
+        }
+        Iterator<AudioPlayerImpl> iterator = players.iterator();
+        while (iterator.hasNext()) {
+            AudioPlayerImpl player = iterator.next();
+            player.sendEncoded();
+            if (player.isFinished()) {
+                iterator.remove();
+                player.finish();
+                continue;
+            }
+            player.tick();
+        }
+        activePlayers = players.size();
+        ticks++;
+    }
+
+    private void recordJitter(long jitter) {
+        lastJitter = jitter;
+        totalJitter += jitter;
+        if (jitter > maxJitter) {
+            maxJitter = jitter;
+        }
+    }
+
+    public int getActivePlayers() {
+        return activePlayers;
+    }
+
+    public long getTicks() {
+        return ticks;
+    }
+
+    /**
+     * @return the amount of ticks that were skipped, because the clock was too far behind
+     */
+    public long getSkippedTicks() {
+        return skippedTicks;
+    }
+
+    /**
+     * @return the amount of frames that were sent late, because a player was still busy
+     */
+    public long getDeferredFrames() {
+        return deferredFrames;
+    }
+
+    /**
+     * @return the amount of frames that were skipped, because a player was too far behind
+     */
+    public long getSkippedFrames() {
+        return skippedFrames;
+    }
+
+    /**
+     * @return the time in nanoseconds the clock woke up late on the last tick
+     */
+    public long getLastJitter() {
+        return lastJitter;
+    }
+
+    /**
+     * @return the maximum time in nanoseconds the clock woke up late
+     */
+    public long getMaxJitter() {
+        return maxJitter;
+    }
+
+    /**
+     * @return the average time in nanoseconds the clock woke up late
+     */
+    public long getAverageJitter() {
+        long t = ticks;
+        if (t <= 0L) {
+            return 0L;
+        }
+        return totalJitter / t;
+    }
+
+    private class ClockThread extends Thread {
+
+        public ClockThread() {
+            setDaemon(true);
+            setName("VoiceChatAudioPlayerClockThread");
+            setUncaughtExceptionHandler(new VoicechatUncaughtExceptionHandler());
+        }
+
+        @Override
+        public void run() {
+            long nextTick = System.nanoTime();
+            while (!isInterrupted()) {
+                if (players.isEmpty() && addedPlayers.isEmpty()) {
+                    if (!waitForPlayers()) {
+                        break;
+                    }
+                    nextTick = System.nanoTime();
+                }
+                long waitNanos = nextTick - System.nanoTime();
+                if (waitNanos > 0L) {
+                    LockSupport.parkNanos(waitNanos);
+                    continue;
+                }
+                long late = -waitNanos;
+                recordJitter(late);
+                if (late >= MAX_CATCH_UP_FRAMES * FRAME_SIZE_NS) {
+                    long missed = late / FRAME_SIZE_NS;
+                    skippedTicks += missed;
+                    nextTick += missed * FRAME_SIZE_NS;
+                }
+                tick();
+                nextTick += FRAME_SIZE_NS;
+            }
+            stopPlayers();
+        }
+
+        private void stopPlayers() {
+            // Clearing the interrupt, so the players can be waited for
+            Thread.interrupted();
+            AudioPlayerImpl added;
+            while ((added = addedPlayers.poll()) != null) {
+                players.add(added);
+            }
+            players.forEach(AudioPlayerImpl::stopPlaying);
+            long timeout = System.nanoTime() + SHUTDOWN_TIMEOUT * 1_000_000L;
+            while (!players.isEmpty() && System.nanoTime() < timeout) {
+                tick();
+                LockSupport.parkNanos(FRAME_SIZE_NS);
+            }
+        }
+
+        private boolean waitForPlayers() {
+            synchronized (AudioPlayerScheduler.this) {
+                while (addedPlayers.isEmpty()) {
+                    try {
+                        AudioPlayerScheduler.this.wait();
+                    } catch (InterruptedException e) {
+                        return false;
+                    }
+                }
+            }
+            return true;
+        }
+    }
+
+}
@@ -72,6 +72,7 @@ public class EntityAudioChannelImpl extends AudioChannelImpl implements EntityAu
     }
 
     private void broadcast(PlayerSoundPacket packet) {
+        record(packet);
         if (entity.getEntity() instanceof net.minecraft.world.entity.Entity entity) {
             server.broadcast(ServerWorldUtils.getPlayersInRange((ServerLevel) entity.level(), entity.getEyePosition(), server.getBroadcastRange(distance), filter == null ? player -> true : player -> filter.test(new ServerPlayerImpl(player))), packet, null, null, null, SoundPacketEvent.SOURCE_PLUGIN);
         }
@@ -35,6 +35,7 @@ public class StaticAudioChannelImpl extends AudioChannelImpl implements StaticAu
     }
 
     private void broadcast(GroupSoundPacket packet) {
+        record(packet);
         VoicechatServerApiImpl.sendPacket(connection, packet);
     }
 
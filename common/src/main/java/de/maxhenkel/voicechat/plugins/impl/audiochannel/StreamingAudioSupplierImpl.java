@@ -0,0 +1,363 @@
+package de.maxhenkel.voicechat.plugins.impl.audiochannel;
+
+import de.maxhenkel.voicechat.Voicechat;
+import de.maxhenkel.voicechat.api.audiochannel.StreamingAudioSupplier;
+import de.maxhenkel.voicechat.plugins.impl.mp3.Mp3StreamSource;
+import de.maxhenkel.voicechat.voice.client.SoundManager;
+import de.maxhenkel.voicechat.voice.common.NamedThreadPoolFactory;
+
+import javax.annotation.Nullable;
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioInputStream;
+import javax.sound.sampled.AudioSystem;
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Decodes audio in blocks of frames on a shared decoder pool, while it is being played.
+ * Decoding pauses once {@link #READ_AHEAD_FRAMES} frames are decoded in advance, so the memory usage doesn't depend on the length of the audio.
+ */
+public class StreamingAudioSupplierImpl implements StreamingAudioSupplier {
+
+    public static final int SAMPLE_RATE = 48000;
+
+    /**
+     * The amount of frames that are decoded in advance (one second)
+     */
+    private static final int READ_AHEAD_FRAMES = 50;
+    private static final long POLL_TIMEOUT = 10L;
+
+    /**
+     * The time in seconds idle decoder threads are kept alive
+     */
+    private static final long DECODER_KEEP_ALIVE = 30L;
+
+    @Nullable
+    private static ThreadPoolExecutor decoderExecutor;
+
+    private final Source source;
+    private final BlockingQueue<short[]> frames;
+    private final AtomicBoolean decoding;
+    private volatile boolean endOfStream;
+    private volatile boolean closed;
+
+    // Only accessed by the decoder
+    private final double resampleStep;
+    private double resamplePosition;
+    private short lastSample;
+    private short[] monoBuffer;
+    @Nullable
+    private short[] frame;
+    private int framePosition;
+
+    public StreamingAudioSupplierImpl(Source source) {
+        this.source = source;
+        // Not bounded by the queue itself, since a single block can contain multiple frames
+        this.frames = new LinkedBlockingQueue<>();
+        this.decoding = new AtomicBoolean();
+        this.resampleStep = (double) source.getSampleRate() / (double) SAMPLE_RATE;
+        this.monoBuffer = new short[0];
+        scheduleDecode();
+    }
+
+    /**
+     * Creates a streaming audio supplier.
+     * The format is detected by the first bytes of the stream.
+     *
+     * @param inputStream the audio stream
+     * @return the supplier or <code>null</code> if the format is not supported
+     */
+    @Nullable
+    public static StreamingAudioSupplierImpl create(InputStream inputStream) {
+        BufferedInputStream in = new BufferedInputStream(inputStream);
+        try {
+            Source source;
+            if (isMp3(in)) {
+                source = Mp3StreamSource.create(in);
+            } else {
+                source = PcmSource.create(in);
+            }
+            if (source == null) {
+                in.close();
+                return null;
+            }
+            return new StreamingAudioSupplierImpl(source);
+        } catch (Exception e) {
+            Voicechat.LOGGER.error("Failed to open audio stream", e);
+            try {
+                in.close();
+            } catch (IOException ignored) {
+            }
+            return null;
+        }
+    }
+
+    private static boolean isMp3(BufferedInputStream in) throws IOException {
+        byte[] header = new byte[3];
+        in.mark(header.length);
+        int length = 0;
+        while (length < header.length) {
+            int read = in.read(header, length, header.length - length);
+            if (read < 0) {
+                break;
+            }
+            length += read;
+        }
+        in.reset();
+        if (length < header.length) {
+            return false;
+        }
+        if (header[0] == 'I' && header[1] == 'D' && header[2] == '3') {
+            return true;
+        }
+        // MPEG frame sync
+        return (header[0] & 0xFF) == 0xFF && (header[1] & 0xE0) == 0xE0;
+    }
+
+    @Override
+    public short[] get() {
+        while (true) {
+            short[] f;
+            try {
+                f = frames.poll(POLL_TIMEOUT, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                return null;
+            }
+            if (f != null) {
+                if (frames.size() <= READ_AHEAD_FRAMES / 2) {
+                    scheduleDecode();
+                }
+                return f;
+            }
+            if (closed || (endOfStream && frames.isEmpty())) {
+                return null;
+            }
+            scheduleDecode();
+        }
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        frames.clear();
+        scheduleDecode();
+    }
+
+    private void scheduleDecode() {
+        if (!decoding.compareAndSet(false, true)) {
+            return;
+        }
+        getDecoderExecutor().execute(() -> {
+            try {
+                decode();
+            } finally {
+                decoding.set(false);
+            }
+        });
+    }
+
+    private static synchronized ThreadPoolExecutor getDecoderExecutor() {
+        if (decoderExecutor == null) {
+            decoderExecutor = new ThreadPoolExecutor(2, 2, DECODER_KEEP_ALIVE, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), NamedThreadPoolFactory.create("VoiceChatAudioDecoderThread"));
+            // Idle threads don't need to be shut down, if a supplier is closed after the server stopped
+            decoderExecutor.allowCoreThreadTimeOut(true);
+        }
+        return decoderExecutor;
+    }
+
+    /**
+     * Shuts down the decoder threads after all pending blocks are decoded.
+     */
+    public static synchronized void shutdown() {
+        if (decoderExecutor == null) {
+            return;
+        }
+        decoderExecutor.shutdown();
+        decoderExecutor = null;
+    }
+
+    private void decode() {
+        if (endOfStream) {
+            return;
+        }
+        boolean end = false;
+        try {
+            while (!closed && frames.size() < READ_AHEAD_FRAMES) {
+                short[] samples = source.read();
+                if (samples == null) {
+                    if (frame != null && framePosition > 0) {
+                        Arrays.fill(frame, framePosition, frame.length, (short) 0);
+                        frames.add(frame);
+                    }
+                    frame = null;
+                    end = true;
+                    break;
+                }
+                resample(toMono(samples));
+            }
+        } catch (IOException e) {
+            Voicechat.LOGGER.error("Failed to decode audio stream", e);
+            end = true;
+        }
+        if (closed || end) {
+            endOfStream = true;
+            try {
+                source.close();
+            } catch (IOException e) {
+                Voicechat.LOGGER.error("Failed to close audio stream", e);
+            }
+        }
+    }
+
+    private int toMono(short[] samples) {
+        int channels = source.getChannels();
+        if (channels <= 1) {
+            monoBuffer = samples;
+            return samples.length;
+        }
+        int length = samples.length / channels;
+        if (monoBuffer.length < length) {
+            monoBuffer = new short[length];
+        }
+        for (int i = 0; i < length; i++) {
+            int sum = 0;
+            for (int c = 0; c < channels; c++) {
+                sum += samples[i * channels + c];
+            }
+            monoBuffer[i] = (short) (sum / channels);
+        }
+        return length;
+    }
+
+    /**
+     * Linearly interpolates the samples to 48 kHz and splits them into frames.
+     * The position of the resampler is carried over to the next block, so there are no gaps between blocks.
+     */
+    private void resample(int length) {
+        if (length <= 0) {
+            return;
+        }
+        if (resampleStep == 1D) {
+            for (int i = 0; i < length; i++) {
+                writeSample(monoBuffer[i]);
+            }
+            return;
+        }
+        // Position -1 refers to the last sample of the previous block
+        while (resamplePosition < length - 1) {
+            int index = (int) Math.floor(resamplePosition);
+            double fraction = resamplePosition - index;
+            short a = index < 0 ? lastSample : monoBuffer[index];
+            short b = monoBuffer[index + 1];
+            writeSample((short) Math.round(a + (b - a) * fraction));
+            resamplePosition += resampleStep;
+        }
+        resamplePosition -= length;
+        lastSample = monoBuffer[length - 1];
+    }
+
+    private void writeSample(short sample) {
+        if (frame == null) {
+            frame = new short[SoundManager.FRAME_SIZE];
+            framePosition = 0;
+        }
+        frame[framePosition++] = sample;
+        if (framePosition >= frame.length) {
+            frames.add(frame);
+            frame = null;
+        }
+    }
+
+    /**
+     * A decoded audio stream.
+     */
+    public interface Source extends Closeable {
+
+        /**
+         * @return the next block of interleaved 16 bit PCM samples or <code>null</code> if the end of the stream was reached
+         * @throws IOException if an I/O error occurs
+         */
+        @Nullable
+        short[] read() throws IOException;
+
+        int getChannels();
+
+        int getSampleRate();
+
+    }
+
+    /**
+     * Reads all formats supported by {@link AudioSystem} and converts them to 16 bit PCM.
+     */
+    private static class PcmSource implements Source {
+        private static final int BLOCK_SIZE = 4096;
+
+        private final AudioInputStream stream;
+        private final int channels;
+        private final int sampleRate;
+        private final byte[] buffer;
+
+        private PcmSource(AudioInputStream stream) {
+            this.stream = stream;
+            this.channels = stream.getFormat().getChannels();
+            this.sampleRate = (int) stream.getFormat().getSampleRate();
+            this.buffer = new byte[BLOCK_SIZE * channels * 2];
+        }
+
+        public static PcmSource create(InputStream in) throws Exception {
+            AudioInputStream stream = AudioSystem.getAudioInputStream(in);
+            AudioFormat format = stream.getFormat();
+            AudioFormat target = new AudioFormat(AudioFormat.Encoding.PCM_SIGNED, format.getSampleRate(), 16, format.getChannels(), format.getChannels() * 2, format.getSampleRate(), false);
+            if (!format.matches(target)) {
+                stream = AudioSystem.getAudioInputStream(target, stream);
+            }
+            return new PcmSource(stream);
+        }
+
+        @Nullable
+        @Override
+        public short[] read() throws IOException {
+            int length = 0;
+            while (length < buffer.length) {
+                int read = stream.read(buffer, length, buffer.length - length);
+                if (read < 0) {
+                    break;
+                }
+                length += read;
+            }
+            int sampleCount = length / (channels * 2) * channels;
+            if (sampleCount <= 0) {
+                return null;
+            }
+            short[] samples = new short[sampleCount];
+            for (int i = 0; i < sampleCount; i++) {
+                samples[i] = (short) ((buffer[i * 2] & 0xFF) | (buffer[i * 2 + 1] << 8));
+            }
+            return samples;
+        }
+
+        @Override
+        public int getChannels() {
+            return channels;
+        }
+
+        @Override
+        public int getSampleRate() {
+            return sampleRate;
+        }
+
+        @Override
+        public void close() throws IOException {
+            stream.close();
+        }
+    }
+
+}
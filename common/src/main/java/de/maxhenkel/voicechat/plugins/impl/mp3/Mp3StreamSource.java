@@ -0,0 +1,75 @@
+package de.maxhenkel.voicechat.plugins.impl.mp3;
+
+import de.maxhenkel.lame4j.UnknownPlatformException;
+import de.maxhenkel.voicechat.Voicechat;
+import de.maxhenkel.voicechat.plugins.impl.audiochannel.StreamingAudioSupplierImpl;
+import de.maxhenkel.voicechat.plugins.impl.opus.OpusManager;
+import de.maxhenkel.voicechat.voice.common.Utils;
+
+import javax.annotation.Nullable;
+import javax.sound.sampled.AudioFormat;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Decodes an MP3 stream frame by frame.
+ */
+public class Mp3StreamSource implements StreamingAudioSupplierImpl.Source {
+
+    private final de.maxhenkel.lame4j.Mp3Decoder decoder;
+    private final InputStream inputStream;
+    private final int channels;
+    private final int sampleRate;
+    @Nullable
+    private short[] firstFrame;
+
+    public Mp3StreamSource(InputStream inputStream) throws IOException, UnknownPlatformException {
+        this.inputStream = inputStream;
+        this.decoder = new de.maxhenkel.lame4j.Mp3Decoder(inputStream);
+        // The format is only known after decoding the first frame
+        firstFrame = decoder.decodeNextFrame();
+        if (firstFrame == null) {
+            throw new IOException("MP3 stream contains no audio");
+        }
+        AudioFormat format = decoder.createAudioFormat();
+        channels = format.getChannels();
+        sampleRate = (int) format.getSampleRate();
+    }
+
+    @Nullable
+    @Override
+    public short[] read() throws IOException {
+        if (firstFrame != null) {
+            short[] frame = firstFrame;
+            firstFrame = null;
+            return frame;
+        }
+        return decoder.decodeNextFrame();
+    }
+
+    @Override
+    public int getChannels() {
+        return channels;
+    }
+
+    @Override
+    public int getSampleRate() {
+        return sampleRate;
+    }
+
+    @Override
+    public void close() throws IOException {
+        inputStream.close();
+    }
+
+    @Nullable
+    public static Mp3StreamSource create(InputStream inputStream) {
+        if (!OpusManager.useNatives()) {
+            return null;
+        }
+        return Utils.createSafe(() -> new Mp3StreamSource(inputStream), e -> {
+            Voicechat.LOGGER.error("Failed to load mp3 decoder", e);
+        });
+    }
+
+}
@@ -47,8 +47,33 @@ public class JavaOpusDecoderImpl implements de.maxhenkel.voicechat.api.opus.Opus
             throw new RuntimeException("Failed to decode audio", e);
         }
 
-        short[] audio = new short[result];
-        System.arraycopy(buffer, 0, audio, 0, result);
+        return copyBuffer(result);
+    }
+
+    /**
+     * Decodes the previous, lost frame using the in-band forward error correction data of the provided packet.
+     *
+     * @param data the opus encoded data of the packet following the lost one
+     * @return the 16 bit PCM audio data of the lost frame
+     */
+    public short[] decodeFec(byte[] data) {
+        if (isClosed()) {
+            throw new IllegalStateException("Decoder is closed");
+        }
+        int result;
+
+        try {
+            result = opusDecoder.decode(data, 0, data.length, buffer, 0, buffer.length, true);
+        } catch (Exception e) {
+            throw new RuntimeException("Failed to decode audio", e);
+        }
+
+        return copyBuffer(result);
+    }
+
+    private short[] copyBuffer(int length) {
+        short[] audio = new short[length];
+        System.arraycopy(buffer, 0, audio, 0, length);
         return audio;
     }
 
@@ -26,6 +26,7 @@ public class JavaOpusEncoderImpl implements de.maxhenkel.voicechat.api.opus.Opus
         }
         try {
             opusEncoder = new OpusEncoder(sampleRate, 1, getApplication(application));
+            opusEncoder.setUseInbandFEC(true);
         } catch (Exception e) {
             throw new IllegalStateException("Failed to create Opus encoder", e);
         }
@@ -61,6 +62,39 @@ public class JavaOpusEncoderImpl implements de.maxhenkel.voicechat.api.opus.Opus
         opusEncoder.resetState();
     }
 
+    /**
+     * Sets the packet loss the encoder should expect.
+     * The higher the expected packet loss, the more bitrate is used for in-band forward error correction.
+     *
+     * @param percentage the packet loss percentage (0-100)
+     */
+    public void setExpectedPacketLoss(int percentage) {
+        if (isClosed()) {
+            throw new IllegalStateException("Encoder is closed");
+        }
+        opusEncoder.setPacketLossPercent(Math.max(0, Math.min(percentage, 100)));
+    }
+
+    /**
+     * @param bitrate the bitrate in bits per second
+     */
+    public void setBitrate(int bitrate) {
+        if (isClosed()) {
+            throw new IllegalStateException("Encoder is closed");
+        }
+        opusEncoder.setBitrate(bitrate);
+    }
+
+    /**
+     * @param complexity the complexity (0-10)
+     */
+    public void setComplexity(int complexity) {
+        if (isClosed()) {
+            throw new IllegalStateException("Encoder is closed");
+        }
+        opusEncoder.setComplexity(Math.max(0, Math.min(complexity, 10)));
+    }
+
     @Override
     public boolean isClosed() {
         return opusEncoder == null;
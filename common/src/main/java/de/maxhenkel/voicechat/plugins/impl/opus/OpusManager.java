@@ -126,6 +126,165 @@ public class OpusManager {
         return new JavaOpusDecoderImpl(SoundManager.SAMPLE_RATE, SoundManager.FRAME_SIZE);
     }
 
+    /**
+     * Sets the packet loss the encoder should expect, so it can add in-band forward error correction data.
+     * This has no effect on the native encoder, since it doesn't expose the encoder controls.
+     *
+     * @param encoder    the encoder
+     * @param percentage the packet loss percentage (0-100)
+     */
+    public static void setExpectedPacketLoss(OpusEncoder encoder, int percentage) {
+        if (encoder.isClosed()) {
+            return;
+        }
+        if (encoder instanceof JavaOpusEncoderImpl javaEncoder) {
+            javaEncoder.setExpectedPacketLoss(percentage);
+        }
+    }
+
+    /**
+     * The native encoder doesn't expose the encoder controls, so it never adds in-band forward error correction data.
+     *
+     * @param encoder the encoder
+     * @return if the encoder adds in-band forward error correction data, once packet loss is expected
+     */
+    public static boolean supportsFec(OpusEncoder encoder) {
+        return encoder instanceof JavaOpusEncoderImpl;
+    }
+
+    /**
+     * Sets the bitrate of the encoder.
+     * The native encoder doesn't expose its encoder controls, so the bitrate is limited by capping the payload size of every frame.
+     *
+     * @param encoder the encoder
+     * @param bitrate the bitrate in bits per second
+     * @param mtuSize the maximum payload size of a single packet
+     */
+    public static void setBitrate(OpusEncoder encoder, int bitrate, int mtuSize) {
+        if (encoder.isClosed()) {
+            return;
+        }
+        if (encoder instanceof JavaOpusEncoderImpl javaEncoder) {
+            javaEncoder.setBitrate(bitrate);
+        } else if (encoder instanceof NativeOpusEncoderImpl nativeEncoder) {
+            int framesPerSecond = SoundManager.SAMPLE_RATE / SoundManager.FRAME_SIZE;
+            nativeEncoder.setMaxPayloadSize(Math.min(bitrate / 8 / framesPerSecond, mtuSize));
+        }
+    }
+
+    /**
+     * Sets the computational complexity of the encoder.
+     * This has no effect on the native encoder, since it doesn't expose the encoder controls.
+     *
+     * @param encoder    the encoder
+     * @param complexity the complexity (0-10)
+     */
+    public static void setComplexity(OpusEncoder encoder, int complexity) {
+        if (encoder.isClosed()) {
+            return;
+        }
+        if (encoder instanceof JavaOpusEncoderImpl javaEncoder) {
+            javaEncoder.setComplexity(complexity);
+        }
+    }
+
+    /**
+     * Recovers a lost frame with the in-band forward error correction data of the packet that followed it.
+     * If the packet doesn't contain any forward error correction data, the decoder uses packet loss concealment instead.
+     *
+     * @param decoder    the decoder
+     * @param nextPacket the opus encoded packet that followed the lost one
+     * @return the 16 bit PCM audio data of the lost frame
+     */
+    public static short[] decodeFec(OpusDecoder decoder, byte[] nextPacket) {
+        if (decoder instanceof NativeOpusDecoderImpl nativeDecoder) {
+            return nativeDecoder.decode(nextPacket, true);
+        }
+        if (decoder instanceof JavaOpusDecoderImpl javaDecoder) {
+            return javaDecoder.decodeFec(nextPacket);
+        }
+        return decoder.decode(null);
+    }
+
+    /**
+     * Checks if the packet contains in-band forward error correction data (LBRR frames) for the previous frame.
+     * This is the same check as <code>opus_packet_has_lbrr</code> of libopus.
+     *
+     * @param packet the opus encoded packet
+     * @return if the packet contains forward error correction data
+     */
+    public static boolean hasFec(byte[] packet) {
+        if (packet.length < 2) {
+            return false;
+        }
+        int toc = packet[0] & 0xFF;
+        int config = toc >> 3;
+        if (config >= 16) {
+            // CELT only packets don't contain any forward error correction data
+            return false;
+        }
+        int frameDuration;
+        if (config < 12) {
+            // SILK only - 10, 20, 40 or 60 ms
+            frameDuration = new int[]{10, 20, 40, 60}[config & 0x3];
+        } else {
+            // Hybrid - 10 or 20 ms
+            frameDuration = (config & 0x1) == 0 ? 10 : 20;
+        }
+        int silkFrames = Math.max(frameDuration / 20, 1);
+        boolean stereo = (toc & 0x4) != 0;
+
+        int offset = getFirstFrameOffset(packet, toc & 0x3);
+        if (offset < 0 || offset >= packet.length) {
+            return false;
+        }
+        int header = packet[offset] & 0xFF;
+        boolean lbrr = ((header >> (7 - silkFrames)) & 0x1) != 0;
+        if (stereo) {
+            lbrr |= ((header >> (6 - 2 * silkFrames)) & 0x1) != 0;
+        }
+        return lbrr;
+    }
+
+    /**
+     * @param packet the opus encoded packet
+     * @param code   the frame count code of the packet
+     * @return the offset of the first frame or <code>-1</code> if the packet is malformed
+     */
+    private static int getFirstFrameOffset(byte[] packet, int code) {
+        switch (code) {
+            case 0:
+            case 1:
+                return 1;
+            case 2:
+                return (packet[1] & 0xFF) < 252 ? 2 : 3;
+            default:
+                int flags = packet[1] & 0xFF;
+                boolean vbr = (flags & 0x80) != 0;
+                boolean padding = (flags & 0x40) != 0;
+                int frameCount = flags & 0x3F;
+                int offset = 2;
+                if (padding) {
+                    int paddingByte;
+                    do {
+                        if (offset >= packet.length) {
+                            return -1;
+                        }
+                        paddingByte = packet[offset++] & 0xFF;
+                    } while (paddingByte == 255);
+                }
+                if (vbr) {
+                    for (int i = 0; i < frameCount - 1; i++) {
+                        if (offset >= packet.length) {
+                            return -1;
+                        }
+                        offset += (packet[offset] & 0xFF) < 252 ? 1 : 2;
+                    }
+                }
+                return offset;
+        }
+    }
+
     public static boolean useNatives() {
         if (Platform.isMac()) {
             if (!VersionCheck.isMacOSNativeCompatible()) {
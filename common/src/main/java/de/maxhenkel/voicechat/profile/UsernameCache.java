@@ -2,71 +2,305 @@ package de.maxhenkel.voicechat.profile;
 
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
-import com.google.gson.reflect.TypeToken;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonWriter;
 import de.maxhenkel.voicechat.Voicechat;
+import de.maxhenkel.voicechat.voice.common.NamedThreadPoolFactory;
 
 import javax.annotation.Nullable;
-import java.io.*;
-import java.lang.reflect.Type;
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.UUID;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
+/**
+ * Remembers the names of players, so they can be displayed while the players are offline.
+ * <p>
+ * Changed names are collected and appended to a journal in the background, instead of rewriting the whole cache file.
+ * The journal is only compacted into the cache file once it has more entries than the cache, but at least {@link #MIN_COMPACTION_ENTRIES}.
+ * There is no periodic compaction - This size threshold is checked when the cache is loaded and after every write to the journal.
+ * Only the {@link #MAX_ENTRIES} most recently used names are kept.
+ */
 public class UsernameCache {
 
+    /**
+     * The maximum amount of names - The least recently used names are removed first
+     */
+    private static final int MAX_ENTRIES = 10_000;
+    /**
+     * The time in milliseconds changes are collected, before they are written to the journal
+     */
+    private static final long FLUSH_DELAY = 1000L;
+    /**
+     * The minimum amount of journal entries before the journal gets compacted into the cache file
+     */
+    private static final int MIN_COMPACTION_ENTRIES = 1000;
+    /**
+     * The time in milliseconds closing the cache waits for the changes to be written
+     */
+    private static final long CLOSE_TIMEOUT = 5000L;
+
     private final File file;
+    private final File journalFile;
     private final Gson gson;
-    private Map<UUID, String> names;
+    /**
+     * All names in the order they were used - Guarded by itself
+     */
+    private final Map<UUID, String> names;
+    /**
+     * The names that weren't written to the journal yet - Guarded by {@link #names}
+     */
+    private final Map<UUID, String> pending;
+    private final ScheduledThreadPoolExecutor executor;
+    private final AtomicBoolean flushScheduled;
+    /**
+     * The amount of entries in the journal - Only accessed by the executor after loading
+     */
+    private int journalEntries;
 
     public UsernameCache(File file) {
         this.file = file;
+        this.journalFile = new File(file.getParentFile(), file.getName().replaceFirst("\\.json$", "") + ".journal");
         this.gson = new GsonBuilder().create();
-        this.names = new ConcurrentHashMap<>();
+        this.names = new LinkedHashMap<UUID, String>(16, 0.75F, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<UUID, String> eldest) {
+                return size() > MAX_ENTRIES;
+            }
+        };
+        this.pending = new LinkedHashMap<>();
+        this.executor = new ScheduledThreadPoolExecutor(1, NamedThreadPoolFactory.create("VoiceChatUsernameCacheThread"));
+        this.flushScheduled = new AtomicBoolean();
         load();
     }
 
+    /**
+     * Loads the cache file and applies the journal.
+     */
     public void load() {
-        if (!file.exists()) {
-            return;
+        synchronized (names) {
+            names.clear();
+            pending.clear();
+            if (file.exists()) {
+                try (JsonReader reader = new JsonReader(Files.newBufferedReader(file.toPath(), StandardCharsets.UTF_8))) {
+                    reader.beginObject();
+                    while (reader.hasNext()) {
+                        UUID uuid = UUID.fromString(reader.nextName());
+                        names.put(uuid, reader.nextString());
+                    }
+                    reader.endObject();
+                } catch (Exception e) {
+                    Voicechat.LOGGER.error("Failed to load username cache", e);
+                }
+            }
+            int entries = loadJournal();
+            executor.execute(() -> {
+                journalEntries = entries;
+                if (shouldCompact()) {
+                    compact();
+                }
+            });
+        }
+    }
+
+    private int loadJournal() {
+        if (!journalFile.exists()) {
+            return 0;
         }
-        try (Reader reader = new FileReader(file)) {
-            Type usernamesType = new TypeToken<ConcurrentHashMap<UUID, String>>() {
-            }.getType();
-            names = gson.fromJson(reader, usernamesType);
-        } catch (Exception e) {
-            Voicechat.LOGGER.error("Failed to load username cache", e);
+        byte[] data;
+        try {
+            data = Files.readAllBytes(journalFile.toPath());
+        } catch (IOException e) {
+            Voicechat.LOGGER.error("Failed to load username cache journal", e);
+            return 0;
         }
-        if (names == null) {
-            names = new ConcurrentHashMap<>();
+        int end = data.length;
+        while (end > 0 && data[end - 1] != '\n') {
+            end--;
         }
+        if (end < data.length) {
+            // The last line is incomplete if the game crashed while writing it - It is removed, so the next entry starts on a new line
+            Voicechat.LOGGER.warn("Removing incomplete username cache journal entry");
+            try (FileChannel channel = FileChannel.open(journalFile.toPath(), StandardOpenOption.WRITE)) {
+                channel.truncate(end);
+            } catch (IOException e) {
+                Voicechat.LOGGER.error("Failed to repair username cache journal", e);
+            }
+        }
+        int entries = 0;
+        for (String line : new String(data, 0, end, StandardCharsets.UTF_8).split("\n")) {
+            if (line.isEmpty()) {
+                continue;
+            }
+            entries++;
+            int separator = line.indexOf(' ');
+            try {
+                UUID uuid = UUID.fromString(line.substring(0, separator));
+                String name = gson.fromJson(line.substring(separator + 1), String.class);
+                if (name != null) {
+                    names.put(uuid, name);
+                }
+            } catch (Exception e) {
+                Voicechat.LOGGER.warn("Skipping invalid username cache journal entry: {}", line);
+            }
+        }
+        return entries;
     }
 
+    /**
+     * Writes all changes to the journal in the background.
+     * Calls within {@link #FLUSH_DELAY} are written together.
+     */
     public void save() {
+        if (!flushScheduled.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            executor.schedule(this::flush, FLUSH_DELAY, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            Voicechat.LOGGER.warn("Username cache is already closed");
+        }
+    }
+
+    /**
+     * Writes all pending changes to the journal and stops the background thread.
+     * Changes made after this are not saved anymore.
+     */
+    public void close() {
+        if (executor.isShutdown()) {
+            return;
+        }
+        // Delayed flushes are dropped on shutdown, so the pending changes are flushed immediately
+        executor.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+        executor.execute(this::flush);
+        executor.shutdown();
+        try {
+            if (!executor.awaitTermination(CLOSE_TIMEOUT, TimeUnit.MILLISECONDS)) {
+                Voicechat.LOGGER.warn("Timed out saving username cache");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void flush() {
+        flushScheduled.set(false);
+        Map<UUID, String> changes;
+        synchronized (names) {
+            if (pending.isEmpty()) {
+                return;
+            }
+            changes = new LinkedHashMap<>(pending);
+            pending.clear();
+        }
+
         file.getParentFile().mkdirs();
-        try (Writer writer = new FileWriter(file)) {
-            gson.toJson(names, writer);
-        } catch (Exception e) {
+        try (Writer writer = Files.newBufferedWriter(journalFile.toPath(), StandardCharsets.UTF_8, StandardOpenOption.CREATE, StandardOpenOption.APPEND)) {
+            for (Map.Entry<UUID, String> entry : changes.entrySet()) {
+                writer.write(entry.getKey().toString());
+                writer.write(' ');
+                writer.write(gson.toJson(entry.getValue()));
+                writer.write('\n');
+            }
+        } catch (IOException e) {
             Voicechat.LOGGER.error("Failed to save username cache", e);
+            return;
+        }
+        journalEntries += changes.size();
+
+        if (shouldCompact()) {
+            compact();
+        }
+    }
+
+    private boolean shouldCompact() {
+        int size;
+        synchronized (names) {
+            size = names.size();
+        }
+        return journalEntries >= Math.max(MIN_COMPACTION_ENTRIES, size);
+    }
+
+    /**
+     * Rewrites the cache file with all names and clears the journal.
+     */
+    private void compact() {
+        Map<UUID, String> snapshot;
+        synchronized (names) {
+            snapshot = new LinkedHashMap<>(names);
+        }
+
+        file.getParentFile().mkdirs();
+        File tempFile = new File(file.getParentFile(), file.getName() + ".tmp");
+        try (JsonWriter writer = new JsonWriter(Files.newBufferedWriter(tempFile.toPath(), StandardCharsets.UTF_8))) {
+            writer.beginObject();
+            for (Map.Entry<UUID, String> entry : snapshot.entrySet()) {
+                writer.name(entry.getKey().toString()).value(entry.getValue());
+            }
+            writer.endObject();
+        } catch (IOException e) {
+            Voicechat.LOGGER.error("Failed to save username cache", e);
+            return;
+        }
+
+        try {
+            try {
+                Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+            Files.deleteIfExists(journalFile.toPath());
+            journalEntries = 0;
+        } catch (IOException e) {
+            Voicechat.LOGGER.error("Failed to compact username cache", e);
         }
     }
 
     @Nullable
     public String getUsername(UUID uuid) {
-        return names.get(uuid);
+        synchronized (names) {
+            return names.get(uuid);
+        }
     }
 
     public boolean has(UUID uuid) {
-        return names.containsKey(uuid);
+        synchronized (names) {
+            return names.containsKey(uuid);
+        }
     }
 
-    public void updateUsername(UUID uuid, String name) {
-        names.put(uuid, name);
+    /**
+     * Updates the name without saving it.
+     *
+     * @param uuid the UUID of the player
+     * @param name the name of the player
+     * @return if the name changed
+     */
+    public boolean updateUsername(UUID uuid, String name) {
+        synchronized (names) {
+            @Nullable String oldName = names.put(uuid, name);
+            if (name.equals(oldName)) {
+                return false;
+            }
+            pending.put(uuid, name);
+            return true;
+        }
     }
 
     public void updateUsernameAndSave(UUID uuid, String name) {
-        @Nullable String oldName = names.get(uuid);
-        if (!name.equals(oldName)) {
-            names.put(uuid, name);
+        if (updateUsername(uuid, name)) {
             save();
         }
     }
@@ -2,6 +2,7 @@ package de.maxhenkel.voicechat.voice.client;
 
 import de.maxhenkel.voicechat.Voicechat;
 import de.maxhenkel.voicechat.VoicechatClient;
+import de.maxhenkel.voicechat.api.events.ClientReceiveSoundEvent;
 import de.maxhenkel.voicechat.api.opus.OpusDecoder;
 import de.maxhenkel.voicechat.debug.VoicechatUncaughtExceptionHandler;
 import de.maxhenkel.voicechat.integration.freecam.FreecamUtil;
@@ -14,7 +15,6 @@ import net.minecraft.Util;
 import net.minecraft.client.Minecraft;
 import net.minecraft.world.entity.Entity;
 import net.minecraft.world.entity.LivingEntity;
-import net.minecraft.world.phys.AABB;
 import net.minecraft.world.phys.Vec3;
 
 import javax.annotation.Nullable;
@@ -22,22 +22,42 @@ import java.io.IOException;
 import java.util.UUID;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.LinkedBlockingQueue;
-import java.util.function.Supplier;
 
 public class AudioChannel extends Thread {
 
+    /**
+     * The smoothing factor of the packet loss estimation - Roughly covers the last 100 packets
+     */
+    private static final float PACKET_LOSS_SMOOTHING = 0.01F;
+
+    /**
+     * The duration of a single frame in milliseconds
+     */
+    private static final long FRAME_DURATION = SoundManager.FRAME_SIZE * 1000L / SoundManager.SAMPLE_RATE;
+
     private final Minecraft minecraft;
     private final ClientVoicechat client;
     private final InitializationData initializationData;
     private final UUID uuid;
     private final BlockingQueue<SoundPacket<?>> queue;
     private final AudioPacketBuffer packetBuffer;
-    private long lastPacketTime;
+    private volatile long lastPacketTime;
     private Speaker speaker;
     private boolean stopped;
     private final OpusDecoder decoder;
     private long lastSequenceNumber;
     private long lostPackets;
+    private long fecPackets;
+    private long concealedPackets;
+    private volatile float packetLoss;
+    private final AudioFramePool framePool;
+    private final ComfortNoiseGenerator comfortNoise;
+    @Nullable
+    private SoundPacket<?> lastPacket;
+    private long lastFrameTime;
+    private int comfortNoiseFrames;
+    private long comfortNoisePackets;
+    private TalkCache.Slot talkSlot;
 
     public AudioChannel(ClientVoicechat client, InitializationData initializationData, UUID uuid) {
         this.client = client;
@@ -49,6 +69,9 @@ public class AudioChannel extends Thread {
         this.stopped = false;
         this.decoder = OpusManager.createDecoder();
         this.lastSequenceNumber = -1L;
+        this.framePool = new AudioFramePool(SoundManager.FRAME_SIZE, 16);
+        this.comfortNoise = new ComfortNoiseGenerator();
+        this.talkSlot = client.getTalkCache().getSlot(uuid);
         this.minecraft = Minecraft.getInstance();
         setDaemon(true);
         setName("AudioChannelThread-" + uuid.toString());
@@ -90,7 +113,7 @@ public class AudioChannel extends Thread {
                 throw new IllegalStateException("Started audio channel without sound manager");
             }
 
-            speaker = SpeakerManager.createSpeaker(client.getSoundManager(), uuid);
+            speaker = SpeakerManager.createSpeaker(client.getSoundManager(), uuid, framePool);
 
             while (!stopped) {
                 if (ClientManager.getPlayerStateManager().isDisabled()) {
@@ -100,6 +123,7 @@ public class AudioChannel extends Thread {
 
                 SoundPacket<?> packet = packetBuffer.poll(queue);
                 if (packet == null) {
+                    writeComfortNoiseIfNeeded();
                     continue;
                 }
                 lastPacketTime = System.currentTimeMillis();
@@ -124,36 +148,54 @@ public class AudioChannel extends Thread {
                     packetBuffer.clear();
                     flushRecording();
                     decoder.resetState();
+                    comfortNoise.reset();
+                    lastPacket = null;
                     continue;
                 }
 
-                if (!packet.isFromClientAudioChannel() && lastSequenceNumber >= 0) {
-                    int packetsToCompensate = (int) (packet.getSequenceNumber() - (lastSequenceNumber + 1));
-
-                    if (packetsToCompensate > 0) {
-                        Voicechat.LOGGER.debug("Compensating {}/{} packets ", packetsToCompensate >= 4 ? 0 : packetsToCompensate, packetsToCompensate);
-                    }
-
-                    if (packetsToCompensate <= 4) {
-                        lostPackets += packetsToCompensate;
-                        for (int i = 0; i < packetsToCompensate; i++) {
-                            writeToSpeaker(packet, decoder.decode(null));
-                        }
-                    } else {
-                        Voicechat.LOGGER.debug("Skipping compensation for {} packets", packetsToCompensate);
+                if (!packet.isFromClientAudioChannel() && lastSequenceNumber >= 0 && packet.getSuppressedFrames() > 0) {
+                    // The sender announced that it didn't transmit these frames because they were silent
+                    int missing = (int) (packet.getSequenceNumber() - (lastSequenceNumber + 1));
+                    int suppressed = Math.max(Math.min(packet.getSuppressedFrames(), missing), 0);
+                    int lost = missing - suppressed;
+                    // Lost frames were sent before the announced suppressed frames, so they are concealed first
+                    compensatePackets(packet, lost);
+                    // Comfort noise was already played while waiting for this packet - Only the frames that are still missing are added
+                    for (int i = comfortNoiseFrames; i < suppressed; i++) {
+                        writeComfortNoise(lastPacket);
                     }
+                    updatePacketLoss(lost);
+                } else if (!packet.isFromClientAudioChannel() && lastSequenceNumber >= 0) {
+                    int packetsToCompensate = (int) (packet.getSequenceNumber() - (lastSequenceNumber + 1));
+                    compensatePackets(packet, packetsToCompensate);
+                    updatePacketLoss(packetsToCompensate);
+                } else if (!packet.isFromClientAudioChannel()) {
+                    updatePacketLoss(0);
                 }
 
                 lastSequenceNumber = packet.getSequenceNumber();
 
                 short[] decodedAudio;
                 if (packet.isFromClientAudioChannel()) {
-                    decodedAudio = Utils.bytesToShorts(packet.getData());
+                    byte[] data = packet.getData();
+                    if (data.length == framePool.getFrameSize() * 2) {
+                        decodedAudio = Utils.bytesToShorts(data, framePool.acquire());
+                    } else {
+                        decodedAudio = Utils.bytesToShorts(data);
+                    }
                 } else {
                     decodedAudio = decoder.decode(packet.getData());
+                    comfortNoise.update(decodedAudio);
+                    packetBuffer.setDiscontinuous(packet.isDiscontinuous());
+                    lastPacket = packet;
+                    lastFrameTime = lastPacketTime;
+                    comfortNoiseFrames = 0;
                 }
 
-                writeToSpeaker(packet, decodedAudio);
+                if (writeToSpeaker(packet, decodedAudio) && !packet.isFromClientAudioChannel()) {
+                    // Like the decoded recording, the Opus recording only contains audio that was played
+                    recordPacket(packet.getData());
+                }
             }
         } catch (InterruptedException ignored) {
         } catch (Throwable e) {
@@ -164,10 +206,83 @@ public class AudioChannel extends Thread {
                 speaker.close();
             }
             decoder.close();
+            client.getTalkCache().release(uuid);
+            client.getEntityCache().release(uuid);
             Voicechat.LOGGER.info("Closed audio channel for {}", uuid);
         }
     }
 
+    /**
+     * Fills lost frames with packet loss concealment.
+     * The frame directly before the received packet is recovered with the forward error correction data of the packet instead, if it contains any.
+     *
+     * @param packet              the packet that was received after the lost frames
+     * @param packetsToCompensate the amount of lost frames
+     */
+    private void compensatePackets(SoundPacket<?> packet, int packetsToCompensate) {
+        if (packetsToCompensate <= 0) {
+            return;
+        }
+        Voicechat.LOGGER.debug("Compensating {}/{} packets ", packetsToCompensate >= 4 ? 0 : packetsToCompensate, packetsToCompensate);
+        if (packetsToCompensate > 4) {
+            Voicechat.LOGGER.debug("Skipping compensation for {} packets", packetsToCompensate);
+            return;
+        }
+        lostPackets += packetsToCompensate;
+        for (int i = 0; i < packetsToCompensate; i++) {
+            if (i == packetsToCompensate - 1 && OpusManager.hasFec(packet.getData())) {
+                // The packet directly following the lost one contains its forward error correction data
+                writeToSpeaker(packet, OpusManager.decodeFec(decoder, packet.getData()));
+                fecPackets++;
+            } else {
+                writeToSpeaker(packet, decoder.decode(null));
+                concealedPackets++;
+            }
+        }
+    }
+
+    /**
+     * Plays comfort noise in the frame interval, if the sender stopped transmitting because of silence.
+     */
+    private void writeComfortNoiseIfNeeded() {
+        if (lastPacket == null || !lastPacket.isDiscontinuous()) {
+            return;
+        }
+        // The sender would have sent an update by now, so it most likely stopped talking without us receiving the stop packet
+        if (comfortNoiseFrames >= DiscontinuousTransmission.UPDATE_INTERVAL + DiscontinuousTransmission.HANGOVER_FRAMES) {
+            return;
+        }
+        long time = System.currentTimeMillis();
+        if (time - lastFrameTime < FRAME_DURATION) {
+            return;
+        }
+        if (minecraft.level == null || minecraft.player == null) {
+            return;
+        }
+        lastFrameTime += FRAME_DURATION;
+        writeComfortNoise(lastPacket);
+    }
+
+    private void writeComfortNoise(SoundPacket<?> packet) {
+        comfortNoiseFrames++;
+        comfortNoisePackets++;
+        writeToSpeaker(packet, comfortNoise.generate(framePool.acquire()));
+    }
+
+    /**
+     * Updates the packet loss estimation
+     *
+     * @param lost the amount of packets that were lost before the received packet
+     */
+    private void updatePacketLoss(int lost) {
+        float loss = packetLoss;
+        for (int i = 0; i < Math.min(lost, 100); i++) {
+            loss += (1F - loss) * PACKET_LOSS_SMOOTHING;
+        }
+        loss -= loss * PACKET_LOSS_SMOOTHING;
+        packetLoss = loss;
+    }
+
     private void flushRecording() {
         AudioRecorder recorder = client.getRecorder();
         if (recorder == null) {
@@ -176,7 +291,10 @@ public class AudioChannel extends Thread {
         recorder.flushChunkThreaded(uuid);
     }
 
-    private void writeToSpeaker(SoundPacket<?> packet, short[] monoData) {
+    /**
+     * @return if the audio was played
+     */
+    private boolean writeToSpeaker(SoundPacket<?> packet, short[] monoData) {
         float channelVolume;
 
         if (VoicechatClient.USERNAME_CACHE.has(uuid)) {
@@ -191,32 +309,21 @@ public class AudioChannel extends Thread {
 
         if (packet instanceof GroupSoundPacket) {
             short[] processedMonoData = PluginManager.instance().onReceiveStaticClientSound(uuid, monoData);
-            speaker.play(processedMonoData, volume, packet.getCategory());
-            client.getTalkCache().updateTalking(uuid, false);
-            appendRecording(() -> PositionalAudioUtils.convertToStereo(processedMonoData));
+            speaker.play(processedMonoData, volume, packet.getCategory(), canRelease(monoData, processedMonoData, ClientReceiveSoundEvent.StaticSound.class));
+            updateTalking(false);
+            appendRecording(processedMonoData, 1F);
+            return true;
         } else if (packet instanceof PlayerSoundPacket soundPacket) {
-            @Nullable Entity entity = minecraft.level.getPlayerByUUID(uuid);
+            @Nullable Entity entity = client.getEntityCache().getEntity(uuid, soundPacket.getDistance());
             if (entity == null) {
-                Vec3 position = minecraft.gameRenderer.getMainCamera().getPosition();
-                AABB box = new AABB(
-                        position.x - soundPacket.getDistance() - 1F,
-                        position.y - soundPacket.getDistance() - 1F,
-                        position.z - soundPacket.getDistance() - 1F,
-                        position.x + soundPacket.getDistance() + 1F,
-                        position.y + soundPacket.getDistance() + 1F,
-                        position.z + soundPacket.getDistance() + 1F
-                );
-                entity = minecraft.level.getEntities((Entity) null, box, e -> e.getUUID().equals(uuid)).stream().findAny().orElse(null);
-                if (entity == null) {
-                    return;
-                }
+                return false;
             }
             if (entity == minecraft.cameraEntity) {
                 short[] processedMonoData = PluginManager.instance().onReceiveStaticClientSound(uuid, monoData);
-                speaker.play(processedMonoData, volume, soundPacket.getCategory());
-                client.getTalkCache().updateTalking(uuid, soundPacket.isWhispering());
-                appendRecording(() -> PositionalAudioUtils.convertToStereo(processedMonoData));
-                return;
+                speaker.play(processedMonoData, volume, soundPacket.getCategory(), canRelease(monoData, processedMonoData, ClientReceiveSoundEvent.StaticSound.class));
+                updateTalking(soundPacket.isWhispering());
+                appendRecording(processedMonoData, 1F);
+                return true;
             }
 
             float deathVolume = 1F;
@@ -229,7 +336,7 @@ public class AudioChannel extends Thread {
             short[] processedMonoData = PluginManager.instance().onReceiveEntityClientSound(uuid, monoData, soundPacket.isWhispering(), soundPacket.getDistance());
 
             if (FreecamUtil.getDistanceTo(pos) > soundPacket.getDistance() + 1D) {
-                return;
+                return false;
             }
 
             float distanceVolume = FreecamUtil.getDistanceVolume(soundPacket.getDistance(), pos);
@@ -237,40 +344,93 @@ public class AudioChannel extends Thread {
             if (FreecamUtil.isFreecamEnabled()) {
                 // Static, but with volume adjusted for distance
                 volume *= distanceVolume;
-                speaker.play(processedMonoData, volume, soundPacket.getCategory());
+                speaker.play(processedMonoData, volume, soundPacket.getCategory(), canRelease(monoData, processedMonoData, ClientReceiveSoundEvent.EntitySound.class));
                 if (distanceVolume > 0F) {
-                    client.getTalkCache().updateTalking(uuid, soundPacket.isWhispering());
+                    updateTalking(soundPacket.isWhispering());
                 }
-                float recordingVolume = volume;
-                appendRecording(() -> PositionalAudioUtils.convertToStereo(processedMonoData, recordingVolume));
-                return;
+                appendRecording(processedMonoData, volume);
+                return true;
             }
 
-            speaker.play(processedMonoData, volume, pos, soundPacket.getCategory(), soundPacket.getDistance());
+            speaker.play(processedMonoData, volume, pos, soundPacket.getCategory(), soundPacket.getDistance(), canRelease(monoData, processedMonoData, ClientReceiveSoundEvent.EntitySound.class));
             if (distanceVolume > 0F) {
-                client.getTalkCache().updateTalking(uuid, soundPacket.isWhispering());
+                updateTalking(soundPacket.isWhispering());
             }
-            float recordingVolume = deathVolume;
-            appendRecording(() -> PositionalAudioUtils.convertToStereoForRecording(soundPacket.getDistance(), pos, processedMonoData, recordingVolume));
+            appendRecording(processedMonoData, deathVolume, pos, soundPacket.getDistance());
+            return true;
         } else if (packet instanceof LocationSoundPacket p) {
             short[] processedMonoData = PluginManager.instance().onReceiveLocationalClientSound(uuid, monoData, p.getLocation(), p.getDistance());
             if (FreecamUtil.getDistanceTo(p.getLocation()) > p.getDistance() + 1D) {
-                return;
+                return false;
             }
-            speaker.play(processedMonoData, volume, p.getLocation(), p.getCategory(), p.getDistance());
-            client.getTalkCache().updateTalking(uuid, false);
-            appendRecording(() -> PositionalAudioUtils.convertToStereoForRecording(p.getDistance(), p.getLocation(), processedMonoData));
+            speaker.play(processedMonoData, volume, p.getLocation(), p.getCategory(), p.getDistance(), canRelease(monoData, processedMonoData, ClientReceiveSoundEvent.LocationalSound.class));
+            updateTalking(false);
+            appendRecording(processedMonoData, 1F, p.getLocation(), p.getDistance());
+            return true;
         }
+        return false;
     }
 
-    private void appendRecording(Supplier<short[]> stereo) {
-        if (client.getRecorder() != null) {
-            try {
-                client.getRecorder().appendChunk(uuid, System.currentTimeMillis(), stereo.get());
-            } catch (IOException e) {
-                Voicechat.LOGGER.error("Failed to record audio", e);
-                client.setRecording(false);
-            }
+    /**
+     * Checks if the audio can be returned to the frame pool after playing it.
+     * Plugins might keep the audio they received or replace it with their own, so it is only reused if no plugin had access to it.
+     *
+     * @param monoData          the audio of this channel
+     * @param processedMonoData the audio returned by the plugins
+     * @param eventClass        the event the audio was passed to
+     * @return if the audio is owned by this channel
+     */
+    private boolean canRelease(short[] monoData, short[] processedMonoData, Class<? extends ClientReceiveSoundEvent> eventClass) {
+        return processedMonoData == monoData && !PluginManager.instance().hasListeners(eventClass);
+    }
+
+    private void updateTalking(boolean whispering) {
+        if (talkSlot.isReleased()) {
+            talkSlot = client.getTalkCache().getSlot(uuid);
+        }
+        talkSlot.update(whispering);
+    }
+
+    private void recordPacket(byte[] opusPacket) {
+        AudioRecorder recorder = client.getRecorder();
+        if (recorder == null) {
+            return;
+        }
+        recorder.appendPacket(uuid, lastPacketTime, opusPacket);
+    }
+
+    /**
+     * Records non-positional audio.
+     * The recorder converts the audio to stereo on its own threads and copies it, so the audio can be reused afterwards.
+     */
+    private void appendRecording(short[] monoData, float volume) {
+        AudioRecorder recorder = client.getRecorder();
+        if (recorder == null || !recorder.recordsDecodedAudio()) {
+            return;
+        }
+        try {
+            recorder.appendChunk(uuid, System.currentTimeMillis(), monoData, volume);
+        } catch (IOException e) {
+            Voicechat.LOGGER.error("Failed to record audio", e);
+            client.setRecording(false);
+        }
+    }
+
+    /**
+     * Records positional audio.
+     *
+     * @see #appendRecording(short[], float)
+     */
+    private void appendRecording(short[] monoData, float volume, Vec3 position, float maxDistance) {
+        AudioRecorder recorder = client.getRecorder();
+        if (recorder == null || !recorder.recordsDecodedAudio()) {
+            return;
+        }
+        try {
+            recorder.appendChunk(uuid, System.currentTimeMillis(), monoData, volume, position, maxDistance);
+        } catch (IOException e) {
+            Voicechat.LOGGER.error("Failed to record audio", e);
+            client.setRecording(false);
         }
     }
 
@@ -293,4 +453,36 @@ public class AudioChannel extends Thread {
     public long getLostPackets() {
         return lostPackets;
     }
+
+    /**
+     * @return the amount of lost packets that were recovered with forward error correction data of the following packet
+     */
+    public long getFecPackets() {
+        return fecPackets;
+    }
+
+    /**
+     * @return the amount of lost packets that were concealed by the decoder
+     */
+    public long getConcealedPackets() {
+        return concealedPackets;
+    }
+
+    /**
+     * @return the estimated packet loss of this channel (0-1)
+     */
+    public float getPacketLoss() {
+        return packetLoss;
+    }
+
+    /**
+     * @return the amount of frames that were replaced with comfort noise, because the sender didn't transmit them
+     */
+    public long getComfortNoisePackets() {
+        return comfortNoisePackets;
+    }
+
+    public long getLastPacketTime() {
+        return lastPacketTime;
+    }
 }
\ No newline at end of file
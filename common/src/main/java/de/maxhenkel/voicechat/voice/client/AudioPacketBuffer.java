@@ -16,6 +16,7 @@ public class AudioPacketBuffer {
     private List<SoundPacket<?>> packetBuffer;
     private long lastSequenceNumber = -1;
     private boolean isFlushingBuffer;
+    private boolean discontinuous;
 
     public AudioPacketBuffer(int packetThreshold) {
         this.packetThreshold = packetThreshold;
@@ -38,7 +39,7 @@ public class AudioPacketBuffer {
         if (packet == null) {
             return null;
         }
-        if (packet.getSequenceNumber() == lastSequenceNumber + 1 || lastSequenceNumber < 0) {
+        if (packet.getSequenceNumber() == lastSequenceNumber + 1 || lastSequenceNumber < 0 || isResumingTransmission(packet)) {
             lastSequenceNumber = packet.getSequenceNumber();
             return packet;
         } else {
@@ -47,6 +48,20 @@ public class AudioPacketBuffer {
         }
     }
 
+    private boolean isResumingTransmission(SoundPacket<?> packet) {
+        return discontinuous && packetBuffer.isEmpty() && packet.getSequenceNumber() > lastSequenceNumber;
+    }
+
+    /**
+     * If the sender is silent, a gap in the sequence numbers is most likely caused by frames that were intentionally not sent.
+     * In this case, packets after the gap are returned immediately instead of waiting for the missing ones.
+     *
+     * @param discontinuous if the sender is most likely not transmitting every frame
+     */
+    public void setDiscontinuous(boolean discontinuous) {
+        this.discontinuous = discontinuous;
+    }
+
     private void addSorted(SoundPacket<?> packet) {
         if (packet.getData().length <= 0) {
             isFlushingBuffer = true;
@@ -87,6 +102,7 @@ public class AudioPacketBuffer {
         }
         lastSequenceNumber = -1L;
         isFlushingBuffer = false;
+        discontinuous = false;
     }
 
     public int getSize() {
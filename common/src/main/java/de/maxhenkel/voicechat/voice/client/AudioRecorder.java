@@ -1,12 +1,13 @@
 package de.maxhenkel.voicechat.voice.client;
 
 import com.mojang.authlib.GameProfile;
-import de.maxhenkel.lame4j.ShortArrayBuffer;
 import de.maxhenkel.voicechat.Voicechat;
 import de.maxhenkel.voicechat.VoicechatClient;
 import de.maxhenkel.voicechat.api.mp3.Mp3Encoder;
+import de.maxhenkel.voicechat.debug.CooldownTimer;
 import de.maxhenkel.voicechat.intercompatibility.CommonCompatibilityManager;
 import de.maxhenkel.voicechat.plugins.impl.mp3.Mp3EncoderImpl;
+import de.maxhenkel.voicechat.voice.common.AudioFramePool;
 import de.maxhenkel.voicechat.voice.common.NamedThreadPoolFactory;
 import net.minecraft.ChatFormatting;
 import net.minecraft.client.Minecraft;
@@ -15,6 +16,7 @@ import net.minecraft.client.player.LocalPlayer;
 import net.minecraft.network.chat.ClickEvent;
 import net.minecraft.network.chat.Component;
 import net.minecraft.network.chat.HoverEvent;
+import net.minecraft.world.phys.Vec3;
 import org.apache.commons.io.FileUtils;
 
 import javax.annotation.Nullable;
@@ -27,9 +29,10 @@ import java.nio.file.StandardOpenOption;
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
 import java.util.*;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 public class AudioRecorder {
 
@@ -37,32 +40,60 @@ public class AudioRecorder {
 
     private static final int MP3_BITRATE = 320;
 
+    /**
+     * The maximum amount of frames per player that can wait for the encoder (10 seconds)
+     */
+    private static final int MAX_PENDING_FRAMES = 500;
+    /**
+     * The maximum amount of frames a worker encodes for a player before it continues with the next player
+     */
+    private static final int FRAMES_PER_TASK = 50;
+    private static final int STEREO_FRAME_SIZE = SoundManager.FRAME_SIZE * 2;
+    private static final short[] SILENCE = new short[STEREO_FRAME_SIZE];
+
     private final long timestamp;
     private final Path location;
+    private final RecordingFormat format;
 
     private final GameProfile ownProfile;
-    private final Map<UUID, AudioChunk> chunks;
-    private final Map<UUID, EncoderData> encoders;
+    private final Map<UUID, Track> tracks;
+    private final AudioFramePool framePool;
+    private final AtomicLong bufferedBytes;
+    private final AtomicLong droppedFrames;
+    private volatile long peakBufferedBytes;
+    private volatile boolean closed;
 
     private final AudioFormat stereoFormat;
 
     private final ExecutorService threadPool;
+    @Nullable
+    private final OpusMultitrackRecording multitrackRecording;
 
-    public AudioRecorder(Path location, long timestamp) {
+    public AudioRecorder(Path location, long timestamp, RecordingFormat format) throws IOException {
         this.timestamp = timestamp;
         this.location = location;
+        this.format = format;
         location.toFile().mkdirs();
-        chunks = new ConcurrentHashMap<>();
-        encoders = new ConcurrentHashMap<>();
+        tracks = new ConcurrentHashMap<>();
+        framePool = new AudioFramePool(SoundManager.FRAME_SIZE, MAX_PENDING_FRAMES);
+        bufferedBytes = new AtomicLong();
+        droppedFrames = new AtomicLong();
         User user = Minecraft.getInstance().getUser();
         ownProfile = new GameProfile(user.getProfileId(), user.getName());
 
         stereoFormat = new AudioFormat(AudioFormat.Encoding.PCM_SIGNED, SoundManager.SAMPLE_RATE, 16, 2, 4, SoundManager.SAMPLE_RATE, false);
 
-        threadPool = Executors.newSingleThreadExecutor(NamedThreadPoolFactory.create("AudioRecorderThread"));
+        int workers = Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors() / 2));
+        threadPool = Executors.newFixedThreadPool(workers, NamedThreadPoolFactory.create("AudioRecorderThread"));
+
+        if (format == RecordingFormat.OGG_OPUS) {
+            multitrackRecording = new OpusMultitrackRecording(location, timestamp, this::lookupName);
+        } else {
+            multitrackRecording = null;
+        }
     }
 
-    public static AudioRecorder create() {
+    public static AudioRecorder create() throws IOException {
         long timestamp = System.currentTimeMillis();
         Calendar cal = Calendar.getInstance();
         cal.setTimeInMillis(timestamp);
@@ -73,7 +104,7 @@ public class AudioRecorder {
         } else {
             location = Paths.get(recordingDestination).resolve(FORMAT.format(cal.getTime()));
         }
-        return new AudioRecorder(location, timestamp);
+        return new AudioRecorder(location, timestamp, VoicechatClient.CLIENT_CONFIG.recordingFormat.get());
     }
 
     public Path getLocation() {
@@ -84,8 +115,22 @@ public class AudioRecorder {
         return timestamp;
     }
 
+    public RecordingFormat getFormat() {
+        return format;
+    }
+
+    /**
+     * @return if the recorder needs the decoded audio passed to {@link #appendChunk(UUID, long, short[], float)}
+     */
+    public boolean recordsDecodedAudio() {
+        return multitrackRecording == null;
+    }
+
     public int getRecordedPlayerCount() {
-        return encoders.size();
+        if (multitrackRecording != null) {
+            return multitrackRecording.getTrackCount();
+        }
+        return tracks.size();
     }
 
     public String getDuration() {
@@ -104,6 +149,9 @@ public class AudioRecorder {
     }
 
     public String getStorage(long currentTime) {
+        if (multitrackRecording != null) {
+            return FileUtils.byteCountToDisplaySize(multitrackRecording.getBytesWritten());
+        }
         long durationSeconds = (currentTime - timestamp) / 1000L;
         long size = durationSeconds * MP3_BITRATE * 1000L / 8L * getRecordedPlayerCount();
         return FileUtils.byteCountToDisplaySize(size);
@@ -120,144 +168,215 @@ public class AudioRecorder {
         return username;
     }
 
-    public void appendChunk(UUID uuid, long chunkTimestamp, short[] data) throws IOException {
+    /**
+     * Queues non-positional audio of a player for encoding.
+     * The audio is copied, so the caller can reuse the array.
+     *
+     * @param uuid           the UUID of the player
+     * @param chunkTimestamp the time the audio was played
+     * @param data           the mono audio or an empty array to end the current segment
+     * @param volume         the volume of the audio
+     * @throws IOException if the encoder could not be created
+     */
+    public void appendChunk(UUID uuid, long chunkTimestamp, short[] data, float volume) throws IOException {
+        appendChunk(uuid, chunkTimestamp, data, volume, null, 0F, null);
+    }
+
+    /**
+     * Queues positional audio of a player for encoding.
+     * The audio is converted to stereo by the encoder threads, using the listener of the time the audio was played.
+     * The audio is copied, so the caller can reuse the array.
+     *
+     * @param uuid           the UUID of the player
+     * @param chunkTimestamp the time the audio was played
+     * @param data           the mono audio or an empty array to end the current segment
+     * @param volume         the volume of the audio, not including the distance
+     * @param position       the position of the sound
+     * @param maxDistance    the maximum distance of the sound
+     * @throws IOException if the encoder could not be created
+     */
+    public void appendChunk(UUID uuid, long chunkTimestamp, short[] data, float volume, Vec3 position, float maxDistance) throws IOException {
+        appendChunk(uuid, chunkTimestamp, data, volume, position, maxDistance, ListenerSnapshot.get());
+    }
+
+    private void appendChunk(UUID uuid, long chunkTimestamp, short[] data, float volume, @Nullable Vec3 position, float maxDistance, @Nullable ListenerSnapshot listener) throws IOException {
         if (data.length <= 0) {
             flushChunkThreaded(uuid);
             return;
         }
+        if (closed || multitrackRecording != null) {
+            return;
+        }
 
-        if (!encoders.containsKey(uuid)) {
+        Track track = tracks.get(uuid);
+        if (track == null) {
             Mp3Encoder encoder = Mp3EncoderImpl.createEncoder(stereoFormat, MP3_BITRATE, VoicechatClient.CLIENT_CONFIG.recordingQuality.get(), Files.newOutputStream(location.resolve(lookupName(uuid) + ".mp3"), StandardOpenOption.CREATE_NEW));
-            encoders.put(uuid, new EncoderData(encoder, timestamp));
+            track = new Track(uuid, encoder);
+            tracks.put(uuid, track);
             if (encoder == null) {
                 throw new IOException("Failed to load mp3 encoder");
             }
         }
+        if (track.encoder == null) {
+            return;
+        }
 
-        AudioChunk chunk = getChunk(uuid, chunkTimestamp);
-        long passedTime = chunkTimestamp - chunk.endTimestamp;
-        long threshold = VoicechatClient.CLIENT_CONFIG.outputBufferSize.get() * 20L;
-        if (passedTime < threshold && chunk.getDuration() < 60_000) {
-            chunk.add(data, chunkTimestamp);
+        if (track.pendingFrames.get() >= MAX_PENDING_FRAMES) {
+            droppedFrames.incrementAndGet();
+            CooldownTimer.run("recording_frames_dropped", CooldownTimer.DEFAULT_COOLDOWN, suppressed -> {
+                Voicechat.LOGGER.warn("Recording encoder can't keep up - dropping audio ({} drops suppressed)", suppressed);
+            });
+            return;
+        }
+
+        short[] frame;
+        if (data.length == framePool.getFrameSize()) {
+            frame = framePool.acquire();
+            System.arraycopy(data, 0, frame, 0, data.length);
         } else {
-            flushChunkThreaded(uuid);
-            chunk = getChunk(uuid, chunkTimestamp);
-            chunk.add(data, chunkTimestamp);
+            frame = Arrays.copyOf(data, data.length);
         }
+        track.add(new Frame(frame, chunkTimestamp, volume, position, maxDistance, listener));
     }
 
-    private void writeChunk(UUID playerUUID, AudioChunk chunk) throws IOException {
-        EncoderData encoderData = encoders.get(playerUUID);
-
-        if (encoderData == null) {
-            Voicechat.LOGGER.error("Failed to find recording data for {}", playerUUID);
-            return;
-        }
-        if (encoderData.encoder == null) {
-            // This is already handled in appendChunk
+    /**
+     * Records an Opus packet without decoding it.
+     * Does nothing if the recorder doesn't record Opus packets.
+     *
+     * @param uuid      the UUID of the player
+     * @param timestamp the time the packet was played
+     * @param packet    the Opus packet - Must not be modified afterwards
+     */
+    public void appendPacket(UUID uuid, long timestamp, byte[] packet) {
+        if (closed || multitrackRecording == null) {
             return;
         }
+        multitrackRecording.append(uuid, timestamp, packet);
+    }
 
-        long relativeTime = chunk.timestamp - encoderData.lastTimestamp;
-
-        if (relativeTime < -100L) {
-            Voicechat.LOGGER.warn("Audio snippet {} overlaps more than 100ms with previous snippet.", chunk.timestamp);
+    /**
+     * Ends the current segment of the player, so the next audio gets aligned to its timestamp.
+     *
+     * @param playerUUID the UUID of the player
+     */
+    public void flushChunkThreaded(UUID playerUUID) {
+        if (multitrackRecording != null) {
+            if (!closed) {
+                multitrackRecording.endSegment(playerUUID);
+            }
             return;
-        } else if (relativeTime < -20L) {
-            Voicechat.LOGGER.warn("Audio {} overlaps with previous snippet.", chunk.timestamp);
         }
-        if (relativeTime < 0L) {
-            relativeTime = 0L;
+        Track track = tracks.get(playerUUID);
+        if (track == null || track.encoder == null || closed) {
+            return;
         }
+        track.add(Frame.END_OF_SEGMENT);
+    }
 
-        int silenceShorts = (int) (relativeTime * getSamplesPerMs() * stereoFormat.getChannels());
-        int tenSeconds = (int) stereoFormat.getSampleRate() * stereoFormat.getChannels() * 10;
-        int insertedSilence = 0;
-
-        if (silenceShorts > tenSeconds) {
-            short[] silence = new short[tenSeconds];
-            while (insertedSilence + tenSeconds < silenceShorts) {
-                encoderData.encoder.encode(silence);
-                insertedSilence += tenSeconds;
-            }
+    private void onFrameQueued(int length) {
+        long buffered = bufferedBytes.addAndGet(length * 2L);
+        if (buffered > peakBufferedBytes) {
+            peakBufferedBytes = buffered;
         }
+    }
 
-        short[] silence = new short[silenceShorts - insertedSilence];
-        encoderData.encoder.encode(silence);
-        short[] audio = chunk.getData();
-        encoderData.encoder.encode(audio);
-
-        encoderData.lastTimestamp = chunk.timestamp + getAudioTimeMillis(audio.length);
+    private void submit(Track track) {
+        try {
+            threadPool.execute(track::drain);
+        } catch (RejectedExecutionException e) {
+            // The recorder is closing - the remaining frames get encoded when saving
+            track.scheduled.set(false);
+        }
     }
 
-    public void flushChunkThreaded(UUID playerUUID) {
-        AudioChunk chunk = getAndRemoveChunk(playerUUID);
-        if (chunk == null) {
-            return;
+    /**
+     * @return the memory used by audio that is waiting for the encoder in bytes
+     */
+    public long getBufferedBytes() {
+        if (multitrackRecording != null) {
+            return multitrackRecording.getPendingBytes();
         }
-        threadPool.execute(() -> {
-            try {
-                writeChunk(playerUUID, chunk);
-            } catch (IOException e) {
-                Voicechat.LOGGER.error("Failed to save audio chunk for {}", playerUUID, e);
-            }
-        });
+        return bufferedBytes.get();
     }
 
-    @Nullable
-    private AudioChunk getAndRemoveChunk(UUID playerUUID) {
-        return chunks.remove(playerUUID);
+    /**
+     * @return the highest amount of memory that was used by audio that was waiting for the encoder in bytes
+     */
+    public long getPeakBufferedBytes() {
+        if (multitrackRecording != null) {
+            return multitrackRecording.getPeakPendingBytes();
+        }
+        return peakBufferedBytes;
     }
 
-    private AudioChunk getChunk(UUID uuid, long timestamp) {
-        if (!chunks.containsKey(uuid)) {
-            AudioChunk chunk = new AudioChunk(timestamp);
-            chunks.put(uuid, chunk);
-            return chunk;
-        } else {
-            return chunks.get(uuid);
+    /**
+     * @return the highest time in milliseconds between receiving and encoding audio of any player
+     */
+    public long getEncodeLag() {
+        if (multitrackRecording != null) {
+            return multitrackRecording.getLag();
+        }
+        long lag = 0L;
+        for (Track track : tracks.values()) {
+            lag = Math.max(lag, track.lag);
         }
+        return lag;
+    }
+
+    public long getDroppedFrames() {
+        return droppedFrames.get();
     }
 
     /**
-     * Writes every unfinished audio chunk to disk.
+     * Encodes every frame that is still waiting for the encoder.
      * Not threaded.
      */
-    private void flush() throws IOException {
-        for (Map.Entry<UUID, AudioChunk> chunk : chunks.entrySet()) {
-            writeChunk(chunk.getKey(), chunk.getValue());
+    private void flush() {
+        for (Track track : tracks.values()) {
+            track.encodePending(Integer.MAX_VALUE);
         }
     }
 
     public void close() {
-        if (threadPool.isShutdown()) {
+        if (closed) {
             throw new IllegalStateException("Recorder already closed");
         }
+        closed = true;
         threadPool.shutdown();
     }
 
     public void saveAndClose() {
-        save();
         close();
+        save();
     }
 
     private void save() {
-        threadPool.execute(() -> {
+        NamedThreadPoolFactory.create("AudioRecorderSaveThread").newThread(() -> {
             send(Component.translatable("message.voicechat.processing_recording_session"));
             try {
                 Exception error = null;
                 sendProgress(0F);
                 try {
-                    flush();
-                    sendProgress(0.5F);
-                } catch (IOException e) {
+                    while (!threadPool.awaitTermination(1L, TimeUnit.SECONDS)) {
+                        Voicechat.LOGGER.info("Waiting for recording encoders to finish");
+                    }
+                } catch (InterruptedException e) {
                     error = e;
                 }
+                flush();
+                if (multitrackRecording != null) {
+                    try {
+                        multitrackRecording.save();
+                    } catch (IOException e) {
+                        error = e;
+                    }
+                }
+                sendProgress(0.5F);
 
-                for (EncoderData encoderData : encoders.values()) {
-                    if (encoderData.encoder != null) {
+                for (Track track : tracks.values()) {
+                    if (track.encoder != null) {
                         try {
-                            encoderData.encoder.close();
+                            track.encoder.close();
                         } catch (IOException e) {
                             error = e;
                         }
@@ -280,7 +399,7 @@ public class AudioRecorder {
                 Voicechat.LOGGER.error("Failed to save recording session", e);
                 send(Component.translatable("message.voicechat.save_session_failed", e.getMessage()));
             }
-        });
+        }).start();
     }
 
     private void sendProgress(float progress) {
@@ -300,52 +419,150 @@ public class AudioRecorder {
         }
     }
 
-    private int getAudioTimeMillis(int audioShortLength) {
-        return (audioShortLength / stereoFormat.getChannels()) / getSamplesPerMs();
-    }
-
     private int getSamplesPerMs() {
         return ((int) stereoFormat.getSampleRate() / 1000);
     }
 
-    private class AudioChunk {
+    /**
+     * Mono audio with everything needed to convert it to stereo.
+     */
+    private static class Frame {
+        private static final Frame END_OF_SEGMENT = new Frame(new short[0], 0L, 1F, null, 0F, null);
+
+        private final short[] data;
         private final long timestamp;
-        private final ShortArrayBuffer buffer;
-        private long endTimestamp;
+        private final float volume;
+        @Nullable
+        private final Vec3 position;
+        private final float maxDistance;
+        @Nullable
+        private final ListenerSnapshot listener;
 
-        public AudioChunk(long timestamp) {
+        public Frame(short[] data, long timestamp, float volume, @Nullable Vec3 position, float maxDistance, @Nullable ListenerSnapshot listener) {
+            this.data = data;
             this.timestamp = timestamp;
-            this.endTimestamp = timestamp;
-            this.buffer = new ShortArrayBuffer();
+            this.volume = volume;
+            this.position = position;
+            this.maxDistance = maxDistance;
+            this.listener = listener;
         }
+    }
 
-        public void add(short[] data, long timestamp) throws IOException {
-            buffer.writeShorts(data);
-            endTimestamp = timestamp + getDuration(data.length);
+    /**
+     * The recording of a single player.
+     * Frames are encoded in order by at most one worker at a time, so different players get encoded in parallel.
+     */
+    private class Track {
+        private final UUID playerUUID;
+        @Nullable
+        private final Mp3Encoder encoder;
+        private final Queue<Frame> pending;
+        private final AtomicInteger pendingFrames;
+        private final AtomicBoolean scheduled;
+        private volatile long lag;
+        private short[] stereoBuffer;
+
+        // Only accessed by the thread that is currently encoding this track
+        private long encodedSamples;
+        private long segmentEnd;
+        private boolean newSegment;
+        private boolean skipSegment;
+        private boolean failed;
+
+        public Track(UUID playerUUID, @Nullable Mp3Encoder encoder) {
+            this.playerUUID = playerUUID;
+            this.encoder = encoder;
+            this.pending = new ConcurrentLinkedQueue<>();
+            this.pendingFrames = new AtomicInteger();
+            this.scheduled = new AtomicBoolean();
+            this.newSegment = true;
+            this.stereoBuffer = new short[STEREO_FRAME_SIZE];
         }
 
-        private long getDuration(int length) {
-            long l = length * 1000L / stereoFormat.getChannels();
-            return (long) ((double) l / stereoFormat.getSampleRate());
+        public void add(Frame frame) {
+            pending.add(frame);
+            pendingFrames.incrementAndGet();
+            onFrameQueued(frame.data.length);
+            if (scheduled.compareAndSet(false, true)) {
+                submit(this);
+            }
         }
 
-        public short[] getData() {
-            return buffer.toShortArray();
+        private void drain() {
+            try {
+                encodePending(FRAMES_PER_TASK);
+            } finally {
+                scheduled.set(false);
+            }
+            // Frames that were added after the last poll need to be picked up by a new task
+            if (!pending.isEmpty() && scheduled.compareAndSet(false, true)) {
+                submit(this);
+            }
         }
 
-        public long getDuration() {
-            return endTimestamp - timestamp;
+        private void encodePending(int maxFrames) {
+            Frame frame;
+            for (int i = 0; i < maxFrames && (frame = pending.poll()) != null; i++) {
+                pendingFrames.decrementAndGet();
+                bufferedBytes.addAndGet(frame.data.length * -2L);
+                if (frame == Frame.END_OF_SEGMENT) {
+                    newSegment = true;
+                    continue;
+                }
+                lag = System.currentTimeMillis() - frame.timestamp;
+                try {
+                    encode(frame);
+                } catch (IOException e) {
+                    failed = true;
+                    Voicechat.LOGGER.error("Failed to save audio for {}", playerUUID, e);
+                } finally {
+                    framePool.release(frame.data);
+                }
+            }
         }
-    }
 
-    private static class EncoderData {
-        @Nullable
-        private final Mp3Encoder encoder;
-        private long lastTimestamp;
+        private short[] toStereo(Frame frame) {
+            if (stereoBuffer.length != frame.data.length * 2) {
+                stereoBuffer = new short[frame.data.length * 2];
+            }
+            if (frame.position == null || frame.listener == null) {
+                return PositionalAudioUtils.convertToStereo(frame.data, frame.volume, stereoBuffer);
+            }
+            return PositionalAudioUtils.convertToStereoForRecording(frame.maxDistance, frame.listener, frame.position, frame.data, frame.volume, stereoBuffer);
+        }
 
-        public EncoderData(@Nullable Mp3Encoder encoder, long lastTimestamp) {
-            this.encoder = encoder;
-            this.lastTimestamp = lastTimestamp;
+        private void encode(Frame frame) throws IOException {
+            if (failed || encoder == null) {
+                return;
+            }
+            short[] stereo = toStereo(frame);
+            int channels = stereoFormat.getChannels();
+            int samplesPerMs = getSamplesPerMs();
+            if (newSegment || frame.timestamp - segmentEnd >= VoicechatClient.CLIENT_CONFIG.outputBufferSize.get() * 20L) {
+                newSegment = false;
+                skipSegment = false;
+                long relativeTime = (frame.timestamp - timestamp) - encodedSamples / samplesPerMs;
+                if (relativeTime < -100L) {
+                    Voicechat.LOGGER.warn("Audio snippet {} overlaps more than 100ms with previous snippet.", frame.timestamp);
+                    skipSegment = true;
+                } else if (relativeTime < -20L) {
+                    Voicechat.LOGGER.warn("Audio {} overlaps with previous snippet.", frame.timestamp);
+                }
+                if (relativeTime > 0L) {
+                    // Silence that doesn't fill a whole frame is carried over to the next segment
+                    long silenceFrames = relativeTime * samplesPerMs / (SILENCE.length / channels);
+                    for (long i = 0; i < silenceFrames; i++) {
+                        encoder.encode(SILENCE);
+                    }
+                    encodedSamples += silenceFrames * (SILENCE.length / channels);
+                }
+            }
+            segmentEnd = frame.timestamp + stereo.length / channels / samplesPerMs;
+            if (skipSegment) {
+                return;
+            }
+            encoder.encode(stereo);
+            encodedSamples += stereo.length / channels;
         }
     }
 
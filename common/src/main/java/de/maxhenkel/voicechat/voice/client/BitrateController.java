@@ -0,0 +1,135 @@
+package de.maxhenkel.voicechat.voice.client;
+
+import de.maxhenkel.voicechat.config.ServerConfig;
+import de.maxhenkel.voicechat.voice.common.KeepAlivePacket;
+
+/**
+ * Calculates the bitrate and complexity the microphone encoder should use.
+ * The quality degrades with the packet loss the receivers reported, round trip time, the load of the voice chat server and the amount of listeners,
+ * so an overloaded server receives less data instead of dropping packets.
+ */
+public class BitrateController {
+
+    public static final int MIN_BITRATE = 8_000;
+    public static final int MAX_COMPLEXITY = 10;
+    public static final int DEFAULT_COMPLEXITY = 8;
+
+    /**
+     * The amount of opus frames per second
+     */
+    private static final int FRAMES_PER_SECOND = SoundManager.SAMPLE_RATE / SoundManager.FRAME_SIZE;
+
+    private static final int MAX_LOSS_PERCENTAGE = 25;
+    private static final int GOOD_ROUND_TRIP_TIME = 150;
+    private static final int BAD_ROUND_TRIP_TIME = 500;
+    private static final int LOW_SERVER_LOAD = 20;
+    private static final int MAX_LISTENERS = 8;
+
+    private final int maxBitrate;
+    private volatile int serverLoad;
+    private volatile int roundTripTime;
+    private volatile int listeners;
+    private volatile float packetLoss;
+    private volatile int targetBitrate;
+    private volatile int targetComplexity;
+
+    public BitrateController(ServerConfig.Codec codec, int mtuSize) {
+        this.maxBitrate = Math.max(Math.min(getMaxBitrate(codec), mtuSize * 8 * FRAMES_PER_SECOND), MIN_BITRATE);
+        this.serverLoad = KeepAlivePacket.UNKNOWN;
+        this.roundTripTime = KeepAlivePacket.UNKNOWN;
+        this.listeners = KeepAlivePacket.UNKNOWN;
+        this.targetBitrate = maxBitrate;
+        this.targetComplexity = DEFAULT_COMPLEXITY;
+    }
+
+    private static int getMaxBitrate(ServerConfig.Codec codec) {
+        return switch (codec) {
+            case VOIP -> 32_000;
+            case AUDIO, RESTRICTED_LOWDELAY -> 64_000;
+        };
+    }
+
+    /**
+     * Updates the statistics the server sent with its keep alive.
+     *
+     * @param packet the keep alive packet
+     */
+    public void onKeepAlive(KeepAlivePacket packet) {
+        if (!packet.hasServerStats()) {
+            return;
+        }
+        serverLoad = packet.getServerLoad();
+        roundTripTime = packet.getRoundTripTime();
+        listeners = packet.getListeners();
+        packetLoss = Math.max(packet.getPacketLoss(), 0) / 100F;
+    }
+
+    /**
+     * Recalculates the target bitrate and complexity.
+     */
+    public void update() {
+        float quality = 1F;
+        quality *= 1F - Math.min(packetLoss * 100F / MAX_LOSS_PERCENTAGE, 1F) * 0.5F;
+        if (roundTripTime > GOOD_ROUND_TRIP_TIME) {
+            quality *= 1F - Math.min((float) (roundTripTime - GOOD_ROUND_TRIP_TIME) / (float) (BAD_ROUND_TRIP_TIME - GOOD_ROUND_TRIP_TIME), 1F) * 0.4F;
+        }
+        if (serverLoad > LOW_SERVER_LOAD) {
+            quality *= 1F - Math.min((float) (serverLoad - LOW_SERVER_LOAD) / (float) (100 - LOW_SERVER_LOAD), 1F) * 0.75F;
+        }
+        if (listeners > MAX_LISTENERS) {
+            quality *= Math.max((float) MAX_LISTENERS / (float) listeners, 0.5F);
+        }
+
+        int bitrate = MIN_BITRATE + Math.round((maxBitrate - MIN_BITRATE) * quality);
+        targetBitrate = Math.max(bitrate / 1000 * 1000, MIN_BITRATE);
+        // Low bitrates benefit the most from a high complexity
+        targetComplexity = quality >= 1F ? DEFAULT_COMPLEXITY : MAX_COMPLEXITY;
+    }
+
+    /**
+     * @return the bitrate in bits per second
+     */
+    public int getTargetBitrate() {
+        return targetBitrate;
+    }
+
+    /**
+     * @return the complexity (0-10)
+     */
+    public int getTargetComplexity() {
+        return targetComplexity;
+    }
+
+    public int getMaxBitrate() {
+        return maxBitrate;
+    }
+
+    /**
+     * @return the load of the voice chat server in percent or -1 if the server didn't send it
+     */
+    public int getServerLoad() {
+        return serverLoad;
+    }
+
+    /**
+     * @return the round trip time in milliseconds or -1 if the server didn't send it
+     */
+    public int getRoundTripTime() {
+        return roundTripTime;
+    }
+
+    /**
+     * @return the amount of players that received the last audio or -1 if the server didn't send it
+     */
+    public int getListeners() {
+        return listeners;
+    }
+
+    /**
+     * @return the packet loss (0-1) on the way to the receivers of the own audio
+     */
+    public float getPacketLoss() {
+        return packetLoss;
+    }
+
+}
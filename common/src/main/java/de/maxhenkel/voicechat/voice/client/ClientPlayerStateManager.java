@@ -39,12 +39,14 @@ public class ClientPlayerStateManager {
     private UUID group;
 
     private Map<UUID, PlayerState> states;
+    private final GroupHudModel groupHudModel;
 
     public ClientPlayerStateManager() {
         this.disconnected = true;
         this.group = null;
 
         states = new HashMap<>();
+        groupHudModel = new GroupHudModel(this);
 
         CommonCompatibilityManager.INSTANCE.getNetManager().playerStateChannel.setClientListener((client, handler, packet) -> {
             states.put(packet.getPlayerState().getUuid(), packet.getPlayerState());
@@ -56,6 +58,7 @@ public class ClientPlayerStateManager {
                     c.closeAudioChannel(packet.getPlayerState().getUuid());
                 }
             }
+            groupHudModel.onStateChanged(packet.getPlayerState());
             AdjustVolumeList.update();
             JoinGroupList.update();
             GroupList.update();
@@ -67,6 +70,7 @@ public class ClientPlayerStateManager {
                 VoicechatClient.USERNAME_CACHE.updateUsername(state.getUuid(), state.getName());
             }
             VoicechatClient.USERNAME_CACHE.save();
+            groupHudModel.update();
             AdjustVolumeList.update();
             JoinGroupList.update();
             GroupList.update();
@@ -74,6 +78,7 @@ public class ClientPlayerStateManager {
         CommonCompatibilityManager.INSTANCE.getNetManager().joinedGroupChannel.setClientListener((client, handler, packet) -> {
             Screen screen = Minecraft.getInstance().screen;
             this.group = packet.getGroup();
+            groupHudModel.update();
             if (packet.isWrongPassword()) {
                 if (screen instanceof JoinGroupScreen || screen instanceof CreateGroupScreen || screen instanceof EnterPasswordScreen) {
                     Minecraft.getInstance().setScreen(null);
@@ -97,6 +102,7 @@ public class ClientPlayerStateManager {
     private void resetOwnState() {
         disconnected = true;
         group = null;
+        groupHudModel.update();
     }
 
     /**
@@ -113,6 +119,8 @@ public class ClientPlayerStateManager {
      */
     public void onVoiceChatConnected(ClientVoicechatConnection client) {
         disconnected = false;
+        // The own ID might have changed
+        groupHudModel.update();
         syncOwnState();
         PluginManager.instance().dispatchEvent(ClientVoicechatConnectionEvent.class, new ClientVoicechatConnectionEventImpl(true));
     }
@@ -163,6 +171,10 @@ public class ClientPlayerStateManager {
     public void setDisabled(boolean disabled) {
         VoicechatClient.CLIENT_CONFIG.disabled.set(disabled).save();
         syncOwnState();
+        ClientVoicechat client = ClientManager.getClient();
+        if (client != null && client.getMicThread() != null) {
+            client.getMicThread().wakeUp();
+        }
         PluginManager.instance().dispatchEvent(VoicechatDisableEvent.class, new VoicechatDisableEventImpl(disabled));
     }
 
@@ -235,5 +247,10 @@ public class ClientPlayerStateManager {
 
     public void clearStates() {
         states.clear();
+        groupHudModel.update();
+    }
+
+    public GroupHudModel getGroupHudModel() {
+        return groupHudModel;
     }
 }
@@ -4,6 +4,7 @@ import de.maxhenkel.voicechat.Voicechat;
 import de.maxhenkel.voicechat.VoicechatClient;
 import de.maxhenkel.voicechat.debug.CooldownTimer;
 import de.maxhenkel.voicechat.voice.client.speaker.SpeakerException;
+import de.maxhenkel.voicechat.voice.common.KeepAlivePacket;
 import de.maxhenkel.voicechat.voice.common.SoundPacket;
 import net.minecraft.ChatFormatting;
 import net.minecraft.client.Minecraft;
@@ -11,6 +12,7 @@ import net.minecraft.client.player.LocalPlayer;
 import net.minecraft.network.chat.Component;
 
 import javax.annotation.Nullable;
+import java.io.IOException;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.UUID;
@@ -21,6 +23,7 @@ public class ClientVoicechat {
     private SoundManager soundManager;
     private final Map<UUID, AudioChannel> audioChannels;
     private final TalkCache talkCache;
+    private final EntityCache entityCache;
     @Nullable
     private MicThread micThread;
     @Nullable
@@ -34,6 +37,7 @@ public class ClientVoicechat {
     public ClientVoicechat() {
         this.startTime = System.currentTimeMillis();
         this.talkCache = new TalkCache();
+        this.entityCache = new EntityCache();
         try {
             reloadSoundManager();
         } catch (SpeakerException e) {
@@ -44,10 +48,12 @@ public class ClientVoicechat {
     }
 
     public void onVoiceChatConnected(ClientVoicechatConnection connection) {
+        talkCache.setOwnId(connection.getData().getPlayerUUID());
         startMicThread(connection);
     }
 
     public void onVoiceChatDisconnected() {
+        talkCache.setOwnId(Minecraft.getInstance().getUser().getProfileId());
         closeMicThread();
         if (connection != null) {
             connection.close();
@@ -161,7 +167,15 @@ public class ClientVoicechat {
                 }
                 return false;
             }
-            recorder = AudioRecorder.create();
+            try {
+                recorder = AudioRecorder.create();
+            } catch (IOException e) {
+                Voicechat.LOGGER.error("Failed to start recording", e);
+                if (player != null) {
+                    player.displayClientMessage(Component.translatable("message.voicechat.start_recording_failed", e.getMessage()), true);
+                }
+                return false;
+            }
             if (player != null) {
                 player.displayClientMessage(Component.translatable("message.voicechat.recording_started").withStyle(ChatFormatting.DARK_RED), true);
             }
@@ -201,6 +215,10 @@ public class ClientVoicechat {
         return talkCache;
     }
 
+    public EntityCache getEntityCache() {
+        return entityCache;
+    }
+
     @Nullable
     public AudioRecorder getRecorder() {
         return recorder;
@@ -214,6 +232,28 @@ public class ClientVoicechat {
         return audioChannels;
     }
 
+    /**
+     * Collects the packet loss of all audio channels that recently received audio, so the server can pass it to the senders.
+     *
+     * @return the packet loss in percent (0-100) keyed by the audio channel
+     */
+    public Map<UUID, Integer> getLossReports() {
+        long time = System.currentTimeMillis();
+        Map<UUID, Integer> reports = new HashMap<>();
+        synchronized (audioChannels) {
+            for (AudioChannel channel : audioChannels.values()) {
+                if (reports.size() >= KeepAlivePacket.MAX_LOSS_REPORTS) {
+                    break;
+                }
+                if (time - channel.getLastPacketTime() > 5_000L) {
+                    continue;
+                }
+                reports.put(channel.getUUID(), Math.round(channel.getPacketLoss() * 100F));
+            }
+        }
+        return reports;
+    }
+
     public boolean closeAudioChannel(UUID id) {
         synchronized (audioChannels) {
             boolean removed = audioChannels.remove(id) != null;
@@ -77,9 +77,11 @@ public class ClientVoicechatConnection extends Thread {
                 } else if (in.getPacket() instanceof PingPacket packet) {
                     Voicechat.LOGGER.info("Received ping {}, sending pong...", packet.getId());
                     sendToServer(new NetworkMessage(packet));
-                } else if (in.getPacket() instanceof KeepAlivePacket) {
+                } else if (in.getPacket() instanceof KeepAlivePacket packet) {
                     lastKeepAlive = System.currentTimeMillis();
-                    sendToServer(new NetworkMessage(new KeepAlivePacket()));
+                    data.getBitrateController().onKeepAlive(packet);
+                    data.setDiscontinuousTransmissionAllowed(packet.isDiscontinuousTransmission());
+                    sendToServer(new NetworkMessage(new KeepAlivePacket(true, client.getLossReports())));
                 }
             }
         } catch (InterruptedException ignored) {
@@ -0,0 +1,50 @@
+package de.maxhenkel.voicechat.voice.client;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Generates noise at the level of the last received frame,
+ * so the frames a sender didn't transmit because of silence don't play back as a hard cut to digital silence.
+ */
+public class ComfortNoiseGenerator {
+
+    /**
+     * The standard deviation of uniform noise between -1 and 1 is 1/sqrt(3)
+     */
+    private static final float UNIFORM_NOISE_SCALE = (float) Math.sqrt(3D);
+
+    private float amplitude;
+
+    /**
+     * Measures the level of the received frame.
+     *
+     * @param frame the decoded frame
+     */
+    public void update(short[] frame) {
+        double sum = 0D;
+        for (short sample : frame) {
+            sum += (double) sample * (double) sample;
+        }
+        amplitude = frame.length <= 0 ? 0F : (float) Math.sqrt(sum / frame.length);
+    }
+
+    public void reset() {
+        amplitude = 0F;
+    }
+
+    /**
+     * Fills the frame with noise.
+     *
+     * @param frame the frame
+     * @return the provided frame
+     */
+    public short[] generate(short[] frame) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        float scale = amplitude * UNIFORM_NOISE_SCALE;
+        for (int i = 0; i < frame.length; i++) {
+            frame[i] = (short) ((random.nextFloat() * 2F - 1F) * scale);
+        }
+        return frame;
+    }
+
+}
@@ -0,0 +1,94 @@
+package de.maxhenkel.voicechat.voice.client;
+
+import de.maxhenkel.voicechat.voice.common.Utils;
+
+/**
+ * Decides which microphone frames need to be sent to the server.
+ * Silent frames are not transmitted, except for one frame every {@link #UPDATE_INTERVAL} frames,
+ * so the receivers can keep playing comfort noise at the right level.
+ * The sequence number still advances for every suppressed frame.
+ * The amount of suppressed frames is announced with the next sent frame,
+ * so receivers can tell intentional gaps apart from packet loss.
+ */
+public class DiscontinuousTransmission {
+
+    /**
+     * The level in dB below which a frame is considered silent
+     */
+    public static final double SILENCE_THRESHOLD = -40D;
+    /**
+     * The amount of silent frames that are still sent, so the decoder of the receiver can fade out
+     */
+    public static final int HANGOVER_FRAMES = 5;
+    /**
+     * The interval in frames in which a silent frame gets sent (400 ms)
+     */
+    public static final int UPDATE_INTERVAL = 20;
+
+    private int silentFrames;
+    private long sentFrames;
+    private long sentBytes;
+    private long suppressedFrames;
+    private int skippedFrames;
+
+    /**
+     * @param audio               the raw audio frame
+     * @param activationThreshold the voice activation threshold in dB
+     * @return if the frame needs to be sent
+     */
+    public boolean shouldSend(short[] audio, double activationThreshold) {
+        double level = Utils.getHighestAudioLevel(audio);
+        if (level >= Math.min(activationThreshold, SILENCE_THRESHOLD)) {
+            silentFrames = 0;
+            return true;
+        }
+        silentFrames++;
+        if (silentFrames <= HANGOVER_FRAMES || (silentFrames - HANGOVER_FRAMES) % UPDATE_INTERVAL == 0) {
+            return true;
+        }
+        suppressedFrames++;
+        skippedFrames++;
+        return false;
+    }
+
+    /**
+     * @param bytes the size of the encoded frame that was sent
+     */
+    public void onSent(int bytes) {
+        sentFrames++;
+        sentBytes += bytes;
+        skippedFrames = 0;
+    }
+
+    public void reset() {
+        silentFrames = 0;
+        skippedFrames = 0;
+    }
+
+    /**
+     * @return the amount of frames that were suppressed since the last sent frame
+     */
+    public int getSkippedFrames() {
+        return skippedFrames;
+    }
+
+    /**
+     * @return if the following silent frames won't be sent
+     */
+    public boolean isSuppressing() {
+        return silentFrames >= HANGOVER_FRAMES;
+    }
+
+    public long getSentFrames() {
+        return sentFrames;
+    }
+
+    public long getSentBytes() {
+        return sentBytes;
+    }
+
+    public long getSuppressedFrames() {
+        return suppressedFrames;
+    }
+
+}
@@ -0,0 +1,130 @@
+package de.maxhenkel.voicechat.voice.client;
+
+import net.minecraft.client.Minecraft;
+import net.minecraft.client.multiplayer.ClientLevel;
+import net.minecraft.world.entity.Entity;
+import net.minecraft.world.phys.AABB;
+import net.minecraft.world.phys.Vec3;
+
+import javax.annotation.Nullable;
+import java.lang.ref.WeakReference;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Resolves the entities audio is played from.
+ * Entities that aren't players can only be found by querying all entities around the listener, so they are cached as weak references.
+ * Cached entities are dropped once they are removed or the level changes.
+ */
+public class EntityCache {
+
+    private final Minecraft minecraft;
+    private final Map<UUID, WeakReference<Entity>> entities;
+    private volatile WeakReference<ClientLevel> level;
+    private final AtomicLong hits;
+    private final AtomicLong misses;
+
+    public EntityCache() {
+        this.minecraft = Minecraft.getInstance();
+        this.entities = new ConcurrentHashMap<>();
+        this.level = new WeakReference<>(null);
+        this.hits = new AtomicLong();
+        this.misses = new AtomicLong();
+    }
+
+    /**
+     * Gets the entity with the provided UUID.
+     * Entities that aren't players are only returned if they are within the provided distance of the camera, even if they are cached.
+     *
+     * @param uuid     the UUID of the entity
+     * @param distance the maximum distance to the camera
+     * @return the entity or <code>null</code> if it wasn't found
+     */
+    @Nullable
+    public Entity getEntity(UUID uuid, float distance) {
+        ClientLevel currentLevel = minecraft.level;
+        if (currentLevel == null) {
+            return null;
+        }
+        Entity player = currentLevel.getPlayerByUUID(uuid);
+        if (player != null) {
+            return player;
+        }
+        if (level.get() != currentLevel) {
+            entities.clear();
+            level = new WeakReference<>(currentLevel);
+        }
+
+        AABB box = getSearchBox(distance);
+        WeakReference<Entity> reference = entities.get(uuid);
+        if (reference != null) {
+            Entity entity = reference.get();
+            if (entity != null && !entity.isRemoved() && entity.level() == currentLevel) {
+                hits.incrementAndGet();
+                // Keeping the entity cached, since it might get back in range
+                return box.intersects(entity.getBoundingBox()) ? entity : null;
+            }
+            entities.remove(uuid, reference);
+        }
+
+        misses.incrementAndGet();
+        Entity entity = findEntity(currentLevel, uuid, box);
+        if (entity != null) {
+            entities.put(uuid, new WeakReference<>(entity));
+        }
+        return entity;
+    }
+
+    /**
+     * @param distance the maximum distance to the camera
+     * @return the area around the camera entities are searched in
+     */
+    private AABB getSearchBox(float distance) {
+        Vec3 position = ListenerSnapshot.get().getPosition();
+        return new AABB(
+                position.x - distance - 1F,
+                position.y - distance - 1F,
+                position.z - distance - 1F,
+                position.x + distance + 1F,
+                position.y + distance + 1F,
+                position.z + distance + 1F
+        );
+    }
+
+    @Nullable
+    private Entity findEntity(ClientLevel level, UUID uuid, AABB box) {
+        List<Entity> found = level.getEntities((Entity) null, box, e -> e.getUUID().equals(uuid));
+        if (found.isEmpty()) {
+            return null;
+        }
+        return found.get(0);
+    }
+
+    /**
+     * Removes the cached entity.
+     *
+     * @param uuid the UUID of the entity
+     */
+    public void release(UUID uuid) {
+        entities.remove(uuid);
+    }
+
+    public int getSize() {
+        return entities.size();
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    /**
+     * @return the amount of times the entities around the camera had to be queried
+     */
+    public long getMisses() {
+        return misses.get();
+    }
+
+}
@@ -3,7 +3,6 @@ package de.maxhenkel.voicechat.voice.client;
 import com.mojang.blaze3d.systems.RenderSystem;
 import de.maxhenkel.voicechat.Voicechat;
 import de.maxhenkel.voicechat.VoicechatClient;
-import de.maxhenkel.voicechat.gui.GameProfileUtils;
 import de.maxhenkel.voicechat.voice.common.PlayerState;
 import net.minecraft.client.Minecraft;
 import net.minecraft.client.gui.GuiGraphics;
@@ -29,7 +28,10 @@ public class GroupChatManager {
         }
         Minecraft mc = Minecraft.getInstance();
 
-        List<PlayerState> groupMembers = getGroupMembers(VoicechatClient.CLIENT_CONFIG.showOwnGroupIcon.get());
+        List<GroupHudModel.Member> groupMembers = ClientManager.getPlayerStateManager().getGroupHudModel().getSnapshot().getMembers(VoicechatClient.CLIENT_CONFIG.showOwnGroupIcon.get());
+        if (groupMembers.isEmpty()) {
+            return;
+        }
 
         guiGraphics.pose().pushPose();
         int posX = VoicechatClient.CLIENT_CONFIG.groupPlayerIconPosX.get();
@@ -48,7 +50,8 @@ public class GroupChatManager {
         boolean vertical = VoicechatClient.CLIENT_CONFIG.groupPlayerIconOrientation.get().equals(GroupPlayerIconOrientation.VERTICAL);
 
         for (int i = 0; i < groupMembers.size(); i++) {
-            PlayerState state = groupMembers.get(i);
+            GroupHudModel.Member member = groupMembers.get(i);
+            PlayerState state = member.getState();
             guiGraphics.pose().pushPose();
             if (vertical) {
                 if (posY < 0) {
@@ -73,7 +76,7 @@ public class GroupChatManager {
             RenderSystem.setShaderColor(1F, 1F, 1F, 1F);
             RenderSystem.enableBlend();
             RenderSystem.defaultBlendFunc();
-            PlayerSkin skin = GameProfileUtils.getSkin(state.getUuid());
+            PlayerSkin skin = member.getSkin();
             guiGraphics.blit(skin.texture(), posX < 0 ? -1 - 8 : 1, posY < 0 ? -1 - 8 : 1, 8, 8, 8, 8, 64, 64);
             guiGraphics.blit(skin.texture(), posX < 0 ? -1 - 8 : 1, posY < 0 ? -1 - 8 : 1, 40, 8, 8, 8, 64, 64);
 
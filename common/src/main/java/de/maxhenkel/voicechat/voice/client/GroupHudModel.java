@@ -0,0 +1,165 @@
+package de.maxhenkel.voicechat.voice.client;
+
+import de.maxhenkel.voicechat.gui.GameProfileUtils;
+import de.maxhenkel.voicechat.voice.common.PlayerState;
+import net.minecraft.client.resources.PlayerSkin;
+
+import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * The members of the own group, as displayed in the group HUD.
+ * This is only rebuilt when player states or the own group change, so rendering the HUD doesn't need to look up the members every frame.
+ */
+public class GroupHudModel {
+
+    /**
+     * The interval in milliseconds in which skins are looked up again, since they are loaded asynchronously
+     */
+    private static final long SKIN_REFRESH_INTERVAL = 1000L;
+    private static final Comparator<PlayerState> NAME_ORDER = Comparator.comparing(PlayerState::getName);
+
+    private final ClientPlayerStateManager stateManager;
+    private volatile Snapshot snapshot;
+    private long lastSkinRefresh;
+
+    public GroupHudModel(ClientPlayerStateManager stateManager) {
+        this.stateManager = stateManager;
+        this.snapshot = Snapshot.EMPTY;
+    }
+
+    /**
+     * Rebuilds the model.
+     */
+    public void update() {
+        UUID group = stateManager.getGroupID();
+        if (group == null) {
+            snapshot = Snapshot.EMPTY;
+            return;
+        }
+        UUID ownId = stateManager.getOwnID();
+        List<PlayerState> states = new ArrayList<>();
+        for (PlayerState state : stateManager.getPlayerStates(true)) {
+            if (state.hasGroup() && state.getGroup().equals(group)) {
+                states.add(state);
+            }
+        }
+        states.sort(NAME_ORDER);
+        List<Member> members = new ArrayList<>(states.size());
+        for (PlayerState state : states) {
+            members.add(new Member(state, GameProfileUtils.getSkin(state.getUuid()), state.getUuid().equals(ownId)));
+        }
+        snapshot = new Snapshot(group, members);
+        lastSkinRefresh = System.currentTimeMillis();
+    }
+
+    /**
+     * Updates the model if the provided state affects the own group.
+     *
+     * @param state the new state of a player
+     */
+    public void onStateChanged(PlayerState state) {
+        UUID group = stateManager.getGroupID();
+        if (group == null && snapshot.getGroup() == null) {
+            return;
+        }
+        if ((state.hasGroup() && state.getGroup().equals(group)) || snapshot.contains(state.getUuid())) {
+            update();
+        }
+    }
+
+    /**
+     * @return the current model
+     */
+    public Snapshot getSnapshot() {
+        Snapshot s = snapshot;
+        if (s.getMembers().isEmpty()) {
+            return s;
+        }
+        long time = System.currentTimeMillis();
+        if (time - lastSkinRefresh >= SKIN_REFRESH_INTERVAL) {
+            update();
+            s = snapshot;
+        }
+        return s;
+    }
+
+    public static class Snapshot {
+        private static final Snapshot EMPTY = new Snapshot(null, Collections.emptyList());
+
+        @Nullable
+        private final UUID group;
+        private final List<Member> members;
+        private final List<Member> otherMembers;
+
+        private Snapshot(@Nullable UUID group, List<Member> members) {
+            this.group = group;
+            this.members = Collections.unmodifiableList(members);
+            List<Member> others = new ArrayList<>(members.size());
+            for (Member member : members) {
+                if (!member.isSelf()) {
+                    others.add(member);
+                }
+            }
+            this.otherMembers = Collections.unmodifiableList(others);
+        }
+
+        @Nullable
+        public UUID getGroup() {
+            return group;
+        }
+
+        /**
+         * @return all members sorted by name
+         */
+        public List<Member> getMembers() {
+            return members;
+        }
+
+        /**
+         * @param includeSelf if the own player should be included
+         * @return the members sorted by name
+         */
+        public List<Member> getMembers(boolean includeSelf) {
+            return includeSelf ? members : otherMembers;
+        }
+
+        public boolean contains(UUID player) {
+            for (Member member : members) {
+                if (member.getState().getUuid().equals(player)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    public static class Member {
+        private final PlayerState state;
+        private final PlayerSkin skin;
+        private final boolean self;
+
+        private Member(PlayerState state, PlayerSkin skin, boolean self) {
+            this.state = state;
+            this.skin = skin;
+            this.self = self;
+        }
+
+        public PlayerState getState() {
+            return state;
+        }
+
+        public PlayerSkin getSkin() {
+            return skin;
+        }
+
+        public boolean isSelf() {
+            return self;
+        }
+    }
+
+}
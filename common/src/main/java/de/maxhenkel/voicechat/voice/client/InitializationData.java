@@ -19,6 +19,8 @@ public class InitializationData {
     private final int keepAlive;
     private final boolean groupsEnabled;
     private final boolean allowRecording;
+    private final BitrateController bitrateController;
+    private volatile boolean discontinuousTransmissionAllowed;
 
     public InitializationData(String serverIP, SecretPacket secretPacket) {
         HostData hostData = parseAddress(secretPacket.getVoiceHost(), serverIP, secretPacket.getServerPort());
@@ -32,6 +34,7 @@ public class InitializationData {
         this.keepAlive = secretPacket.getKeepAlive();
         this.groupsEnabled = secretPacket.groupsEnabled();
         this.allowRecording = secretPacket.allowRecording();
+        this.bitrateController = new BitrateController(codec, mtuSize);
     }
 
     private static HostData parseAddress(String voiceHost, String serverIP, int serverPort) {
@@ -98,6 +101,24 @@ public class InitializationData {
         return allowRecording;
     }
 
+    /**
+     * @return if the server and all connected players support frames that were not sent because of silence
+     */
+    public boolean isDiscontinuousTransmissionAllowed() {
+        return discontinuousTransmissionAllowed;
+    }
+
+    public void setDiscontinuousTransmissionAllowed(boolean discontinuousTransmissionAllowed) {
+        this.discontinuousTransmissionAllowed = discontinuousTransmissionAllowed;
+    }
+
+    /**
+     * @return the controller that holds the current target bitrate and complexity of the microphone encoder
+     */
+    public BitrateController getBitrateController() {
+        return bitrateController;
+    }
+
     private static class HostData {
         private final String ip;
         private final int port;
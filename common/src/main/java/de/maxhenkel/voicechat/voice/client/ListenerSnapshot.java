@@ -0,0 +1,82 @@
+package de.maxhenkel.voicechat.voice.client;
+
+import net.minecraft.client.Camera;
+import net.minecraft.client.Minecraft;
+import net.minecraft.world.phys.Vec3;
+import org.joml.Vector3f;
+
+/**
+ * The position and rotation of the camera, taken at most once per audio frame.
+ * All audio channels and speakers use the same snapshot, so the camera isn't looked up for every source and the rotation is only calculated once.
+ */
+public class ListenerSnapshot {
+
+    /**
+     * The duration of a frame in nanoseconds
+     */
+    private static final long FRAME_DURATION = 20_000_000L;
+
+    private static volatile ListenerSnapshot current;
+
+    private final long frame;
+    private final Vec3 position;
+    private final float yRot;
+    private final float sinYRot;
+    private final float cosYRot;
+    private final float[] orientation;
+
+    private ListenerSnapshot(long frame, Vec3 position, float yRot, Vector3f look, Vector3f up) {
+        this.frame = frame;
+        this.position = position;
+        this.yRot = yRot;
+        double yRotRadians = Math.toRadians(yRot);
+        this.sinYRot = (float) Math.sin(yRotRadians);
+        this.cosYRot = (float) Math.cos(yRotRadians);
+        this.orientation = new float[]{look.x(), look.y(), look.z(), up.x(), up.y(), up.z()};
+    }
+
+    /**
+     * @return the snapshot of the current frame
+     */
+    public static ListenerSnapshot get() {
+        long frame = System.nanoTime() / FRAME_DURATION;
+        ListenerSnapshot snapshot = current;
+        if (snapshot != null && snapshot.frame == frame) {
+            return snapshot;
+        }
+        Camera camera = Minecraft.getInstance().gameRenderer.getMainCamera();
+        snapshot = new ListenerSnapshot(frame, camera.getPosition(), camera.getYRot(), camera.getLookVector(), camera.getUpVector());
+        current = snapshot;
+        return snapshot;
+    }
+
+    public Vec3 getPosition() {
+        return position;
+    }
+
+    public float getYRot() {
+        return yRot;
+    }
+
+    /**
+     * @return the sine of the Y rotation
+     */
+    public float getSinYRot() {
+        return sinYRot;
+    }
+
+    /**
+     * @return the cosine of the Y rotation
+     */
+    public float getCosYRot() {
+        return cosYRot;
+    }
+
+    /**
+     * @return the look and up vector of the camera, as used by <code>AL_ORIENTATION</code> - Must not be modified
+     */
+    public float[] getOrientation() {
+        return orientation;
+    }
+
+}
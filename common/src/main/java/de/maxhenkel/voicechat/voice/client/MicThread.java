@@ -2,25 +2,40 @@ package de.maxhenkel.voicechat.voice.client;
 
 import de.maxhenkel.voicechat.Voicechat;
 import de.maxhenkel.voicechat.VoicechatClient;
+import de.maxhenkel.voicechat.api.events.ClientSoundEvent;
 import de.maxhenkel.voicechat.api.opus.OpusEncoder;
 import de.maxhenkel.voicechat.config.ServerConfig;
+import de.maxhenkel.voicechat.debug.CooldownTimer;
 import de.maxhenkel.voicechat.debug.VoicechatUncaughtExceptionHandler;
 import de.maxhenkel.voicechat.plugins.PluginManager;
 import de.maxhenkel.voicechat.plugins.impl.opus.OpusManager;
+import de.maxhenkel.voicechat.voice.client.microphone.CaptureScheduler;
 import de.maxhenkel.voicechat.voice.client.microphone.Microphone;
 import de.maxhenkel.voicechat.voice.client.microphone.MicrophoneManager;
-import de.maxhenkel.voicechat.voice.common.MicPacket;
-import de.maxhenkel.voicechat.voice.common.NetworkMessage;
-import de.maxhenkel.voicechat.voice.common.Utils;
+import de.maxhenkel.voicechat.voice.common.*;
 import net.minecraft.client.Minecraft;
 
 import javax.annotation.Nullable;
 import java.io.IOException;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
 import java.util.function.Consumer;
 
 public class MicThread extends Thread {
 
+    /**
+     * The maximum time in milliseconds to wait while the microphone is locked or voice chat is disabled
+     */
+    private static final long IDLE_TIMEOUT = 1000L;
+    /**
+     * The maximum amount of captured frames waiting to be processed
+     */
+    private static final int CAPTURE_QUEUE_SIZE = 8;
+    /**
+     * The maximum time in nanoseconds the processing stage waits for a captured frame, before checking its state again
+     */
+    private static final long CAPTURE_WAIT_TIME = 100_000_000L;
+
     @Nullable
     private final ClientVoicechat client;
     @Nullable
@@ -28,12 +43,22 @@ public class MicThread extends Thread {
     @Nullable
     private Microphone mic;
     private final VolumeManager volumeManager;
-    private boolean running;
-    private boolean microphoneLocked;
+    private volatile boolean running;
+    private volatile boolean microphoneLocked;
     private boolean wasWhispering;
     private final OpusEncoder encoder;
     @Nullable
     private Denoiser denoiser;
+    private final AudioFramePool framePool;
+    private final DiscontinuousTransmission discontinuousTransmission;
+    private final CaptureScheduler captureScheduler;
+    private final Object idleLock;
+    private final Object captureLock;
+    private final FrameRingBuffer captureQueue;
+    private final CaptureThread captureThread;
+    private final StageTimer captureTimer;
+    private final StageTimer processingTimer;
+    private volatile long droppedFrames;
 
     private final Consumer<MicrophoneException> onError;
 
@@ -49,18 +74,32 @@ public class MicThread extends Thread {
             Voicechat.LOGGER.warn("Denoiser not available");
         }
         volumeManager = new VolumeManager();
+        framePool = new AudioFramePool(SoundManager.FRAME_SIZE, 16);
+        discontinuousTransmission = new DiscontinuousTransmission();
+        captureScheduler = new CaptureScheduler(SoundManager.SAMPLE_RATE, SoundManager.FRAME_SIZE);
+        idleLock = new Object();
+        captureLock = new Object();
+        captureQueue = new FrameRingBuffer(CAPTURE_QUEUE_SIZE);
+        captureThread = new CaptureThread();
+        captureTimer = new StageTimer();
+        processingTimer = new StageTimer();
 
         setDaemon(true);
         setName("MicrophoneThread");
         setUncaughtExceptionHandler(new VoicechatUncaughtExceptionHandler());
     }
 
+    /**
+     * Processes the frames captured by the {@link CaptureThread}.
+     * Amplifying, denoising, voice activation, encoding and sending happen here, so a slow frame doesn't delay capturing.
+     */
     @Override
     public void run() {
         Microphone mic = getMic();
         if (mic == null) {
             return;
         }
+        captureThread.start();
 
         while (running) {
             if (connection != null) {
@@ -77,22 +116,24 @@ public class MicThread extends Thread {
                 flushIfNeeded();
 
                 if (!microphoneLocked && ClientManager.getPlayerStateManager().isDisabled()) {
-                    if (mic.isStarted()) {
-                        mic.stop();
-                    }
                     if (denoiser != null) {
                         denoiser.close();
                     }
                 }
+                discardCapturedFrames();
 
-                Utils.sleep(10);
+                waitWhileIdle();
                 continue;
             }
 
-            short[] audio = pollMic();
-            if (audio == null) {
+            short[] captured = captureQueue.poll();
+            if (captured == null) {
+                // The capture thread unparks this thread once a frame is queued
+                LockSupport.parkNanos(this, CAPTURE_WAIT_TIME);
                 continue;
             }
+            long start = System.nanoTime();
+            short[] audio = processFrame(captured);
 
             boolean sentAudio = false;
             MicrophoneActivationType type = VoicechatClient.CLIENT_CONFIG.microphoneActivationType.get();
@@ -104,29 +145,170 @@ public class MicThread extends Thread {
             if (!sentAudio) {
                 sendAudio(null, ClientManager.getPttKeyHandler().isWhisperDown());
             }
+            if (audio != lastBuff) {
+                releaseSentFrame(audio);
+            }
+            processingTimer.record(System.nanoTime() - start);
+        }
+    }
+
+    private void discardCapturedFrames() {
+        short[] frame;
+        while ((frame = captureQueue.poll()) != null) {
+            framePool.release(frame);
         }
     }
 
+    /**
+     * Polls one frame from the microphone.
+     * The returned frame is taken from {@link #getFramePool()} and should be released to it once it is no longer used.
+     *
+     * @return the amplified and denoised audio or <code>null</code> if no frame is available yet
+     */
     @Nullable
     public short[] pollMic() {
+        short[] buff = captureFrame();
+        if (buff == null) {
+            return null;
+        }
+        return processFrame(buff);
+    }
+
+    /**
+     * Waits for the microphone to capture a frame and reads it.
+     *
+     * @return the raw audio, taken from {@link #getFramePool()}, or <code>null</code> if no frame is available yet
+     */
+    @Nullable
+    private short[] captureFrame() {
         Microphone mic = getMic();
         if (mic == null) {
             throw new IllegalStateException("No microphone available");
         }
-        if (!mic.isStarted()) {
-            mic.start();
+        synchronized (captureLock) {
+            if (!mic.isStarted()) {
+                mic.start();
+            }
+        }
+        if (!captureScheduler.awaitFrame(mic)) {
+            return null;
+        }
+        synchronized (captureLock) {
+            // Another thread might have read the frame in the meantime
+            if (mic.available() < SoundManager.FRAME_SIZE) {
+                return null;
+            }
+            long start = System.nanoTime();
+            short[] frame = mic.read(framePool.acquire());
+            captureTimer.record(System.nanoTime() - start);
+            return frame;
         }
+    }
+
+    /**
+     * Amplifies and denoises the audio.
+     *
+     * @param buff the raw audio - gets released to the frame pool if a different frame is returned
+     * @return the processed audio
+     */
+    private short[] processFrame(short[] buff) {
         if (denoiser != null && denoiser.isClosed()) {
             denoiser = Denoiser.createDenoiser();
         }
+        volumeManager.adjustVolumeMono(buff, VoicechatClient.CLIENT_CONFIG.microphoneAmplification.get().floatValue());
+        short[] denoised = denoiseIfEnabled(buff);
+        if (denoised != buff) {
+            framePool.release(buff);
+        }
+        return denoised;
+    }
 
-        if (mic.available() < SoundManager.FRAME_SIZE) {
-            Utils.sleep(5);
-            return null;
+    private void stopMic() {
+        synchronized (captureLock) {
+            if (mic != null && mic.isStarted()) {
+                mic.stop();
+            }
         }
-        short[] buff = mic.read();
-        volumeManager.adjustVolumeMono(buff, VoicechatClient.CLIENT_CONFIG.microphoneAmplification.get().floatValue());
-        return denoiseIfEnabled(buff);
+    }
+
+    /**
+     * Blocks while the microphone is locked or voice chat is disabled.
+     * Wakes up every {@link #IDLE_TIMEOUT} milliseconds to check the connection for timeouts.
+     */
+    private void waitWhileIdle() {
+        synchronized (idleLock) {
+            if (!running || !isIdle()) {
+                return;
+            }
+            try {
+                idleLock.wait(IDLE_TIMEOUT);
+            } catch (InterruptedException ignored) {
+            }
+        }
+    }
+
+    private boolean isIdle() {
+        return microphoneLocked || ClientManager.getPlayerStateManager().isDisabled();
+    }
+
+    /**
+     * Wakes up the thread if it is waiting while the microphone is locked or voice chat is disabled.
+     */
+    public void wakeUp() {
+        synchronized (idleLock) {
+            idleLock.notifyAll();
+        }
+    }
+
+    /**
+     * @return if the encoder adds in-band forward error correction data for the receivers
+     */
+    public boolean isFecSupported() {
+        return OpusManager.supportsFec(encoder);
+    }
+
+    public DiscontinuousTransmission getDiscontinuousTransmission() {
+        return discontinuousTransmission;
+    }
+
+    /**
+     * @return if silent frames are currently not sent - This requires the server and all connected players to support it
+     */
+    public boolean isDiscontinuousTransmissionActive() {
+        return VoicechatClient.CLIENT_CONFIG.discontinuousTransmission.get() && connection != null && connection.getData().isDiscontinuousTransmissionAllowed();
+    }
+
+    public AudioFramePool getFramePool() {
+        return framePool;
+    }
+
+    public CaptureScheduler getCaptureScheduler() {
+        return captureScheduler;
+    }
+
+    /**
+     * @return the time it takes to read a frame from the microphone
+     */
+    public StageTimer getCaptureTimer() {
+        return captureTimer;
+    }
+
+    /**
+     * @return the time it takes to process, encode and send a frame
+     */
+    public StageTimer getProcessingTimer() {
+        return processingTimer;
+    }
+
+    public int getQueuedFrames() {
+        return captureQueue.size();
+    }
+
+    /**
+     * @return the amount of captured frames that were dropped, because the processing stage couldn't keep up
+     */
+    public long getDroppedFrames() {
+        return droppedFrames;
     }
 
     @Nullable
@@ -189,7 +371,11 @@ public class MicThread extends Thread {
                 sentAudio = true;
             }
         }
+        short[] previousBuff = lastBuff;
         lastBuff = audio;
+        if (previousBuff != null && previousBuff != audio) {
+            releaseSentFrame(previousBuff);
+        }
         return sentAudio;
     }
 
@@ -210,6 +396,17 @@ public class MicThread extends Thread {
         return true;
     }
 
+    /**
+     * Returns a frame that was passed to {@link #sendAudio(short[], boolean)} to the pool.
+     * Plugins might keep the audio of {@link ClientSoundEvent}, so it is only reused if no plugin had access to it.
+     */
+    private void releaseSentFrame(short[] frame) {
+        if (PluginManager.instance().hasListeners(ClientSoundEvent.class)) {
+            return;
+        }
+        framePool.release(frame);
+    }
+
     public short[] denoiseIfEnabled(short[] audio) {
         if (denoiser != null && VoicechatClient.CLIENT_CONFIG.denoiser.get()) {
             return denoiser.denoise(audio);
@@ -219,6 +416,7 @@ public class MicThread extends Thread {
 
     private void flush() {
         sendStopPacket();
+        discontinuousTransmission.reset();
         if (!encoder.isClosed()) {
             encoder.resetState();
         }
@@ -280,6 +478,7 @@ public class MicThread extends Thread {
         wasPTT = false;
         deactivationDelay = 0;
         lastBuff = null;
+        wakeUp();
     }
 
     public void close() {
@@ -287,17 +486,24 @@ public class MicThread extends Thread {
             return;
         }
         running = false;
+        wakeUp();
+        LockSupport.unpark(this);
 
-        if (Thread.currentThread() != this) {
-            try {
+        try {
+            if (Thread.currentThread() != this) {
                 join(100);
-            } catch (InterruptedException e) {
-                Voicechat.LOGGER.error("Interrupted while waiting for mic thread to close", e);
             }
+            if (Thread.currentThread() != captureThread) {
+                captureThread.join(100);
+            }
+        } catch (InterruptedException e) {
+            Voicechat.LOGGER.error("Interrupted while waiting for mic thread to close", e);
         }
 
-        if (mic != null) {
-            mic.close();
+        synchronized (captureLock) {
+            if (mic != null) {
+                mic.close();
+            }
         }
         encoder.close();
         if (denoiser != null) {
@@ -306,18 +512,39 @@ public class MicThread extends Thread {
         flush();
     }
 
+    /**
+     * The amount of packets after which the expected packet loss, bitrate and complexity of the encoder get updated
+     */
+    private static final long ENCODER_UPDATE_INTERVAL = 50L;
+
     private final AtomicLong sequenceNumber = new AtomicLong();
     private volatile boolean stopPacketSent = true;
 
     private void sendAudioPacket(short[] audio, boolean whispering) {
         if (connection != null && connection.isInitialized()) {
-            byte[] encoded = encoder.encode(audio);
-            connection.sendToServer(new NetworkMessage(new MicPacket(encoded, whispering, sequenceNumber.getAndIncrement())));
+            if (sequenceNumber.get() % ENCODER_UPDATE_INTERVAL == 0L) {
+                updateEncoder();
+            }
+            boolean dtx = isDiscontinuousTransmissionActive();
+            if (dtx && !discontinuousTransmission.shouldSend(audio, VoicechatClient.CLIENT_CONFIG.voiceActivationThreshold.get())) {
+                // Skipping the sequence number - The gap gets announced with the next sent frame, so the receivers fill it with comfort noise
+                sequenceNumber.getAndIncrement();
+            } else {
+                byte[] encoded = encoder.encode(audio);
+                int suppressedFrames = dtx ? discontinuousTransmission.getSkippedFrames() : 0;
+                boolean discontinuous = dtx && discontinuousTransmission.isSuppressing();
+                connection.sendToServer(new NetworkMessage(new MicPacket(encoded, whispering, sequenceNumber.getAndIncrement(), suppressedFrames, discontinuous)));
+                discontinuousTransmission.onSent(encoded.length);
+                if (client != null && client.getRecorder() != null) {
+                    client.getRecorder().appendPacket(Minecraft.getInstance().getUser().getProfileId(), System.currentTimeMillis(), encoded);
+                }
+            }
             stopPacketSent = false;
         }
         try {
-            if (client != null && client.getRecorder() != null) {
-                client.getRecorder().appendChunk(Minecraft.getInstance().getUser().getProfileId(), System.currentTimeMillis(), PositionalAudioUtils.convertToStereo(audio));
+            AudioRecorder recorder = client == null ? null : client.getRecorder();
+            if (recorder != null && recorder.recordsDecodedAudio()) {
+                recorder.appendChunk(Minecraft.getInstance().getUser().getProfileId(), System.currentTimeMillis(), audio, 1F);
             }
         } catch (IOException e) {
             Voicechat.LOGGER.error("Failed to record audio", e);
@@ -325,6 +552,17 @@ public class MicThread extends Thread {
         }
     }
 
+    private void updateEncoder() {
+        BitrateController bitrateController = connection.getData().getBitrateController();
+        OpusManager.setExpectedPacketLoss(encoder, Math.round(bitrateController.getPacketLoss() * 100F));
+        if (!VoicechatClient.CLIENT_CONFIG.adaptiveBitrate.get()) {
+            return;
+        }
+        bitrateController.update();
+        OpusManager.setBitrate(encoder, bitrateController.getTargetBitrate(), connection.getData().getMtuSize());
+        OpusManager.setComplexity(encoder, bitrateController.getTargetComplexity());
+    }
+
     private void sendStopPacket() {
         if (stopPacketSent) {
             return;
@@ -336,4 +574,43 @@ public class MicThread extends Thread {
         connection.sendToServer(new NetworkMessage(new MicPacket(new byte[0], false, sequenceNumber.getAndIncrement())));
         stopPacketSent = true;
     }
+
+    /**
+     * Captures frames from the microphone and passes them to the processing stage.
+     * Only reads the microphone, so it isn't delayed by slow processing.
+     */
+    private class CaptureThread extends Thread {
+
+        public CaptureThread() {
+            setDaemon(true);
+            setName("MicrophoneCaptureThread");
+            setUncaughtExceptionHandler(new VoicechatUncaughtExceptionHandler());
+        }
+
+        @Override
+        public void run() {
+            while (running) {
+                if (isIdle()) {
+                    if (!microphoneLocked) {
+                        stopMic();
+                    }
+                    waitWhileIdle();
+                    continue;
+                }
+                short[] frame = captureFrame();
+                if (frame == null) {
+                    continue;
+                }
+                if (!captureQueue.offer(frame)) {
+                    framePool.release(frame);
+                    droppedFrames++;
+                    CooldownTimer.run("microphone_frames_dropped", CooldownTimer.DEFAULT_COOLDOWN, suppressed -> {
+                        Voicechat.LOGGER.warn("Microphone processing can't keep up - dropping audio ({} drops suppressed)", suppressed);
+                    });
+                }
+                LockSupport.unpark(MicThread.this);
+            }
+        }
+    }
+
 }
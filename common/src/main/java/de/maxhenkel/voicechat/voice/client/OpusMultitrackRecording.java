@@ -0,0 +1,221 @@
+package de.maxhenkel.voicechat.voice.client;
+
+import de.maxhenkel.voicechat.Voicechat;
+import de.maxhenkel.voicechat.VoicechatClient;
+import de.maxhenkel.voicechat.debug.CooldownTimer;
+import de.maxhenkel.voicechat.voice.common.NamedThreadPoolFactory;
+import de.maxhenkel.voicechat.voice.common.OggOpusWriter;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+/**
+ * Records the received Opus packets of every player as a separate track of a single Ogg file, without decoding them.
+ * The packets are written to a spool file while recording and get muxed into the Ogg file when saving,
+ * since Ogg requires the headers of all tracks at the beginning of the file.
+ */
+public class OpusMultitrackRecording {
+
+    public static final String FILE_NAME = "recording.ogg";
+    private static final String SPOOL_FILE_NAME = "recording.spool";
+
+    /**
+     * The maximum amount of packet data that can wait for the writer
+     */
+    private static final long MAX_PENDING_BYTES = 4L * 1024L * 1024L;
+    private static final int SAMPLES_PER_MS = OggOpusWriter.SAMPLE_RATE / 1000;
+
+    private final Path location;
+    private final long startTime;
+    private final Function<UUID, String> nameLookup;
+    private final ExecutorService executor;
+    private final Map<UUID, Track> tracks;
+    private final List<Track> trackList;
+    private final AtomicLong pendingBytes;
+    private volatile long peakPendingBytes;
+    private volatile long lag;
+    private volatile long bytesWritten;
+    private DataOutputStream spool;
+
+    public OpusMultitrackRecording(Path location, long startTime, Function<UUID, String> nameLookup) throws IOException {
+        this.location = location;
+        this.startTime = startTime;
+        this.nameLookup = nameLookup;
+        this.executor = Executors.newSingleThreadExecutor(NamedThreadPoolFactory.create("AudioRecorderThread"));
+        this.tracks = new ConcurrentHashMap<>();
+        this.trackList = new ArrayList<>();
+        this.pendingBytes = new AtomicLong();
+        this.spool = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(location.resolve(SPOOL_FILE_NAME), StandardOpenOption.CREATE_NEW)));
+    }
+
+    /**
+     * @param uuid      the UUID of the player
+     * @param timestamp the time the packet was played
+     * @param packet    the Opus packet - Must not be modified afterwards
+     */
+    public void append(UUID uuid, long timestamp, byte[] packet) {
+        if (packet.length <= 0) {
+            return;
+        }
+        long pending = pendingBytes.addAndGet(packet.length);
+        if (pending > MAX_PENDING_BYTES) {
+            pendingBytes.addAndGet(-packet.length);
+            CooldownTimer.run("recording_packets_dropped", CooldownTimer.DEFAULT_COOLDOWN, suppressed -> {
+                Voicechat.LOGGER.warn("Recording can't keep up - dropping audio ({} drops suppressed)", suppressed);
+            });
+            return;
+        }
+        if (pending > peakPendingBytes) {
+            peakPendingBytes = pending;
+        }
+        execute(() -> {
+            pendingBytes.addAndGet(-packet.length);
+            lag = System.currentTimeMillis() - timestamp;
+            try {
+                write(uuid, timestamp, packet);
+            } catch (IOException e) {
+                Voicechat.LOGGER.error("Failed to record audio of {}", uuid, e);
+            }
+        });
+    }
+
+    /**
+     * Ends the current segment of the player, so the next packet gets aligned to its timestamp.
+     *
+     * @param uuid the UUID of the player
+     */
+    public void endSegment(UUID uuid) {
+        execute(() -> {
+            Track track = tracks.get(uuid);
+            if (track != null) {
+                track.newSegment = true;
+            }
+        });
+    }
+
+    private void execute(Runnable runnable) {
+        try {
+            executor.execute(runnable);
+        } catch (RejectedExecutionException ignored) {
+            // Packets that arrive after the recording was stopped are discarded
+        }
+    }
+
+    private void write(UUID uuid, long timestamp, byte[] packet) throws IOException {
+        int samples = OggOpusWriter.getSamples(packet);
+        if (samples <= 0 || spool == null) {
+            return;
+        }
+        Track track = tracks.get(uuid);
+        if (track == null) {
+            // The stereo flag of the TOC byte
+            int channels = (packet[0] & 0x04) != 0 ? 2 : 1;
+            track = new Track(trackList.size(), nameLookup.apply(uuid), channels);
+            tracks.put(uuid, track);
+            trackList.add(track);
+        }
+
+        long start = track.end;
+        if (track.newSegment || timestamp - track.segmentEnd >= VoicechatClient.CLIENT_CONFIG.outputBufferSize.get() * 20L) {
+            track.newSegment = false;
+            start = Math.max((timestamp - startTime) * SAMPLES_PER_MS, track.end);
+        }
+        track.end = start + samples;
+        track.segmentEnd = timestamp + samples / SAMPLES_PER_MS;
+
+        spool.writeShort(track.index);
+        spool.writeLong(start);
+        spool.writeShort(packet.length);
+        spool.write(packet);
+        bytesWritten += 12 + packet.length;
+    }
+
+    /**
+     * Waits for all pending packets and writes the Ogg file.
+     * Not threaded.
+     *
+     * @throws IOException          if an I/O error occurs
+     * @throws InterruptedException if the thread was interrupted while waiting for pending packets
+     */
+    public void save() throws IOException, InterruptedException {
+        executor.shutdown();
+        while (!executor.awaitTermination(1L, TimeUnit.SECONDS)) {
+            Voicechat.LOGGER.info("Waiting for the recording to finish");
+        }
+        spool.close();
+        spool = null;
+
+        Path spoolFile = location.resolve(SPOOL_FILE_NAME);
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(spoolFile)));
+             OggOpusWriter writer = new OggOpusWriter(new BufferedOutputStream(Files.newOutputStream(location.resolve(FILE_NAME), StandardOpenOption.CREATE_NEW)))) {
+            OggOpusWriter.Stream[] streams = new OggOpusWriter.Stream[trackList.size()];
+            for (Track track : trackList) {
+                streams[track.index] = writer.addStream(track.index + 1, track.name, track.channels);
+            }
+            writer.writeHeaders();
+            long read = 0L;
+            long size = Files.size(spoolFile);
+            while (read < size) {
+                int index = in.readUnsignedShort();
+                long start = in.readLong();
+                byte[] packet = new byte[in.readUnsignedShort()];
+                in.readFully(packet);
+                writer.writePacket(streams[index], start, packet);
+                read += 12 + packet.length;
+            }
+        }
+        Files.delete(spoolFile);
+    }
+
+    public int getTrackCount() {
+        return tracks.size();
+    }
+
+    /**
+     * @return the size of the recorded audio in bytes
+     */
+    public long getBytesWritten() {
+        return bytesWritten;
+    }
+
+    public long getPendingBytes() {
+        return pendingBytes.get();
+    }
+
+    public long getPeakPendingBytes() {
+        return peakPendingBytes;
+    }
+
+    /**
+     * @return the time in milliseconds between receiving and writing the last packet
+     */
+    public long getLag() {
+        return lag;
+    }
+
+    private static class Track {
+        private final int index;
+        private final String name;
+        private final int channels;
+        private long end;
+        private long segmentEnd;
+        private boolean newSegment;
+
+        public Track(int index, String name, int channels) {
+            this.index = index;
+            this.name = name;
+            this.channels = channels;
+            this.newSegment = true;
+        }
+    }
+
+}
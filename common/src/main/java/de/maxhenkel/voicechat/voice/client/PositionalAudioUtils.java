@@ -2,59 +2,72 @@ package de.maxhenkel.voicechat.voice.client;
 
 import de.maxhenkel.voicechat.VoicechatClient;
 import de.maxhenkel.voicechat.voice.client.speaker.AudioType;
-import de.maxhenkel.voicechat.voice.common.Utils;
-import net.minecraft.client.Camera;
-import net.minecraft.client.Minecraft;
-import net.minecraft.world.phys.Vec2;
 import net.minecraft.world.phys.Vec3;
 
 import javax.annotation.Nullable;
+import java.nio.ShortBuffer;
 
 public class PositionalAudioUtils {
 
-    private static final Minecraft mc = Minecraft.getInstance();
+    private static final float MIN_VOLUME = 0.3F;
 
     /**
+     * Calculates how far the sound is panned to the left or right.
+     * The direction of the sound is rotated into the view of the listener, so only a single trigonometric function is needed per call.
+     *
      * @param cameraPos the position of the listener
-     * @param yRot      the Y rotation of the listener
+     * @param sinYRot   the sine of the Y rotation of the listener
+     * @param cosYRot   the cosine of the Y rotation of the listener
      * @param soundPos  the position of the sound
-     * @return a float array of length 2, containing the left and right volume (0-1)
+     * @return the pan - negative values are panned to the left, positive values to the right
      */
-    private static float[] getStereoVolume(Vec3 cameraPos, float yRot, Vec3 soundPos) {
-        Vec3 d = soundPos.subtract(cameraPos).normalize();
-        Vec2 diff = new Vec2((float) d.x, (float) d.z);
-        float diffAngle = Utils.angle(diff, new Vec2(-1F, 0F));
-        float angle = Utils.normalizeAngle(diffAngle - (yRot % 360F));
+    static float getPan(Vec3 cameraPos, float sinYRot, float cosYRot, Vec3 soundPos) {
+        double dx = soundPos.x - cameraPos.x;
+        double dz = soundPos.z - cameraPos.z;
+        double forward = dz * cosYRot - dx * sinYRot;
+        double side = -dx * cosYRot - dz * sinYRot;
+        float rot = (float) (Math.atan2(side, forward) / Math.PI);
         float dif = (float) (Math.abs(cameraPos.y - soundPos.y) / 32);
 
-        float rot = angle / 180F;
         float perc = rot;
         if (rot < -0.5F) {
             perc = -(0.5F + (rot + 0.5F));
         } else if (rot > 0.5F) {
             perc = 0.5F - (rot - 0.5F);
         }
-        perc = perc * (1 - dif);
-
-        float minVolume = 0.3F;
+        return perc * (1 - dif);
+    }
 
-        float left = perc < 0F ? Math.abs(perc * 1.4F) + minVolume : minVolume;
-        float right = perc >= 0F ? (perc * 1.4F) + minVolume : minVolume;
+    private static float getPan(ListenerSnapshot listener, Vec3 soundPos) {
+        return getPan(listener.getPosition(), listener.getSinYRot(), listener.getCosYRot(), soundPos);
+    }
 
-        float fill = 1F - Math.max(left, right);
-        left += fill;
-        right += fill;
+    static float getPan(Vec3 cameraPos, float yRot, Vec3 soundPos) {
+        double yRotRadians = Math.toRadians(yRot);
+        return getPan(cameraPos, (float) Math.sin(yRotRadians), (float) Math.cos(yRotRadians), soundPos);
+    }
 
-        return new float[]{left, right};
+    /**
+     * The side the sound is panned to is at full volume, the other side is lowered.
+     *
+     * @param pan the pan
+     * @return the left volume (0-1)
+     */
+    static float getLeftVolume(float pan) {
+        float left = pan < 0F ? Math.abs(pan * 1.4F) + MIN_VOLUME : MIN_VOLUME;
+        float right = pan >= 0F ? (pan * 1.4F) + MIN_VOLUME : MIN_VOLUME;
+        return left + 1F - Math.max(left, right);
     }
 
     /**
-     * @param soundPos the position of the sound
-     * @return a float array of length 2, containing the left and right volume (0-1)
+     * @param pan the pan
+     * @return the right volume (0-1)
+     * @see #getLeftVolume(float)
      */
-    private static float[] getStereoVolume(Vec3 soundPos) {
-        Camera mainCamera = mc.gameRenderer.getMainCamera();
-        return getStereoVolume(mainCamera.getPosition(), mainCamera.getYRot(), soundPos);
+    static float getRightVolume(float pan) {
+        float left = pan < 0F ? Math.abs(pan * 1.4F) + MIN_VOLUME : MIN_VOLUME;
+        float right = pan >= 0F ? (pan * 1.4F) + MIN_VOLUME : MIN_VOLUME;
+        return right + 1F - Math.max(left, right);
     }
 
     /**
@@ -65,7 +78,7 @@ public class PositionalAudioUtils {
      * @return the resulting audio volume
      */
     public static float getDistanceVolume(float maxDistance, Vec3 pos) {
-        return getDistanceVolume(maxDistance, mc.gameRenderer.getMainCamera().getPosition(), pos);
+        return getDistanceVolume(maxDistance, ListenerSnapshot.get().getPosition(), pos);
     }
 
     /**
@@ -94,7 +107,42 @@ public class PositionalAudioUtils {
         if (soundPos == null) {
             return convertToStereo(audio);
         }
-        return convertToStereo(audio, getStereoVolume(soundPos));
+        float pan = getPan(ListenerSnapshot.get(), soundPos);
+        return convertToStereo(audio, getLeftVolume(pan), getRightVolume(pan));
+    }
+
+    /**
+     * Converts 16 bit mono audio to stereo based on the sound position
+     * This does not include the volume based on distance
+     *
+     * @param audio    the audio data
+     * @param soundPos the position of the sound - Might be null in case of non-positional audio
+     * @param stereo   the output array - needs to be at least twice the size of the audio
+     * @return the provided output array
+     */
+    public static short[] convertToStereo(short[] audio, @Nullable Vec3 soundPos, short[] stereo) {
+        if (soundPos == null) {
+            return convertToStereo(audio, stereo);
+        }
+        float pan = getPan(ListenerSnapshot.get(), soundPos);
+        return convertToStereo(audio, getLeftVolume(pan), getRightVolume(pan), stereo);
+    }
+
+    /**
+     * Converts 16 bit mono audio to stereo based on the sound position
+     * This does not include the volume based on distance
+     *
+     * @param audio    the audio data
+     * @param soundPos the position of the sound - Might be null in case of non-positional audio
+     * @param stereo   the output buffer - needs at least twice the size of the audio remaining
+     */
+    public static void convertToStereo(short[] audio, @Nullable Vec3 soundPos, ShortBuffer stereo) {
+        if (soundPos == null) {
+            convertToStereo(audio, 1F, 1F, stereo);
+            return;
+        }
+        float pan = getPan(ListenerSnapshot.get(), soundPos);
+        convertToStereo(audio, getLeftVolume(pan), getRightVolume(pan), stereo);
     }
 
     /**
@@ -108,7 +156,8 @@ public class PositionalAudioUtils {
         if (soundPos == null) {
             return convertToStereo(audio);
         }
-        return convertToStereo(audio, getStereoVolume(cameraPos, yRot, soundPos));
+        float pan = getPan(cameraPos, yRot, soundPos);
+        return convertToStereo(audio, getLeftVolume(pan), getRightVolume(pan));
     }
 
     /**
@@ -118,7 +167,17 @@ public class PositionalAudioUtils {
      * @return the adjusted audio
      */
     public static short[] convertToStereo(short[] audio) {
-        short[] stereo = new short[audio.length * 2];
+        return convertToStereo(audio, new short[audio.length * 2]);
+    }
+
+    /**
+     * Converts 16 bit mono audio to stereo
+     *
+     * @param audio  the audio data
+     * @param stereo the output array - needs to be at least twice the size of the audio
+     * @return the provided output array
+     */
+    public static short[] convertToStereo(short[] audio, short[] stereo) {
         for (int i = 0; i < audio.length; i++) {
             stereo[i * 2] = audio[i];
             stereo[i * 2 + 1] = audio[i];
@@ -135,7 +194,19 @@ public class PositionalAudioUtils {
      * @return the adjusted audio
      */
     private static short[] convertToStereo(short[] audio, float volumeLeft, float volumeRight) {
-        short[] stereo = new short[audio.length * 2];
+        return convertToStereo(audio, volumeLeft, volumeRight, new short[audio.length * 2]);
+    }
+
+    /**
+     * Converts 16 bit mono audio to stereo
+     *
+     * @param audio       the audio data
+     * @param volumeLeft  the volume modifier for the left audio
+     * @param volumeRight the volume modifier for the right audio
+     * @param stereo      the output array - needs to be at least twice the size of the audio
+     * @return the provided output array
+     */
+    private static short[] convertToStereo(short[] audio, float volumeLeft, float volumeRight, short[] stereo) {
         for (int i = 0; i < audio.length; i++) {
             short left = (short) (audio[i] * volumeLeft);
             short right = (short) (audio[i] * volumeRight);
@@ -148,12 +219,16 @@ public class PositionalAudioUtils {
     /**
      * Converts 16 bit mono audio to stereo
      *
-     * @param audio   the audio data
-     * @param volumes a float array of length 2 containing the left and right volume
-     * @return the adjusted audio
+     * @param audio       the audio data
+     * @param volumeLeft  the volume modifier for the left audio
+     * @param volumeRight the volume modifier for the right audio
+     * @param stereo      the output buffer - needs at least twice the size of the audio remaining
      */
-    private static short[] convertToStereo(short[] audio, float[] volumes) {
-        return convertToStereo(audio, volumes[0], volumes[1]);
+    private static void convertToStereo(short[] audio, float volumeLeft, float volumeRight, ShortBuffer stereo) {
+        for (short sample : audio) {
+            stereo.put((short) (sample * volumeLeft));
+            stereo.put((short) (sample * volumeRight));
+        }
     }
 
     /**
@@ -167,12 +242,24 @@ public class PositionalAudioUtils {
         return convertToStereo(audio, volume, volume);
     }
 
+    /**
+     * Converts 16 bit mono audio to stereo
+     *
+     * @param audio  the audio data
+     * @param volume the volume
+     * @param stereo the output array - needs to be at least twice the size of the audio
+     * @return the provided output array
+     */
+    public static short[] convertToStereo(short[] audio, float volume, short[] stereo) {
+        return convertToStereo(audio, volume, volume, stereo);
+    }
+
     public static short[] convertToStereoForRecording(float maxDistance, Vec3 pos, short[] monoData) {
-        return convertToStereoForRecording(maxDistance, mc.gameRenderer.getMainCamera().getPosition(), mc.gameRenderer.getMainCamera().getYRot(), pos, monoData);
+        return convertToStereoForRecording(maxDistance, pos, monoData, 1F);
     }
 
     public static short[] convertToStereoForRecording(float maxDistance, Vec3 pos, short[] monoData, float volume) {
-        return convertToStereoForRecording(maxDistance, mc.gameRenderer.getMainCamera().getPosition(), mc.gameRenderer.getMainCamera().getYRot(), pos, monoData, volume);
+        return convertToStereoForRecording(maxDistance, pos, monoData, volume, new short[monoData.length * 2]);
     }
 
     public static short[] convertToStereoForRecording(float maxDistance, Vec3 cameraPos, float yRot, Vec3 pos, short[] monoData) {
@@ -180,12 +267,29 @@ public class PositionalAudioUtils {
     }
 
     public static short[] convertToStereoForRecording(float maxDistance, Vec3 cameraPos, float yRot, Vec3 pos, short[] monoData, float volume) {
+        return convertToStereoForRecording(maxDistance, cameraPos, yRot, pos, monoData, volume, new short[monoData.length * 2]);
+    }
+
+    public static short[] convertToStereoForRecording(float maxDistance, Vec3 pos, short[] monoData, float volume, short[] stereo) {
+        return convertToStereoForRecording(maxDistance, ListenerSnapshot.get(), pos, monoData, volume, stereo);
+    }
+
+    public static short[] convertToStereoForRecording(float maxDistance, ListenerSnapshot listener, Vec3 pos, short[] monoData, float volume, short[] stereo) {
+        return convertToStereoForRecording(maxDistance, listener.getPosition(), listener.getSinYRot(), listener.getCosYRot(), pos, monoData, volume, stereo);
+    }
+
+    public static short[] convertToStereoForRecording(float maxDistance, Vec3 cameraPos, float yRot, Vec3 pos, short[] monoData, float volume, short[] stereo) {
+        double yRotRadians = Math.toRadians(yRot);
+        return convertToStereoForRecording(maxDistance, cameraPos, (float) Math.sin(yRotRadians), (float) Math.cos(yRotRadians), pos, monoData, volume, stereo);
+    }
+
+    private static short[] convertToStereoForRecording(float maxDistance, Vec3 cameraPos, float sinYRot, float cosYRot, Vec3 pos, short[] monoData, float volume, short[] stereo) {
         float distanceVolume = getDistanceVolume(maxDistance, cameraPos, pos) * volume;
         if (!VoicechatClient.CLIENT_CONFIG.audioType.get().equals(AudioType.OFF)) {
-            float[] stereoVolume = getStereoVolume(cameraPos, yRot, pos);
-            return convertToStereo(monoData, distanceVolume * stereoVolume[0], distanceVolume * stereoVolume[1]);
+            float pan = getPan(cameraPos, sinYRot, cosYRot, pos);
+            return convertToStereo(monoData, distanceVolume * getLeftVolume(pan), distanceVolume * getRightVolume(pan), stereo);
         } else {
-            return convertToStereo(monoData, distanceVolume, distanceVolume);
+            return convertToStereo(monoData, distanceVolume, distanceVolume, stereo);
         }
     }
 }
@@ -0,0 +1,7 @@
+package de.maxhenkel.voicechat.voice.client;
+
+public enum RecordingFormat {
+
+    MP3, OGG_OPUS
+
+}
@@ -1,9 +1,12 @@
 package de.maxhenkel.voicechat.voice.client;
 
 import de.maxhenkel.voicechat.Voicechat;
+import de.maxhenkel.voicechat.VoicechatClient;
+import de.maxhenkel.voicechat.config.ClientConfig;
 import de.maxhenkel.voicechat.intercompatibility.CommonCompatibilityManager;
 import de.maxhenkel.voicechat.plugins.PluginManager;
 import de.maxhenkel.voicechat.voice.client.speaker.SpeakerException;
+import net.minecraft.world.phys.Vec3;
 import org.lwjgl.openal.*;
 
 import javax.annotation.Nullable;
@@ -25,8 +28,16 @@ public class SoundManager {
     private long device;
     private long context;
 
+    // The listener and distance model are shared by all sources of the context
+    private final Object listenerLock;
+    @Nullable
+    private volatile ListenerSnapshot listener;
+    private volatile int distanceModel;
+
     public SoundManager(@Nullable String deviceName) throws SpeakerException {
         this.deviceName = deviceName;
+        this.listenerLock = new Object();
+        this.distanceModel = -1;
 
         device = openSpeaker(deviceName);
         context = ALC11.alcCreateContext(device, (IntBuffer) null);
@@ -109,6 +120,55 @@ public class SoundManager {
         });
     }
 
+    /**
+     * Updates the position and orientation of the listener.
+     * Since the listener is shared by all sources, this only makes OpenAL calls once per frame, no matter how many sources are playing.
+     * Needs to be called in the context.
+     */
+    public void updateListenerSync() {
+        ListenerSnapshot snapshot = ListenerSnapshot.get();
+        if (listener == snapshot) {
+            return;
+        }
+        synchronized (listenerLock) {
+            if (listener == snapshot) {
+                return;
+            }
+            Vec3 position = snapshot.getPosition();
+            AL11.alListenerf(AL11.AL_GAIN, 1F);
+            checkAlError();
+            AL11.alListener3f(AL11.AL_POSITION, (float) position.x, (float) position.y, (float) position.z);
+            checkAlError();
+            AL11.alListenerfv(AL11.AL_ORIENTATION, snapshot.getOrientation());
+            checkAlError();
+            listener = snapshot;
+        }
+    }
+
+    /**
+     * Sets the distance model, if it is different to the one that was last set.
+     * Needs to be called in the context.
+     *
+     * @param model the distance model
+     */
+    public void setDistanceModelSync(int model) {
+        if (distanceModel == model) {
+            return;
+        }
+        distanceModel = model;
+        AL11.alDistanceModel(model);
+        checkAlError();
+    }
+
+    /**
+     * Forces the listener and distance model to be set again on the next call.
+     * Used if plugins might have changed them.
+     */
+    public void invalidateContextState() {
+        listener = null;
+        distanceModel = -1;
+    }
+
     public boolean openContext() {
         if (context == 0) {
             return false;
@@ -123,7 +183,16 @@ public class SoundManager {
         checkAlcError(device);
     }
 
+    /**
+     * Checks for OpenAL errors.
+     * This is only done if {@link ClientConfig#checkAlErrors} or the debug mode is enabled, since every check is a round trip to the driver.
+     *
+     * @return if there was an error
+     */
     public static boolean checkAlError() {
+        if (!isCheckingAlErrors()) {
+            return false;
+        }
         int error = AL11.alGetError();
         if (error == AL11.AL_NO_ERROR) {
             return false;
@@ -133,6 +202,14 @@ public class SoundManager {
         return true;
     }
 
+    private static boolean isCheckingAlErrors() {
+        if (Voicechat.debugMode()) {
+            return true;
+        }
+        ClientConfig config = VoicechatClient.CLIENT_CONFIG;
+        return config != null && config.checkAlErrors.get();
+    }
+
     public static boolean checkAlcError(long device) {
         int error = ALC11.alcGetError(device);
         if (error == ALC11.ALC_NO_ERROR) {
@@ -1,41 +1,194 @@
 package de.maxhenkel.voicechat.voice.client;
 
+import net.minecraft.client.Minecraft;
 import net.minecraft.world.entity.Entity;
 
-import java.util.HashMap;
+import javax.annotation.Nullable;
 import java.util.Map;
+import java.util.Queue;
 import java.util.UUID;
-import java.util.function.Supplier;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.LongSupplier;
 
+/**
+ * Keeps track of which players are talking.
+ * Written by the audio channel threads and read by the render thread.
+ * <p>
+ * Every player gets a slot in a primitive array, which holds the time of the last audio and if it was whispered.
+ * Times are stored relative to the creation of the cache, so they fit into the slot.
+ * Audio channels keep their {@link Slot}, so updating it is a single compare-and-set.
+ * Every slot also holds a generation that is increased when the slot is released,
+ * so a channel that still holds a released slot can't overwrite the state of the next player using it.
+ * Slots are released when the audio channel of a player is closed, or when they weren't used for {@link #EVICTION_TIMEOUT} and no free slot is left.
+ */
 public class TalkCache {
 
     private static final long TIMEOUT = 250L;
 
-    private static final Talk DEFAULT = new Talk(0L, false);
+    /**
+     * The maximum amount of players that can be tracked at the same time
+     */
+    static final int CAPACITY = 1024;
+    /**
+     * The time in milliseconds after which an unused slot can be reused
+     */
+    private static final long EVICTION_TIMEOUT = 60_000L;
 
-    private final Map<UUID, Talk> cache;
-    private Supplier<Long> timestampSupplier;
+    /**
+     * The timestamp is stored in the 41 bits above the whisper bit, which is enough for more than 69 years after the creation of the cache
+     */
+    private static final long TIMESTAMP_MASK = (1L << 41) - 1L;
+    private static final int GENERATION_SHIFT = 42;
+
+    /**
+     * Used if all slots are taken - It is always released, so it gets requested again
+     */
+    private static final Slot NO_SLOT = new Slot(null, new UUID(0L, 0L), -1, 0L, 0L);
+
+    static {
+        NO_SLOT.released = true;
+    }
+
+    private final Map<UUID, Slot> slots;
+    /**
+     * The generation of the slot, followed by the timestamp of the last audio and a bit that is set if the audio was whispered
+     */
+    private final AtomicLongArray states;
+    private final Queue<Integer> freeSlots;
+    private volatile TimeSource timeSource;
+    private volatile UUID ownId;
 
     public TalkCache() {
-        this.cache = new HashMap<>();
-        this.timestampSupplier = System::currentTimeMillis;
+        this(System::currentTimeMillis, Minecraft.getInstance().getUser().getProfileId());
     }
 
-    public void setTimestampSupplier(Supplier<Long> timestampSupplier) {
-        this.timestampSupplier = timestampSupplier;
+    TalkCache(LongSupplier timestampSupplier, UUID ownId) {
+        this.slots = new ConcurrentHashMap<>();
+        this.states = new AtomicLongArray(CAPACITY);
+        this.freeSlots = new ConcurrentLinkedQueue<>();
+        for (int i = 0; i < CAPACITY; i++) {
+            freeSlots.add(i);
+        }
+        this.timeSource = new TimeSource(timestampSupplier, timestampSupplier.getAsLong());
+        this.ownId = ownId;
     }
 
-    public void updateTalking(UUID entity, boolean whispering) {
-        Talk talk = cache.get(entity);
-        if (talk == null) {
-            talk = new Talk(timestampSupplier.get(), whispering);
-            cache.put(entity, talk);
-        } else {
-            talk.timestamp = timestampSupplier.get();
-            talk.whispering = whispering;
+    /**
+     * The time continues where the previous supplier left off, so the stored times stay valid.
+     *
+     * @param timestampSupplier the supplier of the current time in milliseconds
+     */
+    public void setTimestampSupplier(LongSupplier timestampSupplier) {
+        timeSource = new TimeSource(timestampSupplier, timestampSupplier.getAsLong() - getTime());
+    }
+
+    /**
+     * @return the time in milliseconds since the cache was created
+     */
+    private long getTime() {
+        return timeSource.getTime();
+    }
+
+    /**
+     * @param ownId the UUID of the own player, whose talking state is taken from the microphone
+     */
+    public void setOwnId(UUID ownId) {
+        this.ownId = ownId;
+    }
+
+    /**
+     * Gets the slot of a player or assigns a new one.
+     * The slot should be kept by the caller and only requested again if it was {@link Slot#isReleased() released}.
+     *
+     * @param entity the UUID of the player
+     * @return the slot
+     */
+    public Slot getSlot(UUID entity) {
+        Slot slot = slots.get(entity);
+        if (slot != null) {
+            return slot;
+        }
+        synchronized (freeSlots) {
+            slot = slots.get(entity);
+            if (slot != null) {
+                return slot;
+            }
+            Integer index = freeSlots.poll();
+            if (index == null) {
+                evictUnused();
+                index = freeSlots.poll();
+                if (index == null) {
+                    return NO_SLOT;
+                }
+            }
+            // Released slots already got their new generation and an empty state
+            slot = new Slot(this, entity, index, getGeneration(states.get(index)), getTime());
+            slots.put(entity, slot);
+            return slot;
         }
     }
 
+    /**
+     * Releases the slot of a player.
+     *
+     * @param entity the UUID of the player
+     */
+    public void release(UUID entity) {
+        synchronized (freeSlots) {
+            Slot slot = slots.remove(entity);
+            if (slot != null) {
+                releaseSlot(slot);
+            }
+        }
+    }
+
+    private void evictUnused() {
+        long time = getTime();
+        slots.values().removeIf(slot -> {
+            long lastUsed = Math.max(getTimestamp(states.get(slot.index)), slot.created);
+            if (time - lastUsed < EVICTION_TIMEOUT) {
+                return false;
+            }
+            releaseSlot(slot);
+            return true;
+        });
+    }
+
+    private void releaseSlot(Slot slot) {
+        slot.released = true;
+        states.set(slot.index, (slot.generation + 1L) << GENERATION_SHIFT);
+        freeSlots.add(slot.index);
+    }
+
+    private static long pack(long generation, long timestamp, boolean whispering) {
+        // Adding one, so an empty state can be distinguished from audio at timestamp zero
+        long time = (timestamp + 1L) & TIMESTAMP_MASK;
+        return (generation << GENERATION_SHIFT) | (time << 1) | (whispering ? 1L : 0L);
+    }
+
+    /**
+     * @param state the state of a slot
+     * @return the timestamp of the last audio or <code>-1</code> if there was no audio
+     */
+    private static long getTimestamp(long state) {
+        return ((state >>> 1) & TIMESTAMP_MASK) - 1L;
+    }
+
+    private boolean isRecent(long state) {
+        long timestamp = getTimestamp(state);
+        return timestamp >= 0L && getTime() - timestamp < TIMEOUT;
+    }
+
+    private static long getGeneration(long state) {
+        return state >>> GENERATION_SHIFT;
+    }
+
+    public void updateTalking(UUID entity, boolean whispering) {
+        getSlot(entity).update(whispering);
+    }
+
     public boolean isTalking(Entity entity) {
         return isTalking(entity.getUUID());
     }
@@ -45,7 +198,7 @@ public class TalkCache {
     }
 
     public boolean isTalking(UUID entity) {
-        if (entity.equals(ClientManager.getPlayerStateManager().getOwnID())) {
+        if (entity.equals(ownId)) {
             ClientVoicechat client = ClientManager.getClient();
             if (client != null && client.getMicThread() != null) {
                 if (client.getMicThread().isTalking()) {
@@ -54,12 +207,11 @@ public class TalkCache {
             }
         }
 
-        Talk lastTalk = cache.getOrDefault(entity, DEFAULT);
-        return timestampSupplier.get() - lastTalk.timestamp < TIMEOUT;
+        return isRecent(getState(entity));
     }
 
     public boolean isWhispering(UUID entity) {
-        if (entity.equals(ClientManager.getPlayerStateManager().getOwnID())) {
+        if (entity.equals(ownId)) {
             ClientVoicechat client = ClientManager.getClient();
             if (client != null && client.getMicThread() != null) {
                 if (client.getMicThread().isWhispering()) {
@@ -68,17 +220,86 @@ public class TalkCache {
             }
         }
 
-        Talk lastTalk = cache.getOrDefault(entity, DEFAULT);
-        return lastTalk.whispering && timestampSupplier.get() - lastTalk.timestamp < TIMEOUT;
+        long state = getState(entity);
+        return (state & 1L) != 0L && isRecent(state);
+    }
+
+    private long getState(UUID entity) {
+        Slot slot = slots.get(entity);
+        if (slot == null) {
+            return 0L;
+        }
+        return states.get(slot.index);
+    }
+
+    /**
+     * @return the amount of players that currently have a slot
+     */
+    public int getSlotCount() {
+        return slots.size();
+    }
+
+    public static class Slot {
+        @Nullable
+        private final TalkCache cache;
+        private final UUID entity;
+        private final int index;
+        private final long generation;
+        private final long created;
+        private volatile boolean released;
+
+        private Slot(@Nullable TalkCache cache, UUID entity, int index, long generation, long created) {
+            this.cache = cache;
+            this.entity = entity;
+            this.index = index;
+            this.generation = generation;
+            this.created = created;
+        }
+
+        /**
+         * Marks the player as talking.
+         *
+         * @param whispering if the player is whispering
+         */
+        public void update(boolean whispering) {
+            if (cache == null || released) {
+                return;
+            }
+            long newState = pack(generation, cache.getTime(), whispering);
+            long state = cache.states.get(index);
+            // The slot might have been released and reassigned since the check above
+            while (getGeneration(state) == generation) {
+                if (cache.states.compareAndSet(index, state, newState)) {
+                    return;
+                }
+                state = cache.states.get(index);
+            }
+        }
+
+        public UUID getEntity() {
+            return entity;
+        }
+
+        /**
+         * @return if the slot was released and can't be used anymore
+         */
+        public boolean isReleased() {
+            return released;
+        }
     }
 
-    private static class Talk {
-        private long timestamp;
-        private boolean whispering;
+    private static class TimeSource {
+        private final LongSupplier timestampSupplier;
+        private final long base;
+
+        private TimeSource(LongSupplier timestampSupplier, long base) {
+            this.timestampSupplier = timestampSupplier;
+            this.base = base;
+        }
 
-        public Talk(long timestamp, boolean whispering) {
-            this.timestamp = timestamp;
-            this.whispering = whispering;
+        private long getTime() {
+            // The clock might go backwards
+            return Math.max(timestampSupplier.getAsLong() - base, 0L);
         }
     }
 
@@ -4,9 +4,11 @@ import de.maxhenkel.voicechat.Voicechat;
 import de.maxhenkel.voicechat.voice.client.MicrophoneException;
 import de.maxhenkel.voicechat.voice.client.SoundManager;
 import de.maxhenkel.voicechat.voice.common.Utils;
+import org.lwjgl.BufferUtils;
 import org.lwjgl.openal.*;
 
 import javax.annotation.Nullable;
+import java.nio.FloatBuffer;
 import java.util.Collections;
 import java.util.List;
 
@@ -17,12 +19,17 @@ public class ALMicrophone implements Microphone {
     private final String deviceName;
     private long device;
     private final int bufferSize;
+    /**
+     * The native memory the samples are captured into - Also used to drain the device
+     */
+    private final FloatBuffer captureBuffer;
     private boolean started;
 
     public ALMicrophone(int sampleRate, int bufferSize, @Nullable String deviceName) {
         this.sampleRate = sampleRate;
         this.deviceName = deviceName;
         this.bufferSize = bufferSize;
+        this.captureBuffer = BufferUtils.createFloatBuffer(bufferSize);
     }
 
     @Override
@@ -63,9 +70,14 @@ public class ALMicrophone implements Microphone {
         started = false;
 
         int available = available();
-        float[] data = new float[available];
-        ALC11.alcCaptureSamples(device, data, data.length);
-        SoundManager.checkAlcError(device);
+        int remaining = available;
+        while (remaining > 0) {
+            int samples = Math.min(remaining, bufferSize);
+            captureBuffer.clear();
+            ALC11.alcCaptureSamples(device, captureBuffer, samples);
+            SoundManager.checkAlcError(device);
+            remaining -= samples;
+        }
         Voicechat.LOGGER.debug("Clearing {} samples", available);
     }
 
@@ -98,16 +110,16 @@ public class ALMicrophone implements Microphone {
     }
 
     @Override
-    public short[] read() {
+    public short[] read(short[] frame) {
         int available = available();
         if (bufferSize > available) {
             throw new IllegalStateException(String.format("Failed to read from microphone: Capacity %s, available %s", bufferSize, available));
         }
-        float[] buff = new float[bufferSize];
-        ALC11.alcCaptureSamples(device, buff, buff.length);
+        captureBuffer.clear();
+        ALC11.alcCaptureSamples(device, captureBuffer, bufferSize);
         SoundManager.checkAlcError(device);
 
-        return Utils.floatsToShortsNormalized(buff);
+        return Utils.floatsToShortsNormalized(captureBuffer, frame);
     }
 
     private long openMic(@Nullable String name) throws MicrophoneException {
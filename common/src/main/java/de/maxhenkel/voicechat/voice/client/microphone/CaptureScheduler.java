@@ -0,0 +1,112 @@
+package de.maxhenkel.voicechat.voice.client.microphone;
+
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Waits until the microphone captured a full frame.
+ * Instead of polling in a fixed interval, the time until the missing samples are captured is calculated from the sample rate and the thread is parked until then.
+ * <p>
+ * The latency is the time the newest sample was already waiting when the frame was read.
+ */
+public class CaptureScheduler {
+
+    /**
+     * The minimum time to park in nanoseconds, in case the device delivers the samples later than expected
+     */
+    private static final long MIN_PARK_TIME = 1_000_000L;
+    /**
+     * The maximum time to wait for a frame in nanoseconds, so the caller can react to state changes
+     */
+    private static final long MAX_WAIT_TIME = 100_000_000L;
+
+    private final int sampleRate;
+    private final int frameSize;
+
+    private volatile long frames;
+    private volatile long wakeups;
+    private volatile long lastLatency;
+    private volatile long maxLatency;
+    private volatile long totalLatency;
+
+    public CaptureScheduler(int sampleRate, int frameSize) {
+        this.sampleRate = sampleRate;
+        this.frameSize = frameSize;
+    }
+
+    /**
+     * Waits until a full frame is available.
+     *
+     * @param mic the microphone
+     * @return if a frame is available or <code>false</code> if it took longer than {@link #MAX_WAIT_TIME}
+     */
+    public boolean awaitFrame(Microphone mic) {
+        long start = System.nanoTime();
+        while (true) {
+            int available = mic.available();
+            if (available >= frameSize) {
+                onFrame(available - frameSize);
+                return true;
+            }
+            if (System.nanoTime() - start >= MAX_WAIT_TIME) {
+                return false;
+            }
+            LockSupport.parkNanos(Math.max(samplesToNanos(frameSize - available), MIN_PARK_TIME));
+            wakeups++;
+        }
+    }
+
+    private void onFrame(int excessSamples) {
+        long latency = samplesToNanos(excessSamples);
+        lastLatency = latency;
+        totalLatency += latency;
+        if (latency > maxLatency) {
+            maxLatency = latency;
+        }
+        frames++;
+    }
+
+    private long samplesToNanos(int samples) {
+        return samples * 1_000_000_000L / sampleRate;
+    }
+
+    public long getFrames() {
+        return frames;
+    }
+
+    /**
+     * @return the average amount of times the thread was parked per frame
+     */
+    public float getWakeupsPerFrame() {
+        long f = frames;
+        if (f <= 0L) {
+            return 0F;
+        }
+        return (float) wakeups / (float) f;
+    }
+
+    /**
+     * @return the latency of the last frame in nanoseconds
+     */
+    public long getLastLatency() {
+        return lastLatency;
+    }
+
+    /**
+     * @return the highest latency in nanoseconds
+     */
+    public long getMaxLatency() {
+        return maxLatency;
+    }
+
+    /**
+     * @return the average latency in nanoseconds
+     */
+    public long getAverageLatency() {
+        long f = frames;
+        if (f <= 0L) {
+            return 0L;
+        }
+        return totalLatency / f;
+    }
+
+}
@@ -16,6 +16,7 @@ public class JavaxMicrophone implements Microphone {
     @Nullable
     private final String deviceName;
     private final int bufferSize;
+    private final byte[] byteBuffer;
     @Nullable
     private TargetDataLine mic;
 
@@ -23,6 +24,7 @@ public class JavaxMicrophone implements Microphone {
         this.sampleRate = sampleRate;
         this.deviceName = deviceName;
         this.bufferSize = bufferSize;
+        this.byteBuffer = new byte[bufferSize * 2];
     }
 
     @Override
@@ -109,7 +111,7 @@ public class JavaxMicrophone implements Microphone {
     }
 
     @Override
-    public short[] read() {
+    public short[] read(short[] frame) {
         if (mic == null) {
             throw new IllegalStateException("Microphone was not opened");
         }
@@ -117,9 +119,8 @@ public class JavaxMicrophone implements Microphone {
         if (bufferSize > available) {
             throw new IllegalStateException(String.format("Failed to read from microphone: Capacity %s, available %s", bufferSize, available));
         }
-        byte[] buff = new byte[bufferSize * 2];
-        mic.read(buff, 0, buff.length);
-        return Utils.bytesToShorts(buff);
+        mic.read(byteBuffer, 0, byteBuffer.length);
+        return Utils.bytesToShorts(byteBuffer, frame);
     }
 
     @Nullable
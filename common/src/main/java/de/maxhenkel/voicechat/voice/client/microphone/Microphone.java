@@ -18,6 +18,12 @@ public interface Microphone {
 
     int available();
 
-    short[] read();
+    /**
+     * Reads one frame from the microphone into the provided frame
+     *
+     * @param frame the frame to write the audio into - needs to be at least the size of the microphone buffer
+     * @return the provided frame
+     */
+    short[] read(short[] frame);
 
 }
@@ -1,6 +1,7 @@
 package de.maxhenkel.voicechat.voice.client.speaker;
 
 import de.maxhenkel.voicechat.voice.client.SoundManager;
+import de.maxhenkel.voicechat.voice.common.AudioFramePool;
 import org.lwjgl.openal.AL11;
 
 import javax.annotation.Nullable;
@@ -8,8 +9,8 @@ import java.util.UUID;
 
 public class ALSpeaker extends ALSpeakerBase {
 
-    public ALSpeaker(SoundManager soundManager, int sampleRate, int bufferSize, @Nullable UUID audioChannelId) {
-        super(soundManager, sampleRate, bufferSize, audioChannelId);
+    public ALSpeaker(SoundManager soundManager, int sampleRate, int bufferSize, @Nullable UUID audioChannelId, @Nullable AudioFramePool framePool) {
+        super(soundManager, sampleRate, bufferSize, audioChannelId, framePool);
     }
 
     @Override
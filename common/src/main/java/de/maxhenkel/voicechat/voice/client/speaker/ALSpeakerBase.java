@@ -5,15 +5,17 @@ import de.maxhenkel.voicechat.VoicechatClient;
 import de.maxhenkel.voicechat.api.events.OpenALSoundEvent;
 import de.maxhenkel.voicechat.plugins.PluginManager;
 import de.maxhenkel.voicechat.voice.client.SoundManager;
+import de.maxhenkel.voicechat.voice.common.AudioFramePool;
 import de.maxhenkel.voicechat.voice.common.NamedThreadPoolFactory;
 import de.maxhenkel.voicechat.voice.common.Utils;
-import net.minecraft.client.Camera;
 import net.minecraft.client.Minecraft;
 import net.minecraft.world.phys.Vec3;
-import org.joml.Vector3f;
+import org.lwjgl.BufferUtils;
 import org.lwjgl.openal.AL11;
 
 import javax.annotation.Nullable;
+import java.nio.IntBuffer;
+import java.nio.ShortBuffer;
 import java.util.UUID;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
@@ -30,18 +32,42 @@ public abstract class ALSpeakerBase implements Speaker {
     protected volatile int bufferIndex;
     protected final int[] buffers;
     protected final ExecutorService executor;
+    private final IntBuffer unqueueBuffer;
+    private final IntBuffer queueBuffer;
+    /**
+     * The native memory the audio is converted into, before it is copied to the OpenAL buffer
+     */
+    private ShortBuffer pcmBuffer;
+
+    // The source properties that were set last, so they are only set again if they change
+    private float sourceGain;
+    private float sourceMaxDistance;
+    private float sourceReferenceDistance;
+    private int sourceRelative;
+    private float sourceX;
+    private float sourceY;
+    private float sourceZ;
 
     @Nullable
     protected UUID audioChannelId;
+    @Nullable
+    protected final AudioFramePool framePool;
+    @Nullable
+    private short[] silence;
 
-    public ALSpeakerBase(SoundManager soundManager, int sampleRate, int bufferSize, @Nullable UUID audioChannelId) {
+    public ALSpeakerBase(SoundManager soundManager, int sampleRate, int bufferSize, @Nullable UUID audioChannelId, @Nullable AudioFramePool framePool) {
         mc = Minecraft.getInstance();
         this.soundManager = soundManager;
         this.sampleRate = sampleRate;
         this.bufferSize = bufferSize;
         this.bufferSampleSize = bufferSize;
         this.audioChannelId = audioChannelId;
+        this.framePool = framePool;
         this.buffers = new int[32];
+        this.unqueueBuffer = BufferUtils.createIntBuffer(buffers.length);
+        this.queueBuffer = BufferUtils.createIntBuffer(buffers.length);
+        this.pcmBuffer = BufferUtils.createShortBuffer(bufferSize * getChannels());
+        invalidateSourceProperties();
         String threadName;
         if (audioChannelId == null) {
             threadName = "SoundSourceThread";
@@ -64,31 +90,48 @@ public abstract class ALSpeakerBase implements Speaker {
         SoundManager.checkAlError();
         AL11.alSourcei(source, AL11.AL_LOOPING, AL11.AL_FALSE);
         SoundManager.checkAlError();
-
-        AL11.alDistanceModel(AL11.AL_LINEAR_DISTANCE);
-        SoundManager.checkAlError();
-        AL11.alSourcef(source, AL11.AL_MAX_DISTANCE, Utils.getDefaultDistance());
-        SoundManager.checkAlError();
-        AL11.alSourcef(source, AL11.AL_REFERENCE_DISTANCE, 0F);
+        AL11.alSourcef(source, AL11.AL_MAX_GAIN, 6F);
         SoundManager.checkAlError();
 
+        invalidateSourceProperties();
+        soundManager.setDistanceModelSync(AL11.AL_LINEAR_DISTANCE);
+        setAttenuationSync(Utils.getDefaultDistance(), 0F);
+
         AL11.alGenBuffers(buffers);
         SoundManager.checkAlError();
     }
 
+    /**
+     * Forces all source properties to be set again on the next write.
+     */
+    protected void invalidateSourceProperties() {
+        sourceGain = Float.NaN;
+        sourceMaxDistance = Float.NaN;
+        sourceReferenceDistance = Float.NaN;
+        sourceRelative = -1;
+        sourceX = Float.NaN;
+        sourceY = Float.NaN;
+        sourceZ = Float.NaN;
+    }
+
     @Override
-    public void play(short[] data, float volume, @Nullable Vec3 position, @Nullable String category, float maxDistance) {
+    public void play(short[] data, float volume, @Nullable Vec3 position, @Nullable String category, float maxDistance, boolean release) {
         runInContext(() -> {
             removeProcessedBuffersSync();
             boolean stopped = isStoppedSync();
             if (stopped) {
                 Voicechat.LOGGER.debug("Filling playback buffer {}", audioChannelId);
+                short[] silence = getSilence();
                 for (int i = 0; i < getBufferSize(); i++) {
-                    writeSync(new short[bufferSize], 1F, position, category, maxDistance);
+                    bufferSync(silence, position);
                 }
             }
 
             writeSync(data, volume, position, category, maxDistance);
+            if (release && framePool != null) {
+                // The audio data is copied by OpenAL, so the frame can be reused
+                framePool.release(data);
+            }
 
             if (stopped) {
                 AL11.alSourcePlay(source);
@@ -97,27 +140,39 @@ public abstract class ALSpeakerBase implements Speaker {
         });
     }
 
+    private short[] getSilence() {
+        if (silence == null || silence.length != bufferSize) {
+            silence = new short[bufferSize];
+        }
+        return silence;
+    }
+
     protected boolean isStoppedSync() {
-        return getStateSync() == AL11.AL_INITIAL || getStateSync() == AL11.AL_STOPPED || getQueuedBuffersSync() <= 0;
+        int state = getStateSync();
+        return state == AL11.AL_INITIAL || state == AL11.AL_STOPPED || getQueuedBuffersSync() <= 0;
     }
 
     protected int getBufferSize() {
         return VoicechatClient.CLIENT_CONFIG.outputBufferSize.get();
     }
 
+    /**
+     * Sets up the source and queues the audio, together with all buffers that were filled by {@link #bufferSync(short[], Vec3)} before.
+     */
     protected void writeSync(short[] data, float volume, @Nullable Vec3 position, @Nullable String category, float maxDistance) {
-        PluginManager.instance().onALSound(source, audioChannelId, position, category, OpenALSoundEvent.Pre.class);
+        PluginManager pluginManager = PluginManager.instance();
+        if (pluginManager.hasALSoundListeners()) {
+            // Plugins might change the source or the listener
+            invalidateSourceProperties();
+            soundManager.invalidateContextState();
+        }
+        pluginManager.onALSound(source, audioChannelId, position, category, OpenALSoundEvent.Pre.class);
         setPositionSync(position, maxDistance);
-        PluginManager.instance().onALSound(source, audioChannelId, position, category, OpenALSoundEvent.class);
+        pluginManager.onALSound(source, audioChannelId, position, category, OpenALSoundEvent.class);
 
-        AL11.alSourcef(source, AL11.AL_MAX_GAIN, 6F);
-        SoundManager.checkAlError();
-        AL11.alSourcef(source, AL11.AL_GAIN, getVolume(volume, position, maxDistance));
-        SoundManager.checkAlError();
-        AL11.alListenerf(AL11.AL_GAIN, 1F);
-        SoundManager.checkAlError();
+        setGainSync(getVolume(volume, position, maxDistance));
 
-        int queuedBuffers = getQueuedBuffersSync();
+        int queuedBuffers = getQueuedBuffersSync() + queueBuffer.position();
         if (queuedBuffers >= buffers.length) {
             Voicechat.LOGGER.warn("Full playback buffer: {}/{}", queuedBuffers, buffers.length);
             int sampleOffset = AL11.alGetSourcei(source, AL11.AL_SAMPLE_OFFSET);
@@ -128,13 +183,82 @@ public abstract class ALSpeakerBase implements Speaker {
             removeProcessedBuffersSync();
         }
 
-        AL11.alBufferData(buffers[bufferIndex], getFormat(), convert(data, position), sampleRate);
-        SoundManager.checkAlError();
-        AL11.alSourceQueueBuffers(source, buffers[bufferIndex]);
+        bufferSync(data, position);
+        queueBuffersSync();
+
+        pluginManager.onALSound(source, audioChannelId, position, category, OpenALSoundEvent.Post.class);
+    }
+
+    /**
+     * Fills the next buffer with audio, without queueing it yet.
+     */
+    protected void bufferSync(short[] data, @Nullable Vec3 position) {
+        if (!queueBuffer.hasRemaining()) {
+            queueBuffersSync();
+        }
+        int size = data.length * getChannels();
+        if (pcmBuffer.capacity() < size) {
+            pcmBuffer = BufferUtils.createShortBuffer(size);
+        }
+        pcmBuffer.clear();
+        convert(data, position, pcmBuffer);
+        pcmBuffer.flip();
+        // OpenAL copies the data, so the PCM buffer can be reused immediately
+        AL11.alBufferData(buffers[bufferIndex], getFormat(), pcmBuffer, sampleRate);
         SoundManager.checkAlError();
+        queueBuffer.put(buffers[bufferIndex]);
         bufferIndex = (bufferIndex + 1) % buffers.length;
+    }
 
-        PluginManager.instance().onALSound(source, audioChannelId, position, category, OpenALSoundEvent.Post.class);
+    /**
+     * Queues all filled buffers with a single call.
+     */
+    protected void queueBuffersSync() {
+        if (queueBuffer.position() <= 0) {
+            return;
+        }
+        queueBuffer.flip();
+        AL11.alSourceQueueBuffers(source, queueBuffer);
+        SoundManager.checkAlError();
+        queueBuffer.clear();
+    }
+
+    protected void setGainSync(float gain) {
+        if (sourceGain == gain) {
+            return;
+        }
+        sourceGain = gain;
+        AL11.alSourcef(source, AL11.AL_GAIN, gain);
+        SoundManager.checkAlError();
+    }
+
+    protected void setAttenuationSync(float maxDistance, float referenceDistance) {
+        if (sourceMaxDistance != maxDistance) {
+            sourceMaxDistance = maxDistance;
+            AL11.alSourcef(source, AL11.AL_MAX_DISTANCE, maxDistance);
+            SoundManager.checkAlError();
+        }
+        if (sourceReferenceDistance != referenceDistance) {
+            sourceReferenceDistance = referenceDistance;
+            AL11.alSourcef(source, AL11.AL_REFERENCE_DISTANCE, referenceDistance);
+            SoundManager.checkAlError();
+        }
+    }
+
+    protected void setSourcePositionSync(boolean relative, float x, float y, float z) {
+        int rel = relative ? AL11.AL_TRUE : AL11.AL_FALSE;
+        if (sourceRelative != rel) {
+            sourceRelative = rel;
+            AL11.alSourcei(source, AL11.AL_SOURCE_RELATIVE, rel);
+            SoundManager.checkAlError();
+        }
+        if (sourceX != x || sourceY != y || sourceZ != z) {
+            sourceX = x;
+            sourceY = y;
+            sourceZ = z;
+            AL11.alSource3f(source, AL11.AL_POSITION, x, y, z);
+            SoundManager.checkAlError();
+        }
     }
 
     protected float getVolume(float volume, @Nullable Vec3 position, float maxDistance) {
@@ -142,43 +266,38 @@ public abstract class ALSpeakerBase implements Speaker {
     }
 
     protected void linearAttenuation(float maxDistance) {
-        AL11.alDistanceModel(AL11.AL_LINEAR_DISTANCE);
-        SoundManager.checkAlError();
-
-        AL11.alSourcef(source, AL11.AL_MAX_DISTANCE, maxDistance);
-        SoundManager.checkAlError();
-
-        AL11.alSourcef(source, AL11.AL_REFERENCE_DISTANCE, maxDistance / 2F);
-        SoundManager.checkAlError();
+        soundManager.setDistanceModelSync(AL11.AL_LINEAR_DISTANCE);
+        setAttenuationSync(maxDistance, maxDistance / 2F);
     }
 
     protected abstract int getFormat();
 
-    protected short[] convert(short[] data, @Nullable Vec3 position) {
-        return data;
+    /**
+     * @return the amount of channels of the {@link #getFormat() format}
+     */
+    protected int getChannels() {
+        return 1;
+    }
+
+    /**
+     * Writes the audio into the buffer in the {@link #getFormat() format} of the speaker.
+     *
+     * @param data     the mono audio
+     * @param position the position of the sound
+     * @param target   the buffer to write to
+     */
+    protected void convert(short[] data, @Nullable Vec3 position, ShortBuffer target) {
+        target.put(data);
     }
 
     protected void setPositionSync(@Nullable Vec3 soundPos, float maxDistance) {
-        Camera camera = mc.gameRenderer.getMainCamera();
-        Vec3 position = camera.getPosition();
-        Vector3f look = camera.getLookVector();
-        Vector3f up = camera.getUpVector();
-        AL11.alListener3f(AL11.AL_POSITION, (float) position.x, (float) position.y, (float) position.z);
-        SoundManager.checkAlError();
-        AL11.alListenerfv(AL11.AL_ORIENTATION, new float[]{look.x(), look.y(), look.z(), up.x(), up.y(), up.z()});
-        SoundManager.checkAlError();
+        soundManager.updateListenerSync();
         if (soundPos != null) {
             linearAttenuation(maxDistance);
-            AL11.alSourcei(source, AL11.AL_SOURCE_RELATIVE, AL11.AL_FALSE);
-            SoundManager.checkAlError();
-            AL11.alSource3f(source, AL11.AL_POSITION, (float) soundPos.x, (float) soundPos.y, (float) soundPos.z);
-            SoundManager.checkAlError();
+            setSourcePositionSync(false, (float) soundPos.x, (float) soundPos.y, (float) soundPos.z);
         } else {
             linearAttenuation(48F);
-            AL11.alSourcei(source, AL11.AL_SOURCE_RELATIVE, AL11.AL_TRUE);
-            SoundManager.checkAlError();
-            AL11.alSource3f(source, AL11.AL_POSITION, 0F, 0F, 0F);
-            SoundManager.checkAlError();
+            setSourcePositionSync(true, 0F, 0F, 0F);
         }
     }
 
@@ -214,10 +333,13 @@ public abstract class ALSpeakerBase implements Speaker {
     protected void removeProcessedBuffersSync() {
         int processed = AL11.alGetSourcei(source, AL11.AL_BUFFERS_PROCESSED);
         SoundManager.checkAlError();
-        for (int i = 0; i < processed; i++) {
-            AL11.alSourceUnqueueBuffers(source);
-            SoundManager.checkAlError();
+        if (processed <= 0) {
+            return;
         }
+        unqueueBuffer.clear();
+        unqueueBuffer.limit(Math.min(processed, unqueueBuffer.capacity()));
+        AL11.alSourceUnqueueBuffers(source, unqueueBuffer);
+        SoundManager.checkAlError();
     }
 
     protected int getStateSync() {
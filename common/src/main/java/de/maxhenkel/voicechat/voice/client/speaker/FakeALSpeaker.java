@@ -2,29 +2,35 @@ package de.maxhenkel.voicechat.voice.client.speaker;
 
 import de.maxhenkel.voicechat.voice.client.PositionalAudioUtils;
 import de.maxhenkel.voicechat.voice.client.SoundManager;
+import de.maxhenkel.voicechat.voice.common.AudioFramePool;
 import net.minecraft.world.phys.Vec3;
 import org.lwjgl.openal.AL11;
 
 import javax.annotation.Nullable;
+import java.nio.ShortBuffer;
 import java.util.UUID;
 
 public class FakeALSpeaker extends ALSpeakerBase {
 
-    public FakeALSpeaker(SoundManager soundManager, int sampleRate, int bufferSize, @Nullable UUID audioChannelId) {
-        super(soundManager, sampleRate, bufferSize, audioChannelId);
+    public FakeALSpeaker(SoundManager soundManager, int sampleRate, int bufferSize, @Nullable UUID audioChannelId, @Nullable AudioFramePool framePool) {
+        super(soundManager, sampleRate, bufferSize, audioChannelId, framePool);
         this.bufferSize *= 2;
     }
 
     @Override
     protected void openSync() {
         super.openSync();
-        AL11.alDistanceModel(AL11.AL_NONE);
-        SoundManager.checkAlError();
+        soundManager.setDistanceModelSync(AL11.AL_NONE);
     }
 
     @Override
-    protected short[] convert(short[] data, @Nullable Vec3 position) {
-        return PositionalAudioUtils.convertToStereo(data, position);
+    protected int getChannels() {
+        return 2;
+    }
+
+    @Override
+    protected void convert(short[] data, @Nullable Vec3 position, ShortBuffer target) {
+        PositionalAudioUtils.convertToStereo(data, position, target);
     }
 
     @Override
@@ -2,6 +2,7 @@ package de.maxhenkel.voicechat.voice.client.speaker;
 
 import de.maxhenkel.voicechat.voice.client.PositionalAudioUtils;
 import de.maxhenkel.voicechat.voice.client.SoundManager;
+import de.maxhenkel.voicechat.voice.common.AudioFramePool;
 import net.minecraft.world.phys.Vec3;
 import org.lwjgl.openal.AL11;
 
@@ -10,15 +11,14 @@ import java.util.UUID;
 
 public class MonoALSpeaker extends ALSpeakerBase {
 
-    public MonoALSpeaker(SoundManager soundManager, int sampleRate, int bufferSize, @Nullable UUID audioChannelId) {
-        super(soundManager, sampleRate, bufferSize, audioChannelId);
+    public MonoALSpeaker(SoundManager soundManager, int sampleRate, int bufferSize, @Nullable UUID audioChannelId, @Nullable AudioFramePool framePool) {
+        super(soundManager, sampleRate, bufferSize, audioChannelId, framePool);
     }
 
     @Override
     protected void openSync() {
         super.openSync();
-        AL11.alDistanceModel(AL11.AL_NONE);
-        SoundManager.checkAlError();
+        soundManager.setDistanceModelSync(AL11.AL_NONE);
     }
 
     @Override
@@ -31,11 +31,6 @@ public class MonoALSpeaker extends ALSpeakerBase {
 
     }
 
-    @Override
-    protected short[] convert(short[] data, @Nullable Vec3 position) {
-        return data;
-    }
-
     @Override
     protected float getVolume(float volume, @Nullable Vec3 position, float maxDistance) {
         if (position == null) {
@@ -8,10 +8,28 @@ public interface Speaker {
 
     void open() throws SpeakerException;
 
-    void play(short[] data, float volume, @Nullable Vec3 position, @Nullable String category, float maxDistance);
+    /**
+     * Plays the audio.
+     *
+     * @param data        the audio
+     * @param volume      the volume
+     * @param position    the position of the audio or <code>null</code> if the audio isn't positional
+     * @param category    the volume category
+     * @param maxDistance the maximum distance the audio can be heard
+     * @param release     if the audio should be returned to the frame pool of the speaker, once it was buffered - The caller needs to own the audio and must not use it afterwards
+     */
+    void play(short[] data, float volume, @Nullable Vec3 position, @Nullable String category, float maxDistance, boolean release);
+
+    default void play(short[] data, float volume, @Nullable Vec3 position, @Nullable String category, float maxDistance) {
+        play(data, volume, position, category, maxDistance, false);
+    }
+
+    default void play(short[] data, float volume, @Nullable String category, boolean release) {
+        play(data, volume, null, category, 0F, release);
+    }
 
     default void play(short[] data, float volume, @Nullable String category) {
-        play(data, volume, null, category, 0F);
+        play(data, volume, category, false);
     }
 
     void close();
@@ -0,0 +1,57 @@
+package de.maxhenkel.voicechat.voice.common;
+
+import javax.annotation.Nullable;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * A bounded pool of fixed size 16 bit PCM frames.
+ * Every audio pipeline thread (microphone, audio channels) owns one pool.
+ * Frames can be released from any thread, so speakers can hand frames back after they were buffered.
+ */
+public class AudioFramePool {
+
+    private final int frameSize;
+    private final BlockingQueue<short[]> frames;
+
+    public AudioFramePool(int frameSize, int capacity) {
+        this.frameSize = frameSize;
+        this.frames = new ArrayBlockingQueue<>(capacity);
+    }
+
+    /**
+     * Note that the contents of the returned frame are undefined
+     *
+     * @return a frame with the size of this pool
+     */
+    public short[] acquire() {
+        short[] frame = frames.poll();
+        if (frame == null) {
+            return new short[frameSize];
+        }
+        return frame;
+    }
+
+    /**
+     * Returns the frame to the pool.
+     * Frames that don't match the size of this pool are ignored.
+     * The frame must not be used by the caller after releasing it.
+     *
+     * @param frame the frame
+     */
+    public void release(@Nullable short[] frame) {
+        if (frame == null || frame.length != frameSize) {
+            return;
+        }
+        frames.offer(frame);
+    }
+
+    public int getFrameSize() {
+        return frameSize;
+    }
+
+    public int getPooledFrames() {
+        return frames.size();
+    }
+
+}
@@ -0,0 +1,80 @@
+package de.maxhenkel.voicechat.voice.common;
+
+import javax.annotation.Nullable;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A bounded queue of audio frames between exactly one producer and one consumer thread.
+ * Neither side locks or allocates.
+ */
+public class FrameRingBuffer {
+
+    private final short[][] frames;
+    private final int mask;
+    /**
+     * The index of the next frame to poll - Only written by the consumer
+     */
+    private final AtomicLong head;
+    /**
+     * The index of the next frame to offer - Only written by the producer
+     */
+    private final AtomicLong tail;
+
+    /**
+     * @param capacity the maximum amount of frames - needs to be a power of two
+     */
+    public FrameRingBuffer(int capacity) {
+        if (Integer.bitCount(capacity) != 1) {
+            throw new IllegalArgumentException("Capacity needs to be a power of two");
+        }
+        this.frames = new short[capacity][];
+        this.mask = capacity - 1;
+        this.head = new AtomicLong();
+        this.tail = new AtomicLong();
+    }
+
+    /**
+     * Adds a frame.
+     * Must only be called by the producer thread.
+     *
+     * @param frame the frame
+     * @return <code>false</code> if the buffer is full
+     */
+    public boolean offer(short[] frame) {
+        long t = tail.get();
+        if (t - head.get() >= frames.length) {
+            return false;
+        }
+        frames[(int) (t & mask)] = frame;
+        tail.lazySet(t + 1L);
+        return true;
+    }
+
+    /**
+     * Removes the oldest frame.
+     * Must only be called by the consumer thread.
+     *
+     * @return the frame or <code>null</code> if the buffer is empty
+     */
+    @Nullable
+    public short[] poll() {
+        long h = head.get();
+        if (h >= tail.get()) {
+            return null;
+        }
+        int index = (int) (h & mask);
+        short[] frame = frames[index];
+        frames[index] = null;
+        head.lazySet(h + 1L);
+        return frame;
+    }
+
+    public int size() {
+        return (int) (tail.get() - head.get());
+    }
+
+    public int getCapacity() {
+        return frames.length;
+    }
+
+}
@@ -31,6 +31,7 @@ public class GroupSoundPacket extends SoundPacket<GroupSoundPacket> {
         if (hasFlag(data, HAS_CATEGORY_MASK)) {
             soundPacket.category = buf.readUtf(16);
         }
+        soundPacket.readDiscontinuity(data, buf);
         return soundPacket;
     }
 
@@ -45,10 +46,12 @@ public class GroupSoundPacket extends SoundPacket<GroupSoundPacket> {
         if (category != null) {
             data = setFlag(data, HAS_CATEGORY_MASK);
         }
+        data = setDiscontinuityFlags(data);
         buf.writeByte(data);
         if (category != null) {
             buf.writeUtf(category, 16);
         }
+        writeSuppressedFrames(buf);
     }
 
 }
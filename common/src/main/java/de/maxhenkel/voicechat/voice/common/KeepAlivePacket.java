@@ -2,19 +2,191 @@ package de.maxhenkel.voicechat.voice.common;
 
 import net.minecraft.network.FriendlyByteBuf;
 
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.UUID;
+
 public class KeepAlivePacket implements Packet<KeepAlivePacket> {
 
+    /**
+     * The value of every server statistic that isn't known
+     */
+    public static final int UNKNOWN = -1;
+
+    /**
+     * The maximum amount of packet loss reports a client sends with a single keep alive
+     */
+    public static final int MAX_LOSS_REPORTS = 64;
+
+    private static final byte DISCONTINUOUS_TRANSMISSION_MASK = 0b1;
+    private static final byte LOSS_REPORTS_MASK = 0b10;
+    private static final int UNKNOWN_PERCENTAGE = 0xFF;
+    private static final int UNKNOWN_SHORT = 0xFFFF;
+
+    private int serverLoad;
+    private int roundTripTime;
+    private int listeners;
+    private boolean discontinuousTransmission;
+    private int packetLoss;
+    private Map<UUID, Integer> lossReports;
+
     public KeepAlivePacket() {
+        this(false, Collections.emptyMap());
+    }
+
+    /**
+     * Creates a keep alive packet without any server statistics.
+     * This is what the client sends back to the server.
+     *
+     * @param discontinuousTransmission if the client supports discontinuous transmission
+     * @param lossReports               the packet loss in percent (0-100) the client measured on the audio of other players - Keyed by the player UUID
+     */
+    public KeepAlivePacket(boolean discontinuousTransmission, Map<UUID, Integer> lossReports) {
+        this(UNKNOWN, UNKNOWN, UNKNOWN, discontinuousTransmission, UNKNOWN);
+        this.lossReports = lossReports;
+    }
 
+    /**
+     * @param serverLoad                the load of the voice chat server in percent (0-100)
+     * @param roundTripTime             the round trip time between the server and the client in milliseconds
+     * @param listeners                 the amount of players that received the last audio of the client
+     * @param discontinuousTransmission if clients are allowed to stop transmitting silent frames
+     * @param packetLoss                the packet loss in percent (0-100) the receivers of the clients audio reported
+     */
+    public KeepAlivePacket(int serverLoad, int roundTripTime, int listeners, boolean discontinuousTransmission, int packetLoss) {
+        this.serverLoad = serverLoad;
+        this.roundTripTime = roundTripTime;
+        this.listeners = listeners;
+        this.discontinuousTransmission = discontinuousTransmission;
+        this.packetLoss = packetLoss;
+        this.lossReports = Collections.emptyMap();
+    }
+
+    public int getServerLoad() {
+        return serverLoad;
+    }
+
+    public int getRoundTripTime() {
+        return roundTripTime;
+    }
+
+    public int getListeners() {
+        return listeners;
+    }
+
+    /**
+     * Sent by the client, this means that it supports discontinuous transmission.
+     * Sent by the server, this means that all connected clients support it, so clients can stop transmitting silent frames.
+     *
+     * @return if discontinuous transmission is supported
+     */
+    public boolean isDiscontinuousTransmission() {
+        return discontinuousTransmission;
+    }
+
+    /**
+     * Sent by the server - The packet loss on the way from the client to the players that receive its audio.
+     *
+     * @return the packet loss in percent (0-100) or {@link #UNKNOWN} if no receiver reported it
+     */
+    public int getPacketLoss() {
+        return packetLoss;
+    }
+
+    /**
+     * Sent by the client - The packet loss the client measured on the audio of other players.
+     *
+     * @return the packet loss in percent (0-100) keyed by the UUID of the sending player
+     */
+    public Map<UUID, Integer> getLossReports() {
+        return lossReports;
+    }
+
+    public boolean hasServerStats() {
+        return serverLoad >= 0;
     }
 
     @Override
     public KeepAlivePacket fromBytes(FriendlyByteBuf buf) {
-        return new KeepAlivePacket();
+        KeepAlivePacket packet = new KeepAlivePacket();
+        // Older versions send empty keep alive packets
+        if (buf.readableBytes() >= 5) {
+            packet.serverLoad = readPercentage(buf);
+            packet.roundTripTime = readShort(buf);
+            packet.listeners = readShort(buf);
+        }
+        // Older versions don't send any flags
+        if (buf.readableBytes() < 1) {
+            return packet;
+        }
+        byte flags = buf.readByte();
+        packet.discontinuousTransmission = (flags & DISCONTINUOUS_TRANSMISSION_MASK) != 0;
+        // Older versions don't send the packet loss
+        if (buf.readableBytes() < 1) {
+            return packet;
+        }
+        packet.packetLoss = readPercentage(buf);
+        if ((flags & LOSS_REPORTS_MASK) != 0) {
+            int count = Math.min(buf.readVarInt(), MAX_LOSS_REPORTS);
+            Map<UUID, Integer> lossReports = new LinkedHashMap<>(count);
+            for (int i = 0; i < count; i++) {
+                UUID uuid = buf.readUUID();
+                int loss = readPercentage(buf);
+                if (loss >= 0) {
+                    lossReports.put(uuid, loss);
+                }
+            }
+            packet.lossReports = lossReports;
+        }
+        return packet;
     }
 
     @Override
     public void toBytes(FriendlyByteBuf buf) {
+        // Clients send unknown statistics, so the packet loss reports always follow the flags
+        writePercentage(buf, serverLoad);
+        writeShort(buf, roundTripTime);
+        writeShort(buf, listeners);
+        int reportCount = Math.min(lossReports.size(), MAX_LOSS_REPORTS);
+        byte flags = 0b0;
+        if (discontinuousTransmission) {
+            flags |= DISCONTINUOUS_TRANSMISSION_MASK;
+        }
+        if (reportCount > 0) {
+            flags |= LOSS_REPORTS_MASK;
+        }
+        buf.writeByte(flags);
+        writePercentage(buf, packetLoss);
+        if (reportCount <= 0) {
+            return;
+        }
+        buf.writeVarInt(reportCount);
+        int written = 0;
+        for (Map.Entry<UUID, Integer> entry : lossReports.entrySet()) {
+            if (written++ >= reportCount) {
+                break;
+            }
+            buf.writeUUID(entry.getKey());
+            writePercentage(buf, entry.getValue());
+        }
+    }
+
+    private static int readShort(FriendlyByteBuf buf) {
+        int value = buf.readUnsignedShort();
+        return value == UNKNOWN_SHORT ? UNKNOWN : value;
+    }
+
+    private static void writeShort(FriendlyByteBuf buf, int value) {
+        buf.writeShort(value < 0 ? UNKNOWN_SHORT : Math.min(value, UNKNOWN_SHORT - 1));
+    }
+
+    private static int readPercentage(FriendlyByteBuf buf) {
+        int percentage = buf.readUnsignedByte();
+        return percentage == UNKNOWN_PERCENTAGE ? UNKNOWN : percentage;
+    }
 
+    private static void writePercentage(FriendlyByteBuf buf, int percentage) {
+        buf.writeByte(percentage < 0 ? UNKNOWN_PERCENTAGE : Math.min(percentage, 100));
     }
 }
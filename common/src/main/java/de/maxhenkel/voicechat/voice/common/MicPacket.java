@@ -7,11 +7,26 @@ public class MicPacket implements Packet<MicPacket> {
     private byte[] data;
     private boolean whispering;
     private long sequenceNumber;
+    private int suppressedFrames;
+    private boolean discontinuous;
 
     public MicPacket(byte[] data, boolean whispering, long sequenceNumber) {
+        this(data, whispering, sequenceNumber, 0, false);
+    }
+
+    /**
+     * @param data             the opus encoded audio
+     * @param whispering       if the player is whispering
+     * @param sequenceNumber   the sequence number
+     * @param suppressedFrames the amount of silent frames that weren't transmitted directly before this packet
+     * @param discontinuous    if the following frames might not be transmitted, as long as they are silent
+     */
+    public MicPacket(byte[] data, boolean whispering, long sequenceNumber, int suppressedFrames, boolean discontinuous) {
         this.data = data;
         this.whispering = whispering;
         this.sequenceNumber = sequenceNumber;
+        this.suppressedFrames = suppressedFrames;
+        this.discontinuous = discontinuous;
     }
 
     public MicPacket() {
@@ -35,12 +50,25 @@ public class MicPacket implements Packet<MicPacket> {
         return whispering;
     }
 
+    public int getSuppressedFrames() {
+        return suppressedFrames;
+    }
+
+    public boolean isDiscontinuous() {
+        return discontinuous;
+    }
+
     @Override
     public MicPacket fromBytes(FriendlyByteBuf buf) {
         MicPacket soundPacket = new MicPacket();
         soundPacket.data = buf.readByteArray();
         soundPacket.sequenceNumber = buf.readLong();
         soundPacket.whispering = buf.readBoolean();
+        // Older versions don't support discontinuous transmission
+        if (buf.readableBytes() > 0) {
+            soundPacket.suppressedFrames = buf.readVarInt();
+            soundPacket.discontinuous = buf.readBoolean();
+        }
         return soundPacket;
     }
 
@@ -49,5 +77,9 @@ public class MicPacket implements Packet<MicPacket> {
         buf.writeByteArray(data);
         buf.writeLong(sequenceNumber);
         buf.writeBoolean(whispering);
+        if (suppressedFrames > 0 || discontinuous) {
+            buf.writeVarInt(suppressedFrames);
+            buf.writeBoolean(discontinuous);
+        }
     }
 }
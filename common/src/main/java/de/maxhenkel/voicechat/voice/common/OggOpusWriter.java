@@ -0,0 +1,332 @@
+package de.maxhenkel.voicechat.voice.common;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Writes multiple Opus streams into a single Ogg file (RFC 3533, RFC 7845).
+ * All streams share the same timeline, which starts at granule position 0.
+ * Gaps in a stream are filled with empty Opus frames, which decoders play back as silence.
+ * The pages of all streams are written every {@link #PAGE_INTERVAL} samples of the timeline,
+ * so the pages in the file are ordered by time, even if some streams are silent for a long time.
+ * <p>
+ * All streams need to be added before {@link #writeHeaders()} is called, since Ogg requires the headers of all
+ * concurrently multiplexed streams to be at the beginning of the file.
+ */
+public class OggOpusWriter implements AutoCloseable {
+
+    public static final int SAMPLE_RATE = 48000;
+
+    /**
+     * The maximum amount of packets per page (one second of 20ms frames)
+     */
+    private static final int MAX_PACKETS_PER_PAGE = 50;
+    /**
+     * The interval in samples in which the pages of all streams are written (one second)
+     */
+    private static final long PAGE_INTERVAL = SAMPLE_RATE;
+    /**
+     * The TOC byte of the empty frames that fill streams that didn't receive any packet yet (20 ms CELT frames)
+     */
+    private static final int DEFAULT_TOC = 0xF8;
+    private static final int STEREO_MASK = 0x04;
+    private static final int MAX_SEGMENTS_PER_PAGE = 255;
+
+    private static final int HEADER_TYPE_BOS = 0x02;
+    private static final int HEADER_TYPE_EOS = 0x04;
+
+    private static final byte[] VENDOR = "Simple Voice Chat".getBytes(StandardCharsets.UTF_8);
+
+    private static final int[] CRC_TABLE = new int[256];
+
+    static {
+        for (int i = 0; i < CRC_TABLE.length; i++) {
+            int r = i << 24;
+            for (int j = 0; j < 8; j++) {
+                r = (r & 0x80000000) != 0 ? (r << 1) ^ 0x04C11DB7 : r << 1;
+            }
+            CRC_TABLE[i] = r;
+        }
+    }
+
+    private final OutputStream outputStream;
+    private final List<Stream> streams;
+    private boolean headersWritten;
+    private long bytesWritten;
+    private long pageBoundary;
+
+    public OggOpusWriter(OutputStream outputStream) {
+        this.outputStream = outputStream;
+        this.streams = new ArrayList<>();
+        this.pageBoundary = PAGE_INTERVAL;
+    }
+
+    /**
+     * @param serial   the unique serial number of the stream
+     * @param title    the title of the stream
+     * @param channels the channel count
+     * @return the stream
+     */
+    public Stream addStream(int serial, String title, int channels) {
+        if (headersWritten) {
+            throw new IllegalStateException("Can't add streams after the headers were written");
+        }
+        for (Stream stream : streams) {
+            if (stream.serial == serial) {
+                throw new IllegalArgumentException("Duplicate stream serial %s".formatted(serial));
+            }
+        }
+        Stream stream = new Stream(serial, title, channels);
+        streams.add(stream);
+        return stream;
+    }
+
+    public void writeHeaders() throws IOException {
+        if (headersWritten) {
+            return;
+        }
+        headersWritten = true;
+        for (Stream stream : streams) {
+            stream.addPacket(stream.createOpusHead(), 0L);
+            stream.writePage(HEADER_TYPE_BOS);
+        }
+        for (Stream stream : streams) {
+            stream.addPacket(stream.createOpusTags(), 0L);
+            stream.writePage(0);
+        }
+    }
+
+    /**
+     * Writes an Opus packet.
+     * If the start position is after the end of the previous packet, the gap gets filled with empty frames.
+     * Packets that would start before the end of the previous packet are appended directly after it.
+     *
+     * @param stream the stream
+     * @param start  the position of the packet on the shared timeline in samples
+     * @param packet the Opus packet
+     * @throws IOException if an I/O error occurs
+     */
+    public void writePacket(Stream stream, long start, byte[] packet) throws IOException {
+        if (!headersWritten) {
+            throw new IllegalStateException("Headers not written");
+        }
+        int samples = getSamples(packet);
+        if (samples <= 0) {
+            return;
+        }
+        // Packets of different streams don't arrive exactly in order, so the pages are written one interval behind the newest packet
+        while (start >= pageBoundary + PAGE_INTERVAL) {
+            writePages(pageBoundary);
+            pageBoundary += PAGE_INTERVAL;
+        }
+        if (stream.lastToc < 0) {
+            // The first packet defines the frame size of the gap at the beginning of the stream
+            stream.lastToc = packet[0] & 0xFF;
+        }
+        stream.fillGap(start);
+        stream.lastToc = packet[0] & 0xFF;
+        stream.addPacket(packet, stream.granule + samples);
+    }
+
+    /**
+     * Fills all streams up to the provided position and writes their pages.
+     *
+     * @param position the position on the shared timeline in samples
+     * @throws IOException if an I/O error occurs
+     */
+    private void writePages(long position) throws IOException {
+        for (Stream stream : streams) {
+            if (stream.lastToc < 0) {
+                stream.lastToc = stream.channels == 2 ? DEFAULT_TOC | STEREO_MASK : DEFAULT_TOC;
+            }
+            stream.fillGap(position);
+            stream.writePage(0);
+        }
+    }
+
+    /**
+     * @return the amount of bytes that were written to the output stream
+     */
+    public long getBytesWritten() {
+        return bytesWritten;
+    }
+
+    @Override
+    public void close() throws IOException {
+        writeHeaders();
+        for (Stream stream : streams) {
+            stream.writePage(HEADER_TYPE_EOS);
+        }
+        outputStream.close();
+    }
+
+    /**
+     * Calculates the duration of an Opus packet (RFC 6716, section 3.1).
+     *
+     * @param packet the Opus packet
+     * @return the duration of the packet in samples at 48 kHz or 0 if the packet is invalid
+     */
+    public static int getSamples(byte[] packet) {
+        if (packet.length <= 0) {
+            return 0;
+        }
+        int toc = packet[0] & 0xFF;
+        int config = toc >> 3;
+        int frameSize;
+        if (config < 12) {
+            // SILK: 10, 20, 40 or 60 ms
+            frameSize = config % 4 == 3 ? 2880 : 480 << (config % 4);
+        } else if (config < 16) {
+            // Hybrid: 10 or 20 ms
+            frameSize = 480 << (config % 2);
+        } else {
+            // CELT: 2.5, 5, 10 or 20 ms
+            frameSize = 120 << (config % 4);
+        }
+        int frames;
+        switch (toc & 0x03) {
+            case 0 -> frames = 1;
+            case 1, 2 -> frames = 2;
+            default -> {
+                if (packet.length < 2) {
+                    return 0;
+                }
+                frames = packet[1] & 0x3F;
+            }
+        }
+        return frameSize * frames;
+    }
+
+    private static int crc(int crc, byte[] data, int offset, int length) {
+        for (int i = offset; i < offset + length; i++) {
+            crc = (crc << 8) ^ CRC_TABLE[((crc >>> 24) & 0xFF) ^ (data[i] & 0xFF)];
+        }
+        return crc;
+    }
+
+    private static void writeIntLE(ByteArrayOutputStream out, int value) {
+        out.write(value);
+        out.write(value >>> 8);
+        out.write(value >>> 16);
+        out.write(value >>> 24);
+    }
+
+    public class Stream {
+        private final int serial;
+        private final String title;
+        private final int channels;
+        private final ByteArrayOutputStream pageData;
+        private final ByteArrayOutputStream lacing;
+        private int packetCount;
+        private int pageSequence;
+        private long granule;
+        private long pageGranule;
+        private int lastToc;
+
+        private Stream(int serial, String title, int channels) {
+            this.serial = serial;
+            this.title = title;
+            this.channels = channels;
+            this.pageData = new ByteArrayOutputStream();
+            this.lacing = new ByteArrayOutputStream();
+            this.lastToc = -1;
+        }
+
+        private byte[] createOpusHead() {
+            ByteArrayOutputStream out = new ByteArrayOutputStream(19);
+            out.writeBytes("OpusHead".getBytes(StandardCharsets.US_ASCII));
+            out.write(1);
+            out.write(channels);
+            // Pre-skip - The streams don't start with the encoder delay, since they were captured mid-stream
+            out.write(0);
+            out.write(0);
+            writeIntLE(out, SAMPLE_RATE);
+            // Output gain
+            out.write(0);
+            out.write(0);
+            // Channel mapping family
+            out.write(0);
+            return out.toByteArray();
+        }
+
+        private byte[] createOpusTags() {
+            byte[] comment = ("TITLE=" + title).getBytes(StandardCharsets.UTF_8);
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            out.writeBytes("OpusTags".getBytes(StandardCharsets.US_ASCII));
+            writeIntLE(out, VENDOR.length);
+            out.writeBytes(VENDOR);
+            writeIntLE(out, 1);
+            writeIntLE(out, comment.length);
+            out.writeBytes(comment);
+            return out.toByteArray();
+        }
+
+        private void fillGap(long start) throws IOException {
+            // A frame without data is treated as lost by the decoder, which fades it to silence
+            byte[] empty = new byte[]{(byte) (lastToc & 0xFC)};
+            int samples = getSamples(empty);
+            while (granule + samples <= start) {
+                addPacket(empty, granule + samples);
+            }
+        }
+
+        private void addPacket(byte[] packet, long endGranule) throws IOException {
+            int segments = packet.length / 255 + 1;
+            if (packetCount > 0 && (packetCount >= MAX_PACKETS_PER_PAGE || lacing.size() + segments > MAX_SEGMENTS_PER_PAGE)) {
+                writePage(0);
+            }
+            for (int i = 0; i < segments - 1; i++) {
+                lacing.write(255);
+            }
+            lacing.write(packet.length % 255);
+            pageData.write(packet, 0, packet.length);
+            packetCount++;
+            granule = endGranule;
+            pageGranule = endGranule;
+        }
+
+        private void writePage(int headerType) throws IOException {
+            if (packetCount <= 0 && (headerType & HEADER_TYPE_EOS) == 0) {
+                return;
+            }
+            byte[] segmentTable = lacing.toByteArray();
+            byte[] header = new byte[27 + segmentTable.length];
+            header[0] = 'O';
+            header[1] = 'g';
+            header[2] = 'g';
+            header[3] = 'S';
+            header[4] = 0;
+            header[5] = (byte) headerType;
+            for (int i = 0; i < 8; i++) {
+                header[6 + i] = (byte) (pageGranule >>> (i * 8));
+            }
+            for (int i = 0; i < 4; i++) {
+                header[14 + i] = (byte) (serial >>> (i * 8));
+                header[18 + i] = (byte) (pageSequence >>> (i * 8));
+            }
+            header[26] = (byte) segmentTable.length;
+            System.arraycopy(segmentTable, 0, header, 27, segmentTable.length);
+            byte[] data = pageData.toByteArray();
+            int crc = crc(crc(0, header, 0, header.length), data, 0, data.length);
+            for (int i = 0; i < 4; i++) {
+                header[22 + i] = (byte) (crc >>> (i * 8));
+            }
+            outputStream.write(header);
+            outputStream.write(data);
+            bytesWritten += header.length + data.length;
+            pageSequence++;
+            packetCount = 0;
+            lacing.reset();
+            pageData.reset();
+        }
+
+        public long getGranule() {
+            return granule;
+        }
+    }
+
+}
@@ -52,6 +52,7 @@ public class PlayerSoundPacket extends SoundPacket<PlayerSoundPacket> {
         if (hasFlag(data, HAS_CATEGORY_MASK)) {
             soundPacket.category = buf.readUtf(16);
         }
+        soundPacket.readDiscontinuity(data, buf);
         return soundPacket;
     }
 
@@ -70,10 +71,12 @@ public class PlayerSoundPacket extends SoundPacket<PlayerSoundPacket> {
         if (category != null) {
             data = setFlag(data, HAS_CATEGORY_MASK);
         }
+        data = setDiscontinuityFlags(data);
         buf.writeByte(data);
         if (category != null) {
             buf.writeUtf(category, 16);
         }
+        writeSuppressedFrames(buf);
     }
 
 }
@@ -1,5 +1,7 @@
 package de.maxhenkel.voicechat.voice.common;
 
+import net.minecraft.network.FriendlyByteBuf;
+
 import javax.annotation.Nullable;
 import java.util.UUID;
 
@@ -7,6 +9,8 @@ public abstract class SoundPacket<T extends SoundPacket> implements Packet<T> {
 
     public static final byte WHISPER_MASK = 0b1;
     public static final byte HAS_CATEGORY_MASK = 0b10;
+    public static final byte DISCONTINUOUS_MASK = 0b100;
+    public static final byte HAS_SUPPRESSED_FRAMES_MASK = 0b1000;
 
     protected UUID channelId;
     protected UUID sender;
@@ -14,6 +18,8 @@ public abstract class SoundPacket<T extends SoundPacket> implements Packet<T> {
     protected long sequenceNumber;
     @Nullable
     protected String category;
+    protected int suppressedFrames;
+    protected boolean discontinuous;
 
     public SoundPacket(UUID channelId, UUID sender, byte[] data, long sequenceNumber, @Nullable String category) {
         this.channelId = channelId;
@@ -60,6 +66,53 @@ public abstract class SoundPacket<T extends SoundPacket> implements Packet<T> {
         return category;
     }
 
+    /**
+     * @return the amount of silent frames the sender didn't transmit directly before this packet
+     */
+    public int getSuppressedFrames() {
+        return suppressedFrames;
+    }
+
+    /**
+     * @return if the sender might not transmit the following frames, as long as they are silent
+     */
+    public boolean isDiscontinuous() {
+        return discontinuous;
+    }
+
+    /**
+     * Takes over the discontinuous transmission state of the microphone packet this packet was created from.
+     *
+     * @param packet the microphone packet
+     */
+    public void setDiscontinuity(MicPacket packet) {
+        this.suppressedFrames = packet.getSuppressedFrames();
+        this.discontinuous = packet.isDiscontinuous();
+    }
+
+    protected byte setDiscontinuityFlags(byte data) {
+        if (discontinuous) {
+            data = setFlag(data, DISCONTINUOUS_MASK);
+        }
+        if (suppressedFrames > 0) {
+            data = setFlag(data, HAS_SUPPRESSED_FRAMES_MASK);
+        }
+        return data;
+    }
+
+    protected void writeSuppressedFrames(FriendlyByteBuf buf) {
+        if (suppressedFrames > 0) {
+            buf.writeVarInt(suppressedFrames);
+        }
+    }
+
+    protected void readDiscontinuity(byte data, FriendlyByteBuf buf) {
+        discontinuous = hasFlag(data, DISCONTINUOUS_MASK);
+        if (hasFlag(data, HAS_SUPPRESSED_FRAMES_MASK)) {
+            suppressedFrames = buf.readVarInt();
+        }
+    }
+
     protected boolean hasFlag(byte data, byte mask) {
         return (data & mask) != 0b0;
     }
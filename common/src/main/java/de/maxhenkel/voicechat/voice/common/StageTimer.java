@@ -0,0 +1,55 @@
+package de.maxhenkel.voicechat.voice.common;
+
+/**
+ * Measures the time a stage of an audio pipeline takes per frame.
+ * Only written by a single thread.
+ */
+public class StageTimer {
+
+    private volatile long count;
+    private volatile long last;
+    private volatile long max;
+    private volatile long total;
+
+    /**
+     * @param nanos the time the frame took in nanoseconds
+     */
+    public void record(long nanos) {
+        last = nanos;
+        total += nanos;
+        if (nanos > max) {
+            max = nanos;
+        }
+        count++;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    /**
+     * @return the time of the last frame in nanoseconds
+     */
+    public long getLast() {
+        return last;
+    }
+
+    /**
+     * @return the highest time in nanoseconds
+     */
+    public long getMax() {
+        return max;
+    }
+
+    /**
+     * @return the average time in nanoseconds
+     */
+    public long getAverage() {
+        long c = count;
+        if (c <= 0L) {
+            return 0L;
+        }
+        return total / c;
+    }
+
+}
@@ -10,6 +10,7 @@ import net.minecraft.util.Mth;
 import net.minecraft.world.phys.Vec2;
 
 import javax.annotation.Nullable;
+import java.nio.FloatBuffer;
 import java.util.concurrent.atomic.AtomicReference;
 import java.util.function.Consumer;
 
@@ -26,11 +27,27 @@ public class Utils {
         if (bytes.length % 2 != 0) {
             throw new IllegalArgumentException("Input bytes need to be divisible by 2");
         }
-        short[] data = new short[bytes.length / 2];
+        return bytesToShorts(bytes, new short[bytes.length / 2]);
+    }
+
+    /**
+     * Converts the bytes into the provided short array
+     *
+     * @param bytes  the bytes
+     * @param shorts the output array - needs to be at least half the size of the bytes
+     * @return the provided short array
+     */
+    public static short[] bytesToShorts(byte[] bytes, short[] shorts) {
+        if (bytes.length % 2 != 0) {
+            throw new IllegalArgumentException("Input bytes need to be divisible by 2");
+        }
+        if (shorts.length < bytes.length / 2) {
+            throw new IllegalArgumentException("Output array is too small");
+        }
         for (int i = 0; i < bytes.length; i += 2) {
-            data[i / 2] = bytesToShort(bytes[i], bytes[i + 1]);
+            shorts[i / 2] = bytesToShort(bytes[i], bytes[i + 1]);
         }
-        return data;
+        return shorts;
     }
 
     public static byte[] shortsToBytes(short[] shorts) {
@@ -60,13 +77,39 @@ public class Utils {
     private static final float FLOAT_SHORT_SCALING_FACTOR = 1F / FLOAT_SHORT_SCALE;
 
     public static short[] floatsToShortsNormalized(float[] audioData) {
-        short[] shortAudioData = new short[audioData.length];
+        return floatsToShortsNormalized(audioData, new short[audioData.length]);
+    }
+
+    /**
+     * Converts normalized float audio into the provided short array
+     *
+     * @param audioData      the float audio
+     * @param shortAudioData the output array - needs to be at least the size of the float audio
+     * @return the provided short array
+     */
+    public static short[] floatsToShortsNormalized(float[] audioData, short[] shortAudioData) {
         for (int i = 0; i < audioData.length; i++) {
             shortAudioData[i] = (short) Math.max(Math.min(audioData[i] * FLOAT_SHORT_SCALE, FLOAT_CLIP), -FLOAT_SHORT_SCALE);
         }
         return shortAudioData;
     }
 
+    /**
+     * Converts normalized float audio into the provided short array
+     *
+     * @param audioData      the float audio - all remaining floats are converted, without changing the position of the buffer
+     * @param shortAudioData the output array - needs to be at least the size of the remaining float audio
+     * @return the provided short array
+     */
+    public static short[] floatsToShortsNormalized(FloatBuffer audioData, short[] shortAudioData) {
+        int offset = audioData.position();
+        int length = audioData.remaining();
+        for (int i = 0; i < length; i++) {
+            shortAudioData[i] = (short) Math.max(Math.min(audioData.get(offset + i) * FLOAT_SHORT_SCALE, FLOAT_CLIP), -FLOAT_SHORT_SCALE);
+        }
+        return shortAudioData;
+    }
+
     public static float[] shortsToFloatsNormalized(short[] audioData) {
         float[] floatAudioData = new float[audioData.length];
         for (int i = 0; i < audioData.length; i++) {
@@ -0,0 +1,154 @@
+package de.maxhenkel.voicechat.voice.server;
+
+import de.maxhenkel.voicechat.Voicechat;
+import de.maxhenkel.voicechat.voice.common.NamedThreadPoolFactory;
+
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A single thread that owns all timeouts of the voice chat server.
+ * Deadlines can be cancelled at any time and the amount of pending deadlines is tracked per type.
+ */
+public class DeadlineScheduler {
+
+    private final ScheduledThreadPoolExecutor executor;
+    private final AtomicInteger[] pendingDeadlines;
+
+    public DeadlineScheduler() {
+        executor = new ScheduledThreadPoolExecutor(1, NamedThreadPoolFactory.create("VoiceChatDeadlineSchedulerThread"));
+        executor.setRemoveOnCancelPolicy(true);
+        executor.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+        pendingDeadlines = new AtomicInteger[Type.values().length];
+        for (int i = 0; i < pendingDeadlines.length; i++) {
+            pendingDeadlines[i] = new AtomicInteger();
+        }
+    }
+
+    /**
+     * Runs the task once after the delay.
+     *
+     * @param type  the type of the deadline
+     * @param delay the delay in milliseconds
+     * @param task  the task
+     * @return the deadline
+     */
+    public Deadline schedule(Type type, long delay, Runnable task) {
+        Deadline deadline = new Deadline(type);
+        deadline.future = executor.schedule(() -> {
+            if (deadline.complete()) {
+                deadline.run(task);
+            }
+        }, delay, TimeUnit.MILLISECONDS);
+        return deadline;
+    }
+
+    /**
+     * Runs the task in a fixed interval until the deadline is cancelled.
+     *
+     * @param type     the type of the deadline
+     * @param interval the interval in milliseconds
+     * @param task     the task
+     * @return the deadline
+     */
+    public Deadline scheduleAtFixedRate(Type type, long interval, Runnable task) {
+        Deadline deadline = new Deadline(type);
+        deadline.future = executor.scheduleAtFixedRate(() -> {
+            if (deadline.done.get()) {
+                // The deadline was cancelled before the future was set
+                deadline.future.cancel(false);
+                return;
+            }
+            deadline.run(task);
+        }, interval, interval, TimeUnit.MILLISECONDS);
+        return deadline;
+    }
+
+    /**
+     * @param type the type of the deadlines
+     * @return the amount of deadlines of this type that didn't run yet or didn't get cancelled yet
+     */
+    public int getPendingDeadlines(Type type) {
+        return pendingDeadlines[type.ordinal()].get();
+    }
+
+    /**
+     * @return the amount of all deadlines that didn't run yet or didn't get cancelled yet
+     */
+    public int getPendingDeadlines() {
+        int pending = 0;
+        for (AtomicInteger p : pendingDeadlines) {
+            pending += p.get();
+        }
+        return pending;
+    }
+
+    public void close() {
+        executor.shutdownNow();
+    }
+
+    public class Deadline {
+        private final Type type;
+        private final AtomicBoolean done;
+        private volatile ScheduledFuture<?> future;
+
+        private Deadline(Type type) {
+            this.type = type;
+            this.done = new AtomicBoolean();
+            pendingDeadlines[type.ordinal()].incrementAndGet();
+        }
+
+        private boolean complete() {
+            if (!done.compareAndSet(false, true)) {
+                return false;
+            }
+            pendingDeadlines[type.ordinal()].decrementAndGet();
+            return true;
+        }
+
+        private void run(Runnable task) {
+            try {
+                task.run();
+            } catch (Exception e) {
+                // Exceptions would cancel all future executions of repeating tasks
+                Voicechat.LOGGER.error("Failed to run {} deadline", type.name().toLowerCase(), e);
+            }
+        }
+
+        /**
+         * Cancels the deadline. Cancelling a deadline that already ran has no effect.
+         *
+         * @return if the deadline was cancelled before it ran
+         */
+        public boolean cancel() {
+            if (!complete()) {
+                return false;
+            }
+            // If the future isn't set yet, the task won't run, since the deadline is already completed
+            ScheduledFuture<?> f = future;
+            if (f != null) {
+                f.cancel(false);
+            }
+            return true;
+        }
+
+        /**
+         * @return if the deadline already ran or got cancelled
+         */
+        public boolean isDone() {
+            return done.get();
+        }
+
+        public Type getType() {
+            return type;
+        }
+    }
+
+    public enum Type {
+        LOGIN, KEEP_ALIVE, PING
+    }
+
+}
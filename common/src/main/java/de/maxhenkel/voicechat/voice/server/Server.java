@@ -5,11 +5,14 @@ import de.maxhenkel.voicechat.api.RawUdpPacket;
 import de.maxhenkel.voicechat.api.VoicechatSocket;
 import de.maxhenkel.voicechat.api.events.SoundPacketEvent;
 import de.maxhenkel.voicechat.debug.CooldownTimer;
+import de.maxhenkel.voicechat.debug.RateLimiter;
 import de.maxhenkel.voicechat.debug.VoicechatUncaughtExceptionHandler;
 import de.maxhenkel.voicechat.intercompatibility.CommonCompatibilityManager;
-import de.maxhenkel.voicechat.permission.PermissionManager;
+import de.maxhenkel.voicechat.permission.PermissionCache;
 import de.maxhenkel.voicechat.plugins.PluginManager;
 import de.maxhenkel.voicechat.voice.common.*;
+import de.maxhenkel.voicechat.voice.server.recording.SessionRecorder;
+import net.minecraft.ChatFormatting;
 import net.minecraft.network.chat.Component;
 import net.minecraft.server.MinecraftServer;
 import net.minecraft.server.dedicated.DedicatedServer;
@@ -17,6 +20,7 @@ import net.minecraft.server.level.ServerPlayer;
 import net.minecraft.world.entity.Entity;
 
 import javax.annotation.Nullable;
+import java.io.IOException;
 import java.net.InetAddress;
 import java.security.SecureRandom;
 import java.util.Collection;
@@ -29,6 +33,16 @@ import java.util.concurrent.TimeUnit;
 
 public class Server extends Thread {
 
+    /**
+     * The time in milliseconds in which a player only gets notified once about missing permissions
+     */
+    private static final long PERMISSION_MESSAGE_COOLDOWN = 30_000L;
+    private static final int MAX_PERMISSION_MESSAGE_ENTRIES = 1024;
+    /**
+     * The amount of keep alive intervals after which packet loss reports of receivers are discarded
+     */
+    private static final long LOSS_REPORT_KEEP_ALIVES = 3L;
+
     private final Map<UUID, ClientConnection> connections;
     private final Map<UUID, ClientConnection> unCheckedConnections;
     private final Map<UUID, UUID> secrets;
@@ -41,8 +55,15 @@ public class Server extends Thread {
     private final PlayerStateManager playerStateManager;
     private final ServerGroupManager groupManager;
     private final ServerCategoryManager categoryManager;
+    private final PermissionCache permissionCache;
+    private final RateLimiter<UUID> noSpeakMessages;
+    private final RateLimiter<UUID> noListenMessages;
+    @Nullable
+    private final SessionRecorder sessionRecorder;
+    private final DeadlineScheduler deadlineScheduler;
+    private final DeadlineScheduler.Deadline keepAliveDeadline;
 
-    public Server(MinecraftServer server) {
+    public Server(MinecraftServer server, DeadlineScheduler deadlineScheduler) {
         if (server instanceof DedicatedServer) {
             int configPort = Voicechat.SERVER_CONFIG.voiceChatPort.get();
             if (configPort < 0) {
@@ -55,6 +76,7 @@ public class Server extends Thread {
             port = 0;
         }
         this.server = server;
+        this.deadlineScheduler = deadlineScheduler;
         socket = PluginManager.instance().getSocketImplementation(server);
         connections = new ConcurrentHashMap<>();
         unCheckedConnections = new ConcurrentHashMap<>();
@@ -64,6 +86,10 @@ public class Server extends Thread {
         playerStateManager = new PlayerStateManager(this);
         groupManager = new ServerGroupManager(this);
         categoryManager = new ServerCategoryManager(this);
+        permissionCache = new PermissionCache();
+        noSpeakMessages = new RateLimiter<>(PERMISSION_MESSAGE_COOLDOWN, MAX_PERMISSION_MESSAGE_ENTRIES);
+        noListenMessages = new RateLimiter<>(PERMISSION_MESSAGE_COOLDOWN, MAX_PERMISSION_MESSAGE_ENTRIES);
+        sessionRecorder = createSessionRecorder();
         CommonCompatibilityManager.INSTANCE.onPlayerLoggedIn(this::onPlayerLoggedIn);
         CommonCompatibilityManager.INSTANCE.onPlayerLoggedOut(this::onPlayerLoggedOut);
         setDaemon(true);
@@ -71,15 +97,20 @@ public class Server extends Thread {
         setUncaughtExceptionHandler(new VoicechatUncaughtExceptionHandler());
         processThread = new ProcessThread();
         processThread.start();
+        keepAliveDeadline = deadlineScheduler.scheduleAtFixedRate(DeadlineScheduler.Type.KEEP_ALIVE, Voicechat.SERVER_CONFIG.keepAlive.get(), this::sendKeepAlives);
     }
 
     private void onPlayerLoggedIn(ServerPlayer player) {
+        permissionCache.invalidate(player.getUUID());
         playerStateManager.onPlayerLoggedIn(player);
     }
 
     private void onPlayerLoggedOut(ServerPlayer player) {
         playerStateManager.onPlayerLoggedOut(player);
         groupManager.onPlayerLoggedOut(player);
+        permissionCache.invalidate(player.getUUID());
+        noSpeakMessages.remove(player.getUUID());
+        noListenMessages.remove(player.getUUID());
     }
 
     @Override
@@ -184,9 +215,29 @@ public class Server extends Thread {
         PluginManager.instance().onPlayerDisconnected(playerUUID);
     }
 
+    @Nullable
+    private static SessionRecorder createSessionRecorder() {
+        if (!Voicechat.SERVER_CONFIG.recordSessions.get()) {
+            return null;
+        }
+        try {
+            SessionRecorder recorder = SessionRecorder.create(CommonCompatibilityManager.INSTANCE.getGameDirectory().resolve("voicechat_sessions"));
+            Voicechat.LOGGER.info("Recording voice chat session to {}", recorder.getFile());
+            return recorder;
+        } catch (IOException e) {
+            Voicechat.LOGGER.error("Failed to start session recording", e);
+            return null;
+        }
+    }
+
     public void close() {
+        keepAliveDeadline.cancel();
+        pingManager.close();
         socket.close();
         processThread.close();
+        if (sessionRecorder != null) {
+            sessionRecorder.close();
+        }
 
         PluginManager.instance().onServerStopped();
     }
@@ -195,13 +246,26 @@ public class Server extends Thread {
         return !processThread.running;
     }
 
+    /**
+     * The load is measured by how long microphone packets wait in the queue relative to their time to live.
+     *
+     * @return the smoothed load of the packet processing thread (0-1)
+     */
+    public float getLoad() {
+        return processThread.load;
+    }
+
+    /**
+     * The weight of a single microphone packet in the smoothed server load
+     */
+    private static final float LOAD_SMOOTHING = 0.01F;
+
     private class ProcessThread extends Thread {
         private boolean running;
-        private long lastKeepAlive;
+        private volatile float load;
 
         public ProcessThread() {
             running = true;
-            lastKeepAlive = 0L;
             setDaemon(true);
             setName("VoiceChatPacketProcessingThread");
             setUncaughtExceptionHandler(new VoicechatUncaughtExceptionHandler());
@@ -211,13 +275,6 @@ public class Server extends Thread {
         public void run() {
             while (running) {
                 try {
-                    pingManager.checkTimeouts();
-                    long keepAliveTime = System.currentTimeMillis();
-                    if (keepAliveTime - lastKeepAlive > Voicechat.SERVER_CONFIG.keepAlive.get()) {
-                        sendKeepAlives();
-                        lastKeepAlive = keepAliveTime;
-                    }
-
                     RawUdpPacket rawPacket = packetQueue.poll(10, TimeUnit.MILLISECONDS);
                     if (rawPacket == null) {
                         continue;
@@ -227,9 +284,10 @@ public class Server extends Thread {
                     try {
                         message = NetworkMessage.readPacketServer(rawPacket, Server.this);
                     } catch (Exception e) {
-                        CooldownTimer.run("failed_reading_packet", () -> {
-                            Voicechat.LOGGER.warn("Failed to read packet from {}", rawPacket.getSocketAddress());
-                        });
+                        long suppressed = CooldownTimer.check("failed_reading_packet");
+                        if (suppressed != RateLimiter.SUPPRESSED) {
+                            Voicechat.LOGGER.warn("Failed to read packet from {} ({} failures suppressed)", rawPacket.getSocketAddress(), suppressed);
+                        }
                         continue;
                     }
 
@@ -237,11 +295,17 @@ public class Server extends Thread {
                         continue;
                     }
 
-                    if (System.currentTimeMillis() - message.getTimestamp() > message.getTTL()) {
-                        CooldownTimer.run("ttl", () -> {
+                    long queueTime = System.currentTimeMillis() - message.getTimestamp();
+                    if (message.getPacket() instanceof MicPacket) {
+                        updateLoad(queueTime, message.getTTL());
+                    }
+
+                    if (queueTime > message.getTTL()) {
+                        long suppressed = CooldownTimer.check("ttl");
+                        if (suppressed != RateLimiter.SUPPRESSED) {
                             Voicechat.LOGGER.warn("Dropping voice chat packets! Your Server might be overloaded!");
-                            Voicechat.LOGGER.warn("Packet queue has {} packets", packetQueue.size());
-                        });
+                            Voicechat.LOGGER.warn("Packet queue has {} packets ({} drops suppressed)", packetQueue.size(), suppressed);
+                        }
                         continue;
                     }
 
@@ -280,6 +344,9 @@ public class Server extends Thread {
                             CommonCompatibilityManager.INSTANCE.emitServerVoiceChatConnectedEvent(player);
                             PluginManager.instance().onPlayerConnected(player);
                             Voicechat.LOGGER.info("Player {} ({}) successfully connected to voice chat", player.getDisplayName().getString(), connection.getPlayerUUID());
+                            if (sessionRecorder != null) {
+                                server.execute(() -> player.sendSystemMessage(Component.literal(Voicechat.TRANSLATIONS.sessionRecordingMessage.get()).withStyle(ChatFormatting.RED)));
+                            }
                         }
                         sendPacket(new ConnectionCheckAckPacket(), connection);
                         continue;
@@ -294,8 +361,10 @@ public class Server extends Thread {
                         onMicPacket(conn.getPlayerUUID(), packet);
                     } else if (message.getPacket() instanceof PingPacket packet) {
                         pingManager.onPongPacket(packet);
-                    } else if (message.getPacket() instanceof KeepAlivePacket) {
-                        conn.setLastKeepAliveResponse(System.currentTimeMillis());
+                    } else if (message.getPacket() instanceof KeepAlivePacket packet) {
+                        conn.onKeepAliveResponse(System.currentTimeMillis());
+                        conn.setDiscontinuousTransmission(packet.isDiscontinuousTransmission());
+                        onLossReports(conn, packet.getLossReports());
                     }
                 } catch (Exception e) {
                     Voicechat.LOGGER.error("Voice chat server error", e);
@@ -303,6 +372,11 @@ public class Server extends Thread {
             }
         }
 
+        private void updateLoad(long queueTime, long ttl) {
+            float value = Math.min((float) queueTime / (float) ttl, 1F);
+            load += (value - load) * LOAD_SMOOTHING;
+        }
+
         public void close() {
             running = false;
         }
@@ -313,10 +387,10 @@ public class Server extends Thread {
         if (player == null) {
             return;
         }
-        if (!PermissionManager.INSTANCE.SPEAK_PERMISSION.hasPermission(player)) {
-            CooldownTimer.run("no-speak-" + playerUuid, 30_000L, () -> {
+        if (!permissionCache.canSpeak(player)) {
+            if (noSpeakMessages.check(playerUuid) != RateLimiter.SUPPRESSED) {
                 player.displayClientMessage(Component.translatable("message.voicechat.no_speak_permission"), true);
-            });
+            }
             return;
         }
         PlayerState state = playerStateManager.getState(player.getUUID());
@@ -324,28 +398,40 @@ public class Server extends Thread {
             return;
         }
         if (!PluginManager.instance().onMicPacket(player, state, packet)) {
-            processMicPacket(player, state, packet);
+            int listeners = processMicPacket(player, state, packet);
+            ClientConnection connection = getConnection(playerUuid);
+            if (connection != null) {
+                connection.setListeners(listeners);
+            }
         }
     }
 
-    private void processMicPacket(ServerPlayer player, PlayerState state, MicPacket packet) {
+    /**
+     * @return the amount of players that received the packet
+     */
+    private int processMicPacket(ServerPlayer player, PlayerState state, MicPacket packet) {
+        if (sessionRecorder != null) {
+            sessionRecorder.record(player.getUUID(), player.getGameProfile().getName(), packet.getSequenceNumber(), packet.getData());
+        }
         if (state.hasGroup()) {
             @Nullable Group group = groupManager.getGroup(state.getGroup());
-            processGroupPacket(state, player, packet);
+            int listeners = processGroupPacket(state, player, packet);
             if (group == null || group.isOpen()) {
-                processProximityPacket(state, player, packet);
+                listeners += processProximityPacket(state, player, packet);
             }
-            return;
+            return listeners;
         }
-        processProximityPacket(state, player, packet);
+        return processProximityPacket(state, player, packet);
     }
 
-    private void processGroupPacket(PlayerState senderState, ServerPlayer sender, MicPacket packet) {
+    private int processGroupPacket(PlayerState senderState, ServerPlayer sender, MicPacket packet) {
         UUID groupId = senderState.getGroup();
         if (groupId == null) {
-            return;
+            return 0;
         }
+        int listeners = 0;
         GroupSoundPacket groupSoundPacket = new GroupSoundPacket(senderState.getUuid(), senderState.getUuid(), packet.getData(), packet.getSequenceNumber(), null);
+        groupSoundPacket.setDiscontinuity(packet);
         for (PlayerState state : playerStateManager.getStates()) {
             if (!groupId.equals(state.getGroup())) {
                 continue;
@@ -358,11 +444,14 @@ public class Server extends Thread {
                 continue;
             }
             @Nullable ClientConnection connection = getConnection(state.getUuid());
-            sendSoundPacket(sender, senderState, p, state, connection, groupSoundPacket, SoundPacketEvent.SOURCE_GROUP);
+            if (sendSoundPacket(sender, senderState, p, state, connection, groupSoundPacket, SoundPacketEvent.SOURCE_GROUP)) {
+                listeners++;
+            }
         }
+        return listeners;
     }
 
-    private void processProximityPacket(PlayerState senderState, ServerPlayer sender, MicPacket packet) {
+    private int processProximityPacket(PlayerState senderState, ServerPlayer sender, MicPacket packet) {
         @Nullable UUID groupId = senderState.getGroup();
         float distance = Utils.getDefaultDistance();
 
@@ -375,17 +464,18 @@ public class Server extends Thread {
                     if (spectatingPlayer != sender) {
                         PlayerState receiverState = playerStateManager.getState(spectatingPlayer.getUUID());
                         if (receiverState == null) {
-                            return;
+                            return 0;
                         }
                         GroupSoundPacket groupSoundPacket = new GroupSoundPacket(senderState.getUuid(), senderState.getUuid(), packet.getData(), packet.getSequenceNumber(), null);
+                        groupSoundPacket.setDiscontinuity(packet);
                         @Nullable ClientConnection connection = getConnection(receiverState.getUuid());
-                        sendSoundPacket(sender, senderState, spectatingPlayer, receiverState, connection, groupSoundPacket, SoundPacketEvent.SOURCE_SPECTATOR);
-                        return;
+                        return sendSoundPacket(sender, senderState, spectatingPlayer, receiverState, connection, groupSoundPacket, SoundPacketEvent.SOURCE_SPECTATOR) ? 1 : 0;
                     }
                 }
             }
             if (Voicechat.SERVER_CONFIG.spectatorInteraction.get()) {
                 soundPacket = new LocationSoundPacket(sender.getUUID(), sender.getUUID(), sender.getEyePosition(), packet.getData(), packet.getSequenceNumber(), distance, null);
+                soundPacket.setDiscontinuity(packet);
                 source = SoundPacketEvent.SOURCE_SPECTATOR;
             }
         }
@@ -396,34 +486,38 @@ public class Server extends Thread {
             float multiplier = crouchMultiplayer * whisperMultiplayer;
             distance = distance * multiplier;
             soundPacket = new PlayerSoundPacket(sender.getUUID(), sender.getUUID(), packet.getData(), packet.getSequenceNumber(), packet.isWhispering(), distance, null);
+            soundPacket.setDiscontinuity(packet);
             source = SoundPacketEvent.SOURCE_PROXIMITY;
         }
 
-        broadcast(ServerWorldUtils.getPlayersInRange(sender.serverLevel(), sender.position(), getBroadcastRange(distance), p -> !p.getUUID().equals(sender.getUUID())), soundPacket, sender, senderState, groupId, source);
+        return broadcast(ServerWorldUtils.getPlayersInRange(sender.serverLevel(), sender.position(), getBroadcastRange(distance), p -> !p.getUUID().equals(sender.getUUID())), soundPacket, sender, senderState, groupId, source);
     }
 
-    public void sendSoundPacket(@Nullable ServerPlayer sender, @Nullable PlayerState senderState, ServerPlayer receiver, PlayerState receiverState, @Nullable ClientConnection connection, SoundPacket<?> soundPacket, String source) {
+    /**
+     * @return if the packet was sent to the receiver
+     */
+    public boolean sendSoundPacket(@Nullable ServerPlayer sender, @Nullable PlayerState senderState, ServerPlayer receiver, PlayerState receiverState, @Nullable ClientConnection connection, SoundPacket<?> soundPacket, String source) {
         PluginManager.instance().onListenerAudio(receiver.getUUID(), soundPacket);
 
         if (connection == null) {
-            return;
+            return false;
         }
 
         if (receiverState.isDisabled() || receiverState.isDisconnected()) {
-            return;
+            return false;
         }
 
         if (PluginManager.instance().onSoundPacket(sender, senderState, receiver, receiverState, soundPacket, source)) {
-            return;
+            return false;
         }
 
-        if (!PermissionManager.INSTANCE.LISTEN_PERMISSION.hasPermission(receiver)) {
-            CooldownTimer.run(String.format("no-listen-%s", receiver.getUUID()), 30_000L, () -> {
+        if (!permissionCache.canListen(receiver)) {
+            if (noListenMessages.check(receiver.getUUID()) != RateLimiter.SUPPRESSED) {
                 receiver.displayClientMessage(Component.translatable("message.voicechat.no_listen_permission"), true);
-            });
-            return;
+            }
+            return false;
         }
-        sendPacket(soundPacket, connection);
+        return sendPacket(soundPacket, connection);
     }
 
     public double getBroadcastRange(float minRange) {
@@ -434,7 +528,11 @@ public class Server extends Thread {
         return Math.max(broadcastRange, minRange);
     }
 
-    public void broadcast(Collection<ServerPlayer> players, SoundPacket<?> packet, @Nullable ServerPlayer sender, @Nullable PlayerState senderState, @Nullable UUID groupId, String source) {
+    /**
+     * @return the amount of players that received the packet
+     */
+    public int broadcast(Collection<ServerPlayer> players, SoundPacket<?> packet, @Nullable ServerPlayer sender, @Nullable PlayerState senderState, @Nullable UUID groupId, String source) {
+        int listeners = 0;
         for (ServerPlayer player : players) {
             PlayerState state = playerStateManager.getState(player.getUUID());
             if (state == null) {
@@ -451,7 +549,29 @@ public class Server extends Thread {
                 continue;
             }
             @Nullable ClientConnection connection = getConnection(state.getUuid());
-            sendSoundPacket(sender, senderState, player, state, connection, packet, source);
+            if (sendSoundPacket(sender, senderState, player, state, connection, packet, source)) {
+                listeners++;
+            }
+        }
+        return listeners;
+    }
+
+    /**
+     * Passes the packet loss a receiver measured on the audio of other players to the connections of these players.
+     *
+     * @param receiver    the connection that sent the reports
+     * @param lossReports the packet loss in percent keyed by the sending player
+     */
+    private void onLossReports(ClientConnection receiver, Map<UUID, Integer> lossReports) {
+        long time = System.currentTimeMillis();
+        for (Map.Entry<UUID, Integer> report : lossReports.entrySet()) {
+            if (report.getKey().equals(receiver.getPlayerUUID())) {
+                continue;
+            }
+            ClientConnection sender = connections.get(report.getKey());
+            if (sender != null) {
+                sender.reportPacketLoss(receiver.getPlayerUUID(), report.getValue(), time);
+            }
         }
     }
 
@@ -477,8 +597,14 @@ public class Server extends Thread {
             return false;
         });
 
+        int load = Math.round(getLoad() * 100F);
+        // Clients that don't support discontinuous transmission would treat the frames that weren't sent as packet loss
+        boolean discontinuousTransmission = connections.values().stream().allMatch(ClientConnection::supportsDiscontinuousTransmission);
+        // Receivers report their packet loss with every keep alive response
+        long minReportTime = timestamp - Voicechat.SERVER_CONFIG.keepAlive.get() * LOSS_REPORT_KEEP_ALIVES;
         for (ClientConnection connection : connections.values()) {
-            sendPacket(new KeepAlivePacket(), connection);
+            connection.setLastKeepAliveSent(timestamp);
+            sendPacket(new KeepAlivePacket(load, connection.getRoundTripTime(), connection.getListeners(), discontinuousTransmission, connection.getReportedPacketLoss(minReportTime)), connection);
         }
 
     }
@@ -548,6 +674,10 @@ public class Server extends Thread {
         connection.send(this, new NetworkMessage(packet));
     }
 
+    public DeadlineScheduler getDeadlineScheduler() {
+        return deadlineScheduler;
+    }
+
     public PingManager getPingManager() {
         return pingManager;
     }
@@ -560,6 +690,15 @@ public class Server extends Thread {
         return groupManager;
     }
 
+    @Nullable
+    public SessionRecorder getSessionRecorder() {
+        return sessionRecorder;
+    }
+
+    public PermissionCache getPermissionCache() {
+        return permissionCache;
+    }
+
     public ServerCategoryManager getCategoryManager() {
         return categoryManager;
     }
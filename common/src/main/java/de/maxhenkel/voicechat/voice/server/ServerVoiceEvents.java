@@ -6,6 +6,9 @@ import de.maxhenkel.voicechat.intercompatibility.CommonCompatibilityManager;
 import de.maxhenkel.voicechat.net.NetManager;
 import de.maxhenkel.voicechat.net.SecretPacket;
 import de.maxhenkel.voicechat.plugins.PluginManager;
+import de.maxhenkel.voicechat.plugins.impl.VoicechatServerApiImpl;
+import de.maxhenkel.voicechat.plugins.impl.audiochannel.AudioPlayerScheduler;
+import de.maxhenkel.voicechat.plugins.impl.audiochannel.StreamingAudioSupplierImpl;
 import net.minecraft.ChatFormatting;
 import net.minecraft.network.chat.Component;
 import net.minecraft.server.MinecraftServer;
@@ -14,18 +17,20 @@ import net.minecraft.server.level.ServerPlayer;
 
 import javax.annotation.Nullable;
 import java.util.Map;
-import java.util.Timer;
-import java.util.TimerTask;
 import java.util.UUID;
 import java.util.concurrent.ConcurrentHashMap;
 
 public class ServerVoiceEvents {
 
     private final Map<UUID, Integer> clientCompatibilities;
+    @Nullable
+    private DeadlineScheduler deadlineScheduler;
+    private final Map<UUID, DeadlineScheduler.Deadline> loginDeadlines;
     private Server server;
 
     public ServerVoiceEvents() {
         clientCompatibilities = new ConcurrentHashMap<>();
+        loginDeadlines = new ConcurrentHashMap<>();
         CommonCompatibilityManager.INSTANCE.onServerStarting(this::serverStarting);
         CommonCompatibilityManager.INSTANCE.onPlayerLoggedIn(this::playerLoggedIn);
         CommonCompatibilityManager.INSTANCE.onPlayerLoggedOut(this::playerLoggedOut);
@@ -67,6 +72,10 @@ public class ServerVoiceEvents {
             server.close();
             server = null;
         }
+        if (deadlineScheduler != null) {
+            deadlineScheduler.close();
+        }
+        deadlineScheduler = new DeadlineScheduler();
 
         if (!(mcServer instanceof DedicatedServer) && VoicechatClient.CLIENT_CONFIG != null && !VoicechatClient.CLIENT_CONFIG.runLocalServer.get()) {
             Voicechat.LOGGER.info("Disabling voice chat in singleplayer");
@@ -80,7 +89,7 @@ public class ServerVoiceEvents {
         }
 
         try {
-            server = new Server(mcServer);
+            server = new Server(mcServer, deadlineScheduler);
             server.start();
             PluginManager.instance().onServerStarted();
         } catch (Exception e) {
@@ -104,37 +113,41 @@ public class ServerVoiceEvents {
     }
 
     public void playerLoggedIn(ServerPlayer serverPlayer) {
-        if (!Voicechat.SERVER_CONFIG.forceVoiceChat.get()) {
+        if (!Voicechat.SERVER_CONFIG.forceVoiceChat.get() || deadlineScheduler == null) {
             return;
         }
 
-        Timer timer = new Timer("%s-login-timer".formatted(serverPlayer.getGameProfile().getName()), true);
-        timer.schedule(new TimerTask() {
-            @Override
-            public void run() {
-                timer.cancel();
-                timer.purge();
-                if (!serverPlayer.server.isRunning()) {
-                    return;
-                }
-                if (!serverPlayer.connection.isAcceptingMessages()) {
-                    return;
-                }
-                if (!isCompatible(serverPlayer)) {
-                    serverPlayer.server.execute(() -> {
-                        serverPlayer.connection.disconnect(
-                                Component.literal(Voicechat.TRANSLATIONS.forceVoicechatKickMessage.get().formatted(
-                                        CommonCompatibilityManager.INSTANCE.getModName(),
-                                        CommonCompatibilityManager.INSTANCE.getModVersion()
-                                ))
-                        );
-                    });
-                }
+        DeadlineScheduler.Deadline deadline = deadlineScheduler.schedule(DeadlineScheduler.Type.LOGIN, Voicechat.SERVER_CONFIG.loginTimeout.get(), () -> {
+            // Only removing the deadline if it wasn't replaced by a newer one
+            loginDeadlines.computeIfPresent(serverPlayer.getUUID(), (uuid, d) -> d.isDone() ? null : d);
+            if (!serverPlayer.server.isRunning()) {
+                return;
+            }
+            if (!serverPlayer.connection.isAcceptingMessages()) {
+                return;
+            }
+            if (!isCompatible(serverPlayer)) {
+                serverPlayer.server.execute(() -> {
+                    serverPlayer.connection.disconnect(
+                            Component.literal(Voicechat.TRANSLATIONS.forceVoicechatKickMessage.get().formatted(
+                                    CommonCompatibilityManager.INSTANCE.getModName(),
+                                    CommonCompatibilityManager.INSTANCE.getModVersion()
+                            ))
+                    );
+                });
             }
-        }, Voicechat.SERVER_CONFIG.loginTimeout.get());
+        });
+        DeadlineScheduler.Deadline previous = loginDeadlines.put(serverPlayer.getUUID(), deadline);
+        if (previous != null) {
+            previous.cancel();
+        }
     }
 
     public void playerLoggedOut(ServerPlayer player) {
+        DeadlineScheduler.Deadline loginDeadline = loginDeadlines.remove(player.getUUID());
+        if (loginDeadline != null) {
+            loginDeadline.cancel();
+        }
         clientCompatibilities.remove(player.getUUID());
         if (server == null) {
             return;
@@ -150,10 +163,19 @@ public class ServerVoiceEvents {
     }
 
     public void serverStopping(MinecraftServer mcServer) {
+        loginDeadlines.values().forEach(DeadlineScheduler.Deadline::cancel);
+        loginDeadlines.clear();
         if (server != null) {
             server.close();
             server = null;
         }
+        if (deadlineScheduler != null) {
+            deadlineScheduler.close();
+            deadlineScheduler = null;
+        }
+        AudioPlayerScheduler.shutdown();
+        StreamingAudioSupplierImpl.shutdown();
+        VoicechatServerApiImpl.instance().getEncodedAudioCache().clear();
     }
 
 }
@@ -0,0 +1,152 @@
+package de.maxhenkel.voicechat.voice.server.recording;
+
+import de.maxhenkel.voicechat.voice.common.OggOpusWriter;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Writes the {@link SessionIndex} of a session while it is being recorded.
+ * Only used by the I/O thread of the {@link SessionRecorder}.
+ */
+class SessionIndexWriter {
+
+    private static final int BUFFER_SIZE = 16 * 1024;
+    private static final int SAMPLES_PER_MS = OggOpusWriter.SAMPLE_RATE / 1000;
+
+    private final FileChannel channel;
+    private ByteBuffer buffer;
+    private final List<SpeakerState> speakers;
+    private long lastSeekPoint;
+
+    public SessionIndexWriter(Path file, long startTime) throws IOException {
+        this.channel = FileChannel.open(file, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+        this.buffer = ByteBuffer.allocate(BUFFER_SIZE);
+        this.speakers = new ArrayList<>();
+        this.lastSeekPoint = Long.MIN_VALUE;
+        buffer.put(SessionIndex.MAGIC);
+        buffer.put((byte) SessionIndex.VERSION);
+        buffer.putLong(startTime);
+    }
+
+    public void writeSpeaker(int index, UUID uuid, byte[] name) throws IOException {
+        ensureCapacity(1 + 2 + 16 + 2 + name.length);
+        buffer.put(SessionIndex.RECORD_SPEAKER);
+        buffer.putShort((short) index);
+        buffer.putLong(uuid.getMostSignificantBits());
+        buffer.putLong(uuid.getLeastSignificantBits());
+        buffer.putShort((short) name.length);
+        buffer.put(name);
+        speakers.add(new SpeakerState());
+    }
+
+    /**
+     * @param speaker        the speaker index
+     * @param offset         the offset of the frame record in the session file
+     * @param timestamp      the time the frame was received
+     * @param sequenceNumber the sequence number of the frame
+     * @param data           the Opus packet
+     * @throws IOException if an I/O error occurs
+     */
+    public void writeFrame(int speaker, long offset, long timestamp, long sequenceNumber, byte[] data) throws IOException {
+        if (timestamp - lastSeekPoint >= SessionIndex.SEEK_POINT_INTERVAL) {
+            lastSeekPoint = timestamp;
+            ensureCapacity(1 + 8 + 8);
+            buffer.put(SessionIndex.RECORD_SEEK_POINT);
+            buffer.putLong(timestamp);
+            buffer.putLong(offset);
+        }
+
+        SpeakerState state = speakers.get(speaker);
+        int samples = OggOpusWriter.getSamples(data);
+        if (samples <= 0) {
+            endSpurt(speaker, state);
+            return;
+        }
+        // Has to match the talk spurt detection of the SessionExporter
+        if (state.active && (sequenceNumber <= state.lastSequenceNumber || sequenceNumber - state.lastSequenceNumber > SessionIndex.MAX_SEQUENCE_GAP)) {
+            endSpurt(speaker, state);
+        }
+        if (!state.active) {
+            state.active = true;
+            state.frames = 0;
+            ensureCapacity(1 + 2 + 8 + 8 + 8);
+            buffer.put(SessionIndex.RECORD_SPURT_START);
+            buffer.putShort((short) speaker);
+            buffer.putLong(timestamp);
+            buffer.putLong(sequenceNumber);
+            buffer.putLong(offset);
+        }
+        state.lastSequenceNumber = sequenceNumber;
+        state.end = timestamp + samples / SAMPLES_PER_MS;
+        state.frames++;
+    }
+
+    /**
+     * Ends the talk spurts of all speakers.
+     *
+     * @throws IOException if an I/O error occurs
+     */
+    public void endSpurts() throws IOException {
+        for (int i = 0; i < speakers.size(); i++) {
+            endSpurt(i, speakers.get(i));
+        }
+    }
+
+    private void endSpurt(int speaker, SpeakerState state) throws IOException {
+        if (!state.active) {
+            return;
+        }
+        state.active = false;
+        ensureCapacity(1 + 2 + 8 + 4);
+        buffer.put(SessionIndex.RECORD_SPURT_END);
+        buffer.putShort((short) speaker);
+        buffer.putLong(state.end);
+        buffer.putInt(state.frames);
+    }
+
+    /**
+     * Grows the buffer instead of writing it, so records never reach the file before the session data they point to.
+     */
+    private void ensureCapacity(int size) {
+        if (buffer.remaining() >= size) {
+            return;
+        }
+        ByteBuffer newBuffer = ByteBuffer.allocate(Math.max(buffer.capacity() * 2, buffer.position() + size));
+        buffer.flip();
+        newBuffer.put(buffer);
+        buffer = newBuffer;
+    }
+
+    /**
+     * Writes all buffered records.
+     * Must only be called after the session data has been written, so the index never points past the end of the session file.
+     *
+     * @throws IOException if an I/O error occurs
+     */
+    public void flush() throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    private static class SpeakerState {
+        private boolean active;
+        private long lastSequenceNumber;
+        private long end;
+        private int frames;
+    }
+
+}
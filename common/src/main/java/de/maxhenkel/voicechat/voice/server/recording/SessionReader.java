@@ -0,0 +1,192 @@
+package de.maxhenkel.voicechat.voice.server.recording;
+
+import javax.annotation.Nullable;
+import java.io.*;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Reads session files written by {@link SessionRecorder}.
+ * Sessions that were not closed properly can still be read up to the last complete record.
+ * If the session has a {@link SessionIndex}, the reader can {@link #seek(SessionIndex, long) seek} to a specific time.
+ */
+public class SessionReader implements AutoCloseable {
+
+    private final FileChannel channel;
+    private DataInputStream in;
+    private final long startTime;
+    private final List<Speaker> speakers;
+
+    public SessionReader(Path file) throws IOException {
+        channel = FileChannel.open(file, StandardOpenOption.READ);
+        in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel)));
+        speakers = new ArrayList<>();
+        byte[] magic = new byte[SessionRecorder.MAGIC.length];
+        try {
+            in.readFully(magic);
+            if (!Arrays.equals(magic, SessionRecorder.MAGIC)) {
+                throw new IOException("Not a voice chat session file");
+            }
+            int version = in.readUnsignedByte();
+            if (version != SessionRecorder.VERSION) {
+                throw new IOException(String.format("Unsupported session version %s", version));
+            }
+            startTime = in.readLong();
+        } catch (IOException e) {
+            in.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Continues reading at the provided offset.
+     * The speakers are taken from the index, since their records might be before the offset.
+     *
+     * @param index  the index of the session
+     * @param offset the offset of a record - see {@link SessionIndex#getOffset(long, java.util.function.Predicate)}
+     * @throws IOException if an I/O error occurs
+     */
+    public void seek(SessionIndex index, long offset) throws IOException {
+        for (Speaker speaker : index.getSpeakers()) {
+            if (speaker.getIndex() == speakers.size()) {
+                speakers.add(speaker);
+            }
+        }
+        channel.position(Math.max(offset, SessionRecorder.HEADER_SIZE));
+        // Not closing the old stream, since that would close the channel
+        in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel)));
+    }
+
+    /**
+     * @return the next frame or <code>null</code> if the end of the session was reached
+     * @throws IOException if an I/O error occurs or the file is corrupted
+     */
+    @Nullable
+    public Frame next() throws IOException {
+        try {
+            while (true) {
+                int type = in.read();
+                if (type < 0) {
+                    return null;
+                }
+                if (type == SessionRecorder.RECORD_SPEAKER) {
+                    int index = in.readUnsignedShort();
+                    UUID uuid = new UUID(in.readLong(), in.readLong());
+                    byte[] name = new byte[in.readUnsignedShort()];
+                    in.readFully(name);
+                    if (index < speakers.size()) {
+                        // Already known from the index
+                        continue;
+                    }
+                    if (index != speakers.size()) {
+                        throw new IOException(String.format("Invalid speaker index %s", index));
+                    }
+                    speakers.add(new Speaker(index, uuid, new String(name, StandardCharsets.UTF_8)));
+                } else if (type == SessionRecorder.RECORD_FRAME) {
+                    int index = in.readUnsignedShort();
+                    long timestamp = in.readLong();
+                    long sequenceNumber = in.readLong();
+                    byte[] data = new byte[in.readUnsignedShort()];
+                    in.readFully(data);
+                    if (index >= speakers.size()) {
+                        throw new IOException(String.format("Unknown speaker index %s", index));
+                    }
+                    return new Frame(speakers.get(index), timestamp, sequenceNumber, data);
+                } else {
+                    throw new IOException(String.format("Invalid record type %s", type));
+                }
+            }
+        } catch (EOFException e) {
+            // The last record is incomplete, since the session was not closed properly
+            return null;
+        }
+    }
+
+    public long getStartTime() {
+        return startTime;
+    }
+
+    /**
+     * @return all speakers that were read so far
+     */
+    public List<Speaker> getSpeakers() {
+        return Collections.unmodifiableList(speakers);
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+
+    public static class Speaker {
+        private final int index;
+        private final UUID uuid;
+        private final String name;
+
+        public Speaker(int index, UUID uuid, String name) {
+            this.index = index;
+            this.uuid = uuid;
+            this.name = name;
+        }
+
+        public int getIndex() {
+            return index;
+        }
+
+        public UUID getUuid() {
+            return uuid;
+        }
+
+        /**
+         * @return the name of the speaker or an empty string if the speaker has no name
+         */
+        public String getName() {
+            return name;
+        }
+    }
+
+    public static class Frame {
+        private final Speaker speaker;
+        private final long timestamp;
+        private final long sequenceNumber;
+        private final byte[] data;
+
+        public Frame(Speaker speaker, long timestamp, long sequenceNumber, byte[] data) {
+            this.speaker = speaker;
+            this.timestamp = timestamp;
+            this.sequenceNumber = sequenceNumber;
+            this.data = data;
+        }
+
+        public Speaker getSpeaker() {
+            return speaker;
+        }
+
+        /**
+         * @return the time the server received or sent the packet
+         */
+        public long getTimestamp() {
+            return timestamp;
+        }
+
+        public long getSequenceNumber() {
+            return sequenceNumber;
+        }
+
+        /**
+         * @return the Opus packet or an empty array if the speaker stopped talking
+         */
+        public byte[] getData() {
+            return data;
+        }
+    }
+
+}
@@ -0,0 +1,296 @@
+package de.maxhenkel.voicechat.voice.server.recording;
+
+import de.maxhenkel.voicechat.Voicechat;
+import de.maxhenkel.voicechat.debug.CooldownTimer;
+import de.maxhenkel.voicechat.debug.VoicechatUncaughtExceptionHandler;
+
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Records the Opus packets the voice chat server receives and sends into an append-only session file, without decoding them.
+ * Packets are handed to a dedicated I/O thread, which writes them in batches, so recording doesn't delay sending audio.
+ * <p>
+ * The file starts with {@link #MAGIC}, the version and the start time of the session.
+ * It is followed by records, which are either a speaker or a frame. See {@link SessionReader} for reading sessions.
+ * The {@link SessionIndex} of the session is written to a separate file at the same time.
+ */
+public class SessionRecorder {
+
+    public static final byte[] MAGIC = new byte[]{'S', 'V', 'C', 'S'};
+    public static final int VERSION = 1;
+    public static final String FILE_EXTENSION = ".svcs";
+
+    /**
+     * Speaker record: type (byte), speaker index (short), UUID (2 longs), name length (short), name (UTF-8)
+     */
+    static final byte RECORD_SPEAKER = 1;
+    /**
+     * Frame record: type (byte), speaker index (short), timestamp (long), sequence number (long), length (short), Opus data
+     */
+    static final byte RECORD_FRAME = 2;
+    static final int FRAME_HEADER_SIZE = 1 + 2 + 8 + 8 + 2;
+    static final int HEADER_SIZE = 4 + 1 + 8;
+
+    private static final int QUEUE_CAPACITY = 8192;
+    /**
+     * Large enough to fit the largest possible record
+     */
+    private static final int BUFFER_SIZE = 128 * 1024;
+    /**
+     * The maximum time in milliseconds packets are buffered before they get written to the file
+     */
+    private static final long FLUSH_INTERVAL = 1000L;
+
+    private final Path file;
+    private final long startTime;
+    private final FileChannel channel;
+    private final SessionIndexWriter indexWriter;
+    private final BlockingQueue<Frame> queue;
+    private final WriterThread writerThread;
+    private final AtomicLong droppedFrames;
+    private volatile long writtenFrames;
+    private volatile long writtenBytes;
+
+    public SessionRecorder(Path file) throws IOException {
+        this.file = file;
+        this.startTime = System.currentTimeMillis();
+        this.channel = FileChannel.open(file, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+        try {
+            this.indexWriter = new SessionIndexWriter(SessionIndex.getIndexFile(file), startTime);
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+        this.queue = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+        this.droppedFrames = new AtomicLong();
+        this.writerThread = new WriterThread();
+        writerThread.start();
+    }
+
+    /**
+     * Creates a new session file in the provided directory.
+     *
+     * @param directory the directory
+     * @return the recorder
+     * @throws IOException if the file could not be created
+     */
+    public static SessionRecorder create(Path directory) throws IOException {
+        Files.createDirectories(directory);
+        String name = new SimpleDateFormat("yyyy-MM-dd-HH-mm-ss-SSS").format(new Date());
+        return new SessionRecorder(directory.resolve(name + FILE_EXTENSION));
+    }
+
+    /**
+     * Queues an Opus packet for recording.
+     * This doesn't block - if the I/O thread can't keep up, the packet is dropped.
+     *
+     * @param speaker        the UUID of the player or audio channel
+     * @param name           the name of the speaker - only used for the first packet of a speaker
+     * @param sequenceNumber the sequence number of the packet
+     * @param data           the Opus packet or an empty array if the speaker stopped talking - Must not be modified afterwards
+     */
+    public void record(UUID speaker, @Nullable String name, long sequenceNumber, byte[] data) {
+        if (!writerThread.running) {
+            return;
+        }
+        if (!queue.offer(new Frame(speaker, name, System.currentTimeMillis(), sequenceNumber, data))) {
+            droppedFrames.incrementAndGet();
+            CooldownTimer.run("session_recording_dropped", CooldownTimer.DEFAULT_COOLDOWN, suppressed -> {
+                Voicechat.LOGGER.warn("Session recording can't keep up - dropping audio ({} drops suppressed)", suppressed);
+            });
+        }
+    }
+
+    public Path getFile() {
+        return file;
+    }
+
+    public Path getIndexFile() {
+        return SessionIndex.getIndexFile(file);
+    }
+
+    public long getStartTime() {
+        return startTime;
+    }
+
+    public long getWrittenFrames() {
+        return writtenFrames;
+    }
+
+    public long getWrittenBytes() {
+        return writtenBytes;
+    }
+
+    public long getDroppedFrames() {
+        return droppedFrames.get();
+    }
+
+    /**
+     * Writes all queued packets and closes the file.
+     */
+    public void close() {
+        if (!writerThread.running) {
+            return;
+        }
+        // Not interrupting the thread, since that would close the file channel
+        writerThread.running = false;
+        try {
+            writerThread.join(5000L);
+        } catch (InterruptedException e) {
+            Voicechat.LOGGER.error("Interrupted while waiting for the session recording to finish", e);
+        }
+    }
+
+    private static class Frame {
+        private final UUID speaker;
+        @Nullable
+        private final String name;
+        private final long timestamp;
+        private final long sequenceNumber;
+        private final byte[] data;
+
+        public Frame(UUID speaker, @Nullable String name, long timestamp, long sequenceNumber, byte[] data) {
+            this.speaker = speaker;
+            this.name = name;
+            this.timestamp = timestamp;
+            this.sequenceNumber = sequenceNumber;
+            this.data = data;
+        }
+    }
+
+    private class WriterThread extends Thread {
+        private final ByteBuffer buffer;
+        private final Map<UUID, Integer> speakers;
+        private volatile boolean running;
+
+        public WriterThread() {
+            this.buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+            this.speakers = new HashMap<>();
+            this.running = true;
+            setDaemon(true);
+            setName("VoiceChatSessionRecorderThread");
+            setUncaughtExceptionHandler(new VoicechatUncaughtExceptionHandler());
+        }
+
+        @Override
+        public void run() {
+            try {
+                buffer.put(MAGIC);
+                buffer.put((byte) VERSION);
+                buffer.putLong(startTime);
+                long lastFlush = System.currentTimeMillis();
+                while (running) {
+                    Frame frame = queue.poll(FLUSH_INTERVAL, TimeUnit.MILLISECONDS);
+                    if (frame != null) {
+                        writeFrame(frame);
+                        drainQueue();
+                    }
+                    // The buffer also gets written as soon as it is full
+                    long time = System.currentTimeMillis();
+                    if (time - lastFlush >= FLUSH_INTERVAL) {
+                        flush();
+                        lastFlush = time;
+                    }
+                }
+                drainQueue();
+                indexWriter.endSpurts();
+                flush();
+            } catch (IOException e) {
+                Voicechat.LOGGER.error("Failed to write session recording {}", file, e);
+            } catch (InterruptedException ignored) {
+            } finally {
+                running = false;
+                queue.clear();
+                try {
+                    channel.close();
+                } catch (IOException e) {
+                    Voicechat.LOGGER.error("Failed to close session recording {}", file, e);
+                }
+                try {
+                    indexWriter.close();
+                } catch (IOException e) {
+                    Voicechat.LOGGER.error("Failed to close session index {}", getIndexFile(), e);
+                }
+            }
+        }
+
+        private void drainQueue() throws IOException {
+            Frame frame;
+            while ((frame = queue.poll()) != null) {
+                writeFrame(frame);
+            }
+        }
+
+        private void writeFrame(Frame frame) throws IOException {
+            if (frame.data.length > 0xFFFF) {
+                return;
+            }
+            Integer index = speakers.get(frame.speaker);
+            if (index == null) {
+                if (speakers.size() > 0xFFFF) {
+                    return;
+                }
+                index = speakers.size();
+                speakers.put(frame.speaker, index);
+                writeSpeaker(index, frame);
+            }
+            ensureCapacity(FRAME_HEADER_SIZE + frame.data.length);
+            indexWriter.writeFrame(index, writtenBytes + buffer.position(), frame.timestamp, frame.sequenceNumber, frame.data);
+            buffer.put(RECORD_FRAME);
+            buffer.putShort((short) index.intValue());
+            buffer.putLong(frame.timestamp);
+            buffer.putLong(frame.sequenceNumber);
+            buffer.putShort((short) frame.data.length);
+            buffer.put(frame.data);
+            writtenFrames++;
+        }
+
+        private void writeSpeaker(int index, Frame frame) throws IOException {
+            byte[] name = frame.name == null ? new byte[0] : frame.name.getBytes(StandardCharsets.UTF_8);
+            if (name.length > 0xFFFF) {
+                name = new byte[0];
+            }
+            ensureCapacity(1 + 2 + 16 + 2 + name.length);
+            buffer.put(RECORD_SPEAKER);
+            buffer.putShort((short) index);
+            buffer.putLong(frame.speaker.getMostSignificantBits());
+            buffer.putLong(frame.speaker.getLeastSignificantBits());
+            buffer.putShort((short) name.length);
+            buffer.put(name);
+            indexWriter.writeSpeaker(index, frame.speaker, name);
+        }
+
+        private void ensureCapacity(int size) throws IOException {
+            if (buffer.remaining() < size) {
+                flush();
+            }
+        }
+
+        private void flush() throws IOException {
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                writtenBytes += channel.write(buffer);
+            }
+            buffer.clear();
+            // The index is written after the session, so it doesn't point to frames that are still buffered
+            indexWriter.flush();
+        }
+    }
+
+}
@@ -0,0 +1,154 @@
+package de.maxhenkel.voicechat.plugins.impl.opus;
+
+import de.maxhenkel.opus4j.OpusEncoder.Application;
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class PacketLossConcealmentTest {
+
+    private static final int SAMPLE_RATE = 48000;
+    private static final int FRAME_SIZE = 960;
+    private static final int FRAMES = 500;
+    private static final int BITRATE = 32_000;
+    private static final int[] LOSS_PERCENTAGES = {0, 5, 10, 20};
+
+    /**
+     * Decodes the same clip with simulated packet loss, the same way audio channels do.
+     * Reports the signal to noise ratio compared to decoding the clip without any loss, once with and once without forward error correction.
+     */
+    @Test
+    public void concealmentQualityByPacketLoss() {
+        short[][] clip = createClip();
+        double[] chances = new double[FRAMES];
+        Random random = new Random(0L);
+        for (int i = 0; i < FRAMES; i++) {
+            chances[i] = random.nextDouble();
+        }
+
+        double previousSnr = Double.POSITIVE_INFINITY;
+        for (int percentage : LOSS_PERCENTAGES) {
+            byte[][] packets = encode(clip, percentage);
+            boolean[] lost = new boolean[FRAMES];
+            // The same frames are lost at lower loss rates, so the results are comparable
+            for (int i = 1; i < FRAMES; i++) {
+                lost[i] = chances[i] < percentage / 100D;
+            }
+
+            Result reference = decode(packets, new boolean[FRAMES], true);
+            Result fec = decode(packets, lost, true);
+            Result plc = decode(packets, lost, false);
+
+            double fecSnr = getSnr(reference.audio, fec.audio);
+            double plcSnr = getSnr(reference.audio, plc.audio);
+            System.out.printf("Loss %s%%: FEC+PLC %.2f dB (%s recovered, %s concealed), PLC only %.2f dB (%s concealed)%n", percentage, fecSnr, fec.recovered, fec.concealed, plcSnr, plc.concealed);
+
+            if (percentage <= 0) {
+                assertArrayEquals(reference.audio, fec.audio);
+                continue;
+            }
+            assertFalse(Double.isNaN(fecSnr));
+            assertFalse(Double.isNaN(plcSnr));
+            assertEquals(fec.recovered + fec.concealed, plc.concealed);
+            assertTrue(fecSnr < previousSnr, () -> "SNR should decrease with more packet loss");
+            previousSnr = fecSnr;
+        }
+    }
+
+    /**
+     * A fixed, speech like clip - Harmonics of a gliding pitch with syllable shaped amplitude.
+     */
+    private static short[][] createClip() {
+        short[][] clip = new short[FRAMES][FRAME_SIZE];
+        double phase = 0D;
+        for (int frame = 0; frame < FRAMES; frame++) {
+            for (int i = 0; i < FRAME_SIZE; i++) {
+                double t = (double) (frame * FRAME_SIZE + i) / SAMPLE_RATE;
+                double pitch = 140D + 40D * Math.sin(2D * Math.PI * 0.7D * t);
+                phase += 2D * Math.PI * pitch / SAMPLE_RATE;
+                double envelope = Math.max(Math.sin(2D * Math.PI * 3D * t), 0D);
+                double sample = 0D;
+                for (int harmonic = 1; harmonic <= 10; harmonic++) {
+                    sample += Math.sin(phase * harmonic) / harmonic;
+                }
+                clip[frame][i] = (short) (sample * envelope * 6000D);
+            }
+        }
+        return clip;
+    }
+
+    private static byte[][] encode(short[][] clip, int expectedLoss) {
+        JavaOpusEncoderImpl encoder = new JavaOpusEncoderImpl(SAMPLE_RATE, FRAME_SIZE, 1024, Application.VOIP);
+        encoder.setBitrate(BITRATE);
+        encoder.setExpectedPacketLoss(expectedLoss);
+        byte[][] packets = new byte[clip.length][];
+        for (int i = 0; i < clip.length; i++) {
+            packets[i] = encoder.encode(clip[i]);
+        }
+        encoder.close();
+        return packets;
+    }
+
+    /**
+     * Decodes all packets - The last lost frame before a received packet is recovered with forward error correction, all others are concealed.
+     */
+    private static Result decode(byte[][] packets, boolean[] lost, boolean useFec) {
+        JavaOpusDecoderImpl decoder = new JavaOpusDecoderImpl(SAMPLE_RATE, FRAME_SIZE);
+        Result result = new Result(packets.length);
+        int lostFrames = 0;
+        for (int i = 0; i < packets.length; i++) {
+            if (lost[i]) {
+                lostFrames++;
+                continue;
+            }
+            for (int j = i - lostFrames; j < i; j++) {
+                if (useFec && j == i - 1 && OpusManager.hasFec(packets[i])) {
+                    result.write(j, decoder.decodeFec(packets[i]));
+                    result.recovered++;
+                } else {
+                    result.write(j, decoder.decode(null));
+                    result.concealed++;
+                }
+            }
+            lostFrames = 0;
+            result.write(i, decoder.decode(packets[i]));
+        }
+        for (int j = packets.length - lostFrames; j < packets.length; j++) {
+            result.write(j, decoder.decode(null));
+            result.concealed++;
+        }
+        decoder.close();
+        return result;
+    }
+
+    private static double getSnr(short[] reference, short[] audio) {
+        double signal = 0D;
+        double noise = 0D;
+        for (int i = 0; i < reference.length; i++) {
+            double difference = reference[i] - audio[i];
+            signal += (double) reference[i] * reference[i];
+            noise += difference * difference;
+        }
+        if (noise <= 0D) {
+            return Double.POSITIVE_INFINITY;
+        }
+        return 10D * Math.log10(signal / noise);
+    }
+
+    private static class Result {
+        private final short[] audio;
+        private int recovered;
+        private int concealed;
+
+        private Result(int frames) {
+            audio = new short[frames * FRAME_SIZE];
+        }
+
+        private void write(int frame, short[] decoded) {
+            System.arraycopy(decoded, 0, audio, frame * FRAME_SIZE, Math.min(decoded.length, FRAME_SIZE));
+        }
+    }
+
+}
@@ -0,0 +1,97 @@
+package de.maxhenkel.voicechat.voice.client;
+
+import net.minecraft.world.phys.Vec3;
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+public class PositionalAudioUtilsTest {
+
+    private static final int ITERATIONS = 1_000_000;
+    private static final float DELTA = 1E-5F;
+
+    /**
+     * Compares the pan calculation that rotates the sound into the view of the listener with the previous angle based calculation.
+     */
+    @Test
+    public void panMatchesAngleCalculation() {
+        Random random = new Random(0L);
+        for (int i = 0; i < ITERATIONS; i++) {
+            Vec3 cameraPos = randomPosition(random, 1000D);
+            Vec3 soundPos = cameraPos.add(randomPosition(random, 64D));
+            if (soundPos.x == cameraPos.x && soundPos.z == cameraPos.z) {
+                continue;
+            }
+            float yRot = (random.nextFloat() * 2F - 1F) * 720F;
+
+            float expected = getAnglePan(cameraPos, yRot, soundPos);
+            float pan = PositionalAudioUtils.getPan(cameraPos, yRot, soundPos);
+            assertEquals(expected, pan, DELTA, () -> "Pan of %s at %s with rotation %s".formatted(soundPos, cameraPos, yRot));
+            assertEquals(getLeftVolume(expected), PositionalAudioUtils.getLeftVolume(pan), DELTA);
+            assertEquals(getRightVolume(expected), PositionalAudioUtils.getRightVolume(pan), DELTA);
+        }
+    }
+
+    @Test
+    public void panOfCardinalDirections() {
+        Vec3 cameraPos = Vec3.ZERO;
+        // Looking south (positive Z) with a Y rotation of zero
+        assertEquals(0F, PositionalAudioUtils.getPan(cameraPos, 0F, new Vec3(0D, 0D, 1D)), DELTA);
+        assertEquals(0.5F, PositionalAudioUtils.getPan(cameraPos, 0F, new Vec3(-1D, 0D, 0D)), DELTA);
+        assertEquals(-0.5F, PositionalAudioUtils.getPan(cameraPos, 0F, new Vec3(1D, 0D, 0D)), DELTA);
+        assertEquals(0F, Math.abs(PositionalAudioUtils.getPan(cameraPos, 0F, new Vec3(0D, 0D, -1D))), DELTA);
+        // Looking west (negative X)
+        assertEquals(0F, PositionalAudioUtils.getPan(cameraPos, 90F, new Vec3(-1D, 0D, 0D)), DELTA);
+        assertEquals(0.5F, PositionalAudioUtils.getPan(cameraPos, 90F, new Vec3(0D, 0D, -1D)), DELTA);
+    }
+
+    private static Vec3 randomPosition(Random random, double range) {
+        return new Vec3((random.nextDouble() * 2D - 1D) * range, (random.nextDouble() * 2D - 1D) * range, (random.nextDouble() * 2D - 1D) * range);
+    }
+
+    /**
+     * The previous calculation, which used the angle between the sound direction and the negative X axis.
+     */
+    private static float getAnglePan(Vec3 cameraPos, float yRot, Vec3 soundPos) {
+        Vec3 d = soundPos.subtract(cameraPos).normalize();
+        float x = (float) d.x;
+        float z = (float) d.z;
+        float diffAngle = (float) Math.toDegrees(Math.atan2(-x, z));
+        float angle = normalizeAngle(diffAngle - (yRot % 360F));
+        float dif = (float) (Math.abs(cameraPos.y - soundPos.y) / 32);
+
+        float rot = angle / 180F;
+        float perc = rot;
+        if (rot < -0.5F) {
+            perc = -(0.5F + (rot + 0.5F));
+        } else if (rot > 0.5F) {
+            perc = 0.5F - (rot - 0.5F);
+        }
+        return perc * (1 - dif);
+    }
+
+    private static float normalizeAngle(float angle) {
+        angle = angle % 360F;
+        if (angle <= -180F) {
+            angle += 360F;
+        } else if (angle > 180F) {
+            angle -= 360F;
+        }
+        return angle;
+    }
+
+    private static float getLeftVolume(float perc) {
+        float left = perc < 0F ? Math.abs(perc * 1.4F) + 0.3F : 0.3F;
+        float right = perc >= 0F ? (perc * 1.4F) + 0.3F : 0.3F;
+        return left + 1F - Math.max(left, right);
+    }
+
+    private static float getRightVolume(float perc) {
+        float left = perc < 0F ? Math.abs(perc * 1.4F) + 0.3F : 0.3F;
+        float right = perc >= 0F ? (perc * 1.4F) + 0.3F : 0.3F;
+        return right + 1F - Math.max(left, right);
+    }
+
+}
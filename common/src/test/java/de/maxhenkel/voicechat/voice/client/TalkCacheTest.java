@@ -0,0 +1,196 @@
+package de.maxhenkel.voicechat.voice.client;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TalkCacheTest {
+
+    @Test
+    public void talkingTimesOut() {
+        AtomicLong time = new AtomicLong();
+        TalkCache cache = new TalkCache(time::get, UUID.randomUUID());
+        UUID player = UUID.randomUUID();
+
+        assertFalse(cache.isTalking(player));
+        cache.updateTalking(player, true);
+        assertTrue(cache.isTalking(player));
+        assertTrue(cache.isWhispering(player));
+
+        time.addAndGet(1000L);
+        assertFalse(cache.isTalking(player));
+        assertFalse(cache.isWhispering(player));
+    }
+
+    @Test
+    public void timestampsAreRelativeToCreation() {
+        // Further in the future than 41 bits of milliseconds since the epoch
+        AtomicLong time = new AtomicLong(1L << 42);
+        TalkCache cache = new TalkCache(time::get, UUID.randomUUID());
+        UUID player = UUID.randomUUID();
+
+        cache.updateTalking(player, false);
+        assertTrue(cache.isTalking(player));
+        time.addAndGet(1000L);
+        assertFalse(cache.isTalking(player));
+
+        cache.updateTalking(player, true);
+        AtomicLong otherTime = new AtomicLong(5000L);
+        cache.setTimestampSupplier(otherTime::get);
+        assertTrue(cache.isWhispering(player));
+        otherTime.addAndGet(1000L);
+        assertFalse(cache.isWhispering(player));
+    }
+
+    @Test
+    public void releasedSlotIsEmpty() {
+        AtomicLong time = new AtomicLong(1000L);
+        TalkCache cache = new TalkCache(time::get, UUID.randomUUID());
+        UUID player = UUID.randomUUID();
+
+        TalkCache.Slot slot = cache.getSlot(player);
+        slot.update(false);
+        cache.release(player);
+        assertTrue(slot.isReleased());
+        assertFalse(cache.isTalking(player));
+
+        slot.update(false);
+        assertFalse(cache.isTalking(player));
+    }
+
+    @Test
+    public void staleSlotDoesNotOverwriteReassignedSlot() {
+        AtomicLong time = new AtomicLong(1000L);
+        AtomicReference<Runnable> onTimestamp = new AtomicReference<>();
+        TalkCache cache = new TalkCache(() -> {
+            Runnable runnable = onTimestamp.getAndSet(null);
+            if (runnable != null) {
+                runnable.run();
+            }
+            return time.get();
+        }, UUID.randomUUID());
+
+        UUID oldPlayer = UUID.randomUUID();
+        UUID newPlayer = UUID.randomUUID();
+        TalkCache.Slot oldSlot = cache.getSlot(oldPlayer);
+        // Taking all other slots, so the new player gets the slot of the old player
+        for (int i = 1; i < TalkCache.CAPACITY; i++) {
+            cache.getSlot(UUID.randomUUID());
+        }
+
+        // Releasing and reassigning the slot after the old slot checked if it was released, but before it wrote its state
+        AtomicReference<TalkCache.Slot> newSlot = new AtomicReference<>();
+        onTimestamp.set(() -> {
+            cache.release(oldPlayer);
+            newSlot.set(cache.getSlot(newPlayer));
+        });
+        oldSlot.update(true);
+
+        assertNotNull(newSlot.get());
+        assertTrue(oldSlot.isReleased());
+        assertFalse(newSlot.get().isReleased());
+        assertFalse(cache.isTalking(newPlayer));
+        assertFalse(cache.isWhispering(newPlayer));
+
+        newSlot.get().update(false);
+        assertTrue(cache.isTalking(newPlayer));
+        assertFalse(cache.isWhispering(newPlayer));
+    }
+
+    /**
+     * 100 audio channels constantly update and release their slots, while players that never talk get slots assigned.
+     * The players that never talk must never be shown as talking, neither to the channels nor to a reader at 240 Hz.
+     */
+    @Test
+    public void silentPlayersNeverTalkUnderContention() throws InterruptedException {
+        TalkCache cache = new TalkCache(System::currentTimeMillis, UUID.randomUUID());
+        int channelCount = 100;
+        int silentCount = 10;
+        long duration = TimeUnit.SECONDS.toNanos(2L);
+
+        List<UUID> silentPlayers = new ArrayList<>();
+        for (int i = 0; i < silentCount; i++) {
+            silentPlayers.add(UUID.randomUUID());
+        }
+
+        AtomicBoolean running = new AtomicBoolean(true);
+        AtomicLong violations = new AtomicLong();
+        AtomicLong updates = new AtomicLong();
+        CountDownLatch start = new CountDownLatch(1);
+        List<Thread> threads = new ArrayList<>();
+
+        for (int i = 0; i < channelCount; i++) {
+            threads.add(new Thread(() -> {
+                UUID player = UUID.randomUUID();
+                TalkCache.Slot slot = cache.getSlot(player);
+                awaitStart(start);
+                long iteration = 0L;
+                while (running.get()) {
+                    if (slot.isReleased()) {
+                        slot = cache.getSlot(player);
+                    }
+                    slot.update(iteration % 2L == 0L);
+                    updates.incrementAndGet();
+                    if (++iteration % 16L == 0L) {
+                        cache.release(player);
+                    }
+                }
+            }));
+        }
+
+        for (UUID player : silentPlayers) {
+            threads.add(new Thread(() -> {
+                awaitStart(start);
+                while (running.get()) {
+                    cache.getSlot(player);
+                    if (cache.isTalking(player)) {
+                        violations.incrementAndGet();
+                    }
+                    cache.release(player);
+                }
+            }));
+        }
+
+        threads.add(new Thread(() -> {
+            awaitStart(start);
+            while (running.get()) {
+                for (UUID player : silentPlayers) {
+                    if (cache.isTalking(player) || cache.isWhispering(player)) {
+                        violations.incrementAndGet();
+                    }
+                }
+                LockSupport.parkNanos(TimeUnit.SECONDS.toNanos(1L) / 240L);
+            }
+        }));
+
+        threads.forEach(Thread::start);
+        start.countDown();
+        LockSupport.parkNanos(duration);
+        running.set(false);
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        assertTrue(updates.get() > 0L);
+        assertEquals(0L, violations.get());
+    }
+
+    private static void awaitStart(CountDownLatch start) {
+        try {
+            start.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+}